@@ -0,0 +1,109 @@
+package io.mdevlab.unconnectify;
+
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.data.AlarmRepository;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Startup test of MainActivity, which will execute on an Android device.
+ * The alarms are loaded in the background, so the first frame of the activity shouldn't wait
+ * for them: with 500 more alarms, it's drawn within one vsync (16 ms) of the first frame
+ * without them. The alarms are read from memory the second time, the first frame doesn't
+ * wait for the database either way
+ * <p>
+ * Delays are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainActivityStartupTest {
+
+    private static final String TAG = MainActivityStartupTest.class.getSimpleName();
+    private static final int SEEDED_ALARMS = 500;
+    private static final long VSYNC_MS = 16;
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityTestRule = new ActivityTestRule<>(MainActivity.class, false, false);
+
+    private final List<PreciseConnectivityAlarm> mSeededAlarms = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        AlarmRepository alarmRepository = AlarmRepository.getInstance(InstrumentationRegistry.getTargetContext());
+        for (PreciseConnectivityAlarm alarm : mSeededAlarms)
+            alarmRepository.deleteAlarm(alarm.getAlarmId());
+        alarmRepository.flushAndWait();
+    }
+
+    @Test
+    public void firstFrame_doesNotWaitForTheAlarms() throws Exception {
+        long[] withoutAlarms = launchAndMeasure();
+
+        // Seed the alarms, they're off so they aren't scheduled
+        for (int i = 0; i < SEEDED_ALARMS; i++)
+            mSeededAlarms.add(buildAlarm(i));
+        AlarmRepository alarmRepository = AlarmRepository.getInstance(InstrumentationRegistry.getTargetContext());
+        alarmRepository.createAlarms(mSeededAlarms);
+        alarmRepository.flushAndWait();
+
+        long[] withAlarms = launchAndMeasure();
+
+        Log.i(TAG, "First frame after " + withoutAlarms[0] + " ms, alarms shown after " + withoutAlarms[1]
+                + " ms without the seeded alarms, " + withAlarms[0] + " ms and " + withAlarms[1]
+                + " ms with " + SEEDED_ALARMS + " more alarms");
+
+        assertTrue(withAlarms[0] - withoutAlarms[0] <= VSYNC_MS);
+    }
+
+    /**
+     * Method that launches the activity and waits until it shows the alarms, then finishes it
+     *
+     * @return: The delay of the first frame and the delay of the first frame showing the alarms
+     */
+    private long[] launchAndMeasure() {
+        MainActivity activity = mActivityTestRule.launchActivity(null);
+
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (activity.getAlarmsFrameDelay() == -1 && SystemClock.uptimeMillis() < deadline)
+            SystemClock.sleep(10);
+        assertTrue(activity.getAlarmsFrameDelay() != -1);
+
+        long[] delays = {activity.getFirstFrameDelay(), activity.getAlarmsFrameDelay()};
+        activity.finish();
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        return delays;
+    }
+
+    /**
+     * @param index: Index of the alarm, used to spread the start times over the day
+     * @return: An inactive alarm of one hour on mondays handling wifi
+     */
+    private PreciseConnectivityAlarm buildAlarm(int index) {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.MONDAY);
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+
+        long startTime = System.currentTimeMillis() + index * 60000L;
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(startTime, 3600000L, days, connections);
+        alarm.setActive(false);
+        return alarm;
+    }
+}
@@ -0,0 +1,148 @@
+package io.mdevlab.unconnectify.adapter;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumentation test of the diffs of AlarmAdapter, which will execute on an Android device.
+ * Adding or deleting one alarm of a list of 1000 alarms only touches the row of that alarm
+ * <p>
+ * Results are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmAdapterDiffTest {
+
+    private static final String TAG = AlarmAdapterDiffTest.class.getSimpleName();
+    private static final int ALARM_COUNT = 1000;
+
+    private List<PreciseConnectivityAlarm> mAlarms;
+
+    @Before
+    public void setUp() {
+        mAlarms = new ArrayList<>();
+        for (int i = 0; i < ALARM_COUNT; i++)
+            mAlarms.add(buildAlarm(i + 1));
+    }
+
+    @Test
+    public void addedAlarm_oneInsertion() throws Exception {
+        List<PreciseConnectivityAlarm> newAlarms = new ArrayList<>(mAlarms);
+        newAlarms.add(0, buildAlarm(ALARM_COUNT + 1));
+
+        UpdateCounter counter = diffAlarms(mAlarms, newAlarms, "Added alarm");
+        assertEquals(1, counter.inserted);
+        assertEquals(0, counter.removed + counter.moved + counter.changed);
+    }
+
+    @Test
+    public void deletedAlarm_oneRemoval() throws Exception {
+        List<PreciseConnectivityAlarm> newAlarms = new ArrayList<>(mAlarms);
+        newAlarms.remove(ALARM_COUNT / 2);
+
+        UpdateCounter counter = diffAlarms(mAlarms, newAlarms, "Deleted alarm");
+        assertEquals(1, counter.removed);
+        assertEquals(0, counter.inserted + counter.moved + counter.changed);
+    }
+
+    @Test
+    public void editedAlarm_movedAndChanged() throws Exception {
+        List<AlarmAdapter.AlarmRow> oldRows = AlarmAdapter.rowsOf(mAlarms);
+
+        // The edited alarm becomes the last updated one, at the top of the list
+        PreciseConnectivityAlarm editedAlarm = mAlarms.remove(ALARM_COUNT / 2);
+        editedAlarm.setActive(false);
+        mAlarms.add(0, editedAlarm);
+
+        UpdateCounter counter = diff(oldRows, AlarmAdapter.rowsOf(mAlarms), "Edited alarm");
+        assertEquals(1, counter.moved);
+        assertEquals(1, counter.changed);
+        assertEquals(0, counter.inserted + counter.removed);
+    }
+
+    private UpdateCounter diffAlarms(List<PreciseConnectivityAlarm> oldAlarms, List<PreciseConnectivityAlarm> newAlarms, String change) {
+        return diff(AlarmAdapter.rowsOf(oldAlarms), AlarmAdapter.rowsOf(newAlarms), change);
+    }
+
+    /**
+     * Method that computes the diff of two lists of rows as AlarmAdapter does
+     *
+     * @param oldRows: Rows shown
+     * @param newRows: Rows of the new alarms
+     * @param change:  Description of the change, for the log
+     * @return: The updates of the diff
+     */
+    private UpdateCounter diff(List<AlarmAdapter.AlarmRow> oldRows, List<AlarmAdapter.AlarmRow> newRows, String change) {
+        long start = System.nanoTime();
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new AlarmAdapter.RowDiffCallback(oldRows, newRows), true);
+        long nanos = System.nanoTime() - start;
+
+        UpdateCounter counter = new UpdateCounter();
+        result.dispatchUpdatesTo(counter);
+        Log.i(TAG, change + " in " + ALARM_COUNT + " alarms, diff in " + nanos / 1000 + " us: "
+                + counter.inserted + " inserted, " + counter.removed + " removed, "
+                + counter.moved + " moved, " + counter.changed + " changed rows");
+        return counter;
+    }
+
+    /**
+     * @param alarmId: Id of the alarm, also used to spread the start times over the day
+     * @return: An alarm of one hour on mondays handling wifi
+     */
+    private PreciseConnectivityAlarm buildAlarm(int alarmId) {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.MONDAY);
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(alarmId * 60000L, 3600000L, days, connections);
+        alarm.setAlarmId(alarmId);
+        return alarm;
+    }
+
+    /**
+     * Counts the rows touched by the updates of a diff
+     */
+    private static class UpdateCounter implements ListUpdateCallback {
+
+        int inserted = 0;
+        int removed = 0;
+        int moved = 0;
+        int changed = 0;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            moved++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed += count;
+        }
+    }
+}
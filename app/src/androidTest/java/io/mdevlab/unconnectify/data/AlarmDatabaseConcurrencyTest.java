@@ -0,0 +1,189 @@
+package io.mdevlab.unconnectify.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test of the alarm database, which will execute on an Android device.
+ * A job fires (reads its alarm and the next alarm) while the list of alarms is being edited
+ * on another thread, and the time the job waits for each read is reported with the database
+ * in write-ahead-log mode and in the old rollback journal mode
+ * <p>
+ * Wait times are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmDatabaseConcurrencyTest {
+
+    private static final String TAG = AlarmDatabaseConcurrencyTest.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "AlarmsConcurrencyTest.db";
+    private static final int ALARM_COUNT = 500;
+    private static final int JOB_READS = 200;
+
+    private Context mContext;
+    private AlarmSqlHelper mAlarmSqlHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mAlarmSqlHelper != null)
+            mAlarmSqlHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void database_usesWriteAheadLog() throws Exception {
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, TEST_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+
+        Cursor cursor = mAlarmSqlHelper.getReadableDatabase().rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void jobReadsDuringEdits_waitTimes() throws Exception {
+        long[] walWaits = runJobDuringEdits(true);
+        mAlarmSqlHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        long[] rollbackWaits = runJobDuringEdits(false);
+
+        Log.i(TAG, "Job reads during edits, write-ahead log: " + describe(walWaits));
+        Log.i(TAG, "Job reads during edits, rollback journal: " + describe(rollbackWaits));
+
+        assertEquals(JOB_READS, walWaits.length);
+        assertEquals(JOB_READS, rollbackWaits.length);
+    }
+
+    /**
+     * Method that fills the database, then makes a job read its alarm and the next alarm
+     * again and again while another thread keeps editing the alarms
+     *
+     * @param writeAheadLog: Whether the database is in write-ahead-log mode
+     * @return: The time waited by each read of the job, in nanoseconds
+     */
+    private long[] runJobDuringEdits(boolean writeAheadLog) throws Exception {
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, TEST_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+        mAlarmSqlHelper.setWriteAheadLoggingEnabled(writeAheadLog);
+
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>(ALARM_COUNT);
+        for (int i = 0; i < ALARM_COUNT; i++)
+            alarms.add(buildAlarm(i));
+        final long[] alarmIds = mAlarmSqlHelper.createAlarms(alarms);
+
+        // The editor toggles the days and connections of every alarm, one transaction per pass,
+        // like the write queue does when the user edits the list
+        final AtomicBoolean editing = new AtomicBoolean(true);
+        Thread editor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int pass = 0;
+                while (editing.get()) {
+                    SparseArray<AlarmPatch> patches = new SparseArray<>();
+                    for (long alarmId : alarmIds) {
+                        patches.put((int) alarmId, new AlarmPatch()
+                                .setDay(Calendar.SUNDAY, pass % 2 == 0)
+                                .setConnection(Connection.BLUETOOTH, pass % 2 == 0)
+                                .setNextFireAt(System.currentTimeMillis() + alarmId));
+                    }
+                    mAlarmSqlHelper.applyPatches(patches, new int[0]);
+                    pass++;
+                }
+            }
+        });
+        editor.start();
+
+        long[] waits = new long[JOB_READS];
+        try {
+            for (int i = 0; i < JOB_READS; i++) {
+                int alarmId = (int) alarmIds[i % ALARM_COUNT];
+                long start = System.nanoTime();
+                PreciseConnectivityAlarm alarm = mAlarmSqlHelper.getAlarmById(alarmId);
+                PreciseConnectivityAlarm nextAlarm = mAlarmSqlHelper.readNextAlarm();
+                waits[i] = System.nanoTime() - start;
+
+                assertNotNull(alarm);
+                assertNotNull(nextAlarm);
+            }
+        } finally {
+            editing.set(false);
+            editor.join();
+        }
+
+        assertEquals(writeAheadLog, isWriteAheadLog(mAlarmSqlHelper.getReadableDatabase()));
+        return waits;
+    }
+
+    private boolean isWriteAheadLog(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        try {
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param waits: Wait times in nanoseconds
+     * @return: The average, 95th percentile and maximum wait, in microseconds
+     */
+    private String describe(long[] waits) {
+        long[] sorted = waits.clone();
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long wait : sorted)
+            total += wait;
+
+        return "avg " + total / sorted.length / 1000 + " us"
+                + ", p95 " + sorted[(int) (sorted.length * 0.95)] / 1000 + " us"
+                + ", max " + sorted[sorted.length - 1] / 1000 + " us";
+    }
+
+    /**
+     * @param index: Index of the alarm, used to order the next fire times
+     * @return: An active alarm set on monday and handling wifi
+     */
+    private PreciseConnectivityAlarm buildAlarm(int index) {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.MONDAY);
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(System.currentTimeMillis(), 3600000L, days, connections);
+        alarm.setActive(true);
+        alarm.setNextFireAt(System.currentTimeMillis() + index);
+        return alarm;
+    }
+}
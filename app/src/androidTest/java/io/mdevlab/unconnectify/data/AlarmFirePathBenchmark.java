@@ -0,0 +1,155 @@
+package io.mdevlab.unconnectify.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the lookups done every time a job fires, which will execute on an Android device.
+ * It reports the time needed by getAlarmById and readNextAlarm as the number of alarms
+ * grows up to 10k, and checks that both are served by an index rather than a scan of the table
+ * <p>
+ * Results are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmFirePathBenchmark {
+
+    private static final String TAG = AlarmFirePathBenchmark.class.getSimpleName();
+    private static final String BENCHMARK_DATABASE_NAME = "AlarmsFirePathBenchmark.db";
+    private static final int[] ALARM_COUNTS = {100, 1000, 10000};
+    private static final int RUNS = 20;
+
+    private Context mContext;
+    private AlarmSqlHelper mAlarmSqlHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, BENCHMARK_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+    }
+
+    @After
+    public void tearDown() {
+        mAlarmSqlHelper.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    @Test
+    public void firePathLookups_useIndexes() throws Exception {
+        SQLiteDatabase db = mAlarmSqlHelper.getReadableDatabase();
+
+        assertTrue(queryPlan(db, "SELECT * FROM alarm WHERE id = 1")
+                .contains("INTEGER PRIMARY KEY"));
+        assertTrue(queryPlan(db, "SELECT * FROM alarm WHERE " + AlarmSqlHelper.ISACTIVE_COLUMN + " = 1"
+                + " ORDER BY " + AlarmSqlHelper.NEXT_FIRE_AT_COLUMN + " ASC LIMIT 1")
+                .contains("alarm_next_fire_at_index"));
+    }
+
+    @Test
+    public void firePathLookups_timeByAlarmCount() throws Exception {
+        int createdAlarms = 0;
+
+        for (int alarmCount : ALARM_COUNTS) {
+
+            // Grow the table up to the wanted number of alarms, in one transaction to keep the setup short
+            SQLiteDatabase db = mAlarmSqlHelper.getWritableDatabase();
+            long middleAlarmId = -1;
+            db.beginTransaction();
+            try {
+                for (; createdAlarms < alarmCount; createdAlarms++) {
+                    long alarmId = mAlarmSqlHelper.createAlarm(buildAlarm(createdAlarms));
+                    if (createdAlarms == alarmCount / 2)
+                        middleAlarmId = alarmId;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            // Look up an alarm in the middle of the table, warm up first then keep the best run
+            int alarmId = (int) middleAlarmId;
+            mAlarmSqlHelper.getAlarmById(alarmId);
+            long bestByIdNanos = Long.MAX_VALUE;
+            PreciseConnectivityAlarm alarm = null;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                alarm = mAlarmSqlHelper.getAlarmById(alarmId);
+                bestByIdNanos = Math.min(bestByIdNanos, System.nanoTime() - start);
+            }
+            assertNotNull(alarm);
+            assertEquals(alarmId, alarm.getAlarmId());
+
+            mAlarmSqlHelper.readNextAlarm();
+            long bestNextAlarmNanos = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                alarm = mAlarmSqlHelper.readNextAlarm();
+                bestNextAlarmNanos = Math.min(bestNextAlarmNanos, System.nanoTime() - start);
+            }
+            assertNotNull(alarm);
+            assertTrue(alarm.isActive());
+
+            Log.i(TAG, alarmCount + " alarms: getAlarmById in " + bestByIdNanos / 1000
+                    + " us, readNextAlarm in " + bestNextAlarmNanos / 1000 + " us");
+        }
+    }
+
+    /**
+     * @param db:    Database the statement is explained on
+     * @param query: Statement to explain
+     * @return: The details of the query plan of the statement
+     */
+    private String queryPlan(SQLiteDatabase db, String query) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        try {
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext())
+                plan.append(cursor.getString(detail)).append('\n');
+        } finally {
+            cursor.close();
+        }
+        Log.i(TAG, query + " -> " + plan);
+        return plan.toString();
+    }
+
+    /**
+     * @param index: Index of the alarm, used to spread the start times over the day
+     * @return: An alarm set on 3 days and handling 2 connections, one alarm out of two is inactive
+     */
+    private PreciseConnectivityAlarm buildAlarm(int index) {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.MONDAY);
+        days.add(Calendar.WEDNESDAY);
+        days.add(Calendar.FRIDAY);
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+        connections.add(Connection.BLUETOOTH);
+
+        long startTime = System.currentTimeMillis() + index * 60000L;
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(startTime, 3600000L, days, connections);
+        alarm.setActive(index % 2 == 0);
+        return alarm;
+    }
+}
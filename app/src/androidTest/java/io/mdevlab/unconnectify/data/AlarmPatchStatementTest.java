@@ -0,0 +1,135 @@
+package io.mdevlab.unconnectify.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation test, which will execute on an Android device.
+ * It counts the statements needed to toggle the days of an alarm one by one with the
+ * per-field update methods and with AlarmPatch, and checks both end with the same row
+ * <p>
+ * Counts and times are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmPatchStatementTest {
+
+    private static final String TAG = AlarmPatchStatementTest.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "AlarmsPatchTest.db";
+    private static final int[] WEEK = {Calendar.SUNDAY, Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY,
+            Calendar.THURSDAY, Calendar.FRIDAY, Calendar.SATURDAY};
+
+    private Context mContext;
+    private AlarmSqlHelper mAlarmSqlHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, TEST_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+    }
+
+    @After
+    public void tearDown() {
+        mAlarmSqlHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void dayToggles_fieldUpdatesVersusPatch() throws Exception {
+        int fieldUpdatesAlarmId = mAlarmSqlHelper.createAlarm(buildAlarm()).intValue();
+        int patchAlarmId = mAlarmSqlHelper.createAlarm(buildAlarm()).intValue();
+
+        // Before: every toggle reads the alarm, updates its times then its days
+        int statementCount = mAlarmSqlHelper.getStatementCount();
+        long start = System.nanoTime();
+        for (int day : WEEK) {
+            PreciseConnectivityAlarm alarm = mAlarmSqlHelper.getAlarmById(fieldUpdatesAlarmId);
+            mAlarmSqlHelper.updateAlarm(fieldUpdatesAlarmId, alarm.getStartTime(), day, alarm.getDuration(), day);
+            mAlarmSqlHelper.updateAlarmDay(fieldUpdatesAlarmId, day, true);
+        }
+        long fieldUpdatesNanos = System.nanoTime() - start;
+        int fieldUpdatesStatements = mAlarmSqlHelper.getStatementCount() - statementCount;
+
+        // After: the toggles are patches, merged as the write queue does, then applied in one transaction
+        statementCount = mAlarmSqlHelper.getStatementCount();
+        start = System.nanoTime();
+        AlarmPatch patch = new AlarmPatch();
+        for (int day : WEEK)
+            patch.merge(new AlarmPatch().setDay(day, true).setExecutionTime(day).setNextFireAt(day));
+        SparseArray<AlarmPatch> patches = new SparseArray<>();
+        patches.put(patchAlarmId, patch);
+        mAlarmSqlHelper.applyPatches(patches, new int[0]);
+        long patchNanos = System.nanoTime() - start;
+        int patchStatements = mAlarmSqlHelper.getStatementCount() - statementCount;
+
+        Log.i(TAG, WEEK.length + " day toggles: " + fieldUpdatesStatements + " statements in " + fieldUpdatesNanos / 1000
+                + " us with field updates, " + patchStatements + " statement in " + patchNanos / 1000 + " us with a patch");
+
+        assertEquals(3 * WEEK.length, fieldUpdatesStatements);
+        assertEquals(1, patchStatements);
+
+        // Both ways end with the same alarm
+        PreciseConnectivityAlarm fieldUpdatesAlarm = mAlarmSqlHelper.getAlarmById(fieldUpdatesAlarmId);
+        PreciseConnectivityAlarm patchAlarm = mAlarmSqlHelper.getAlarmById(patchAlarmId);
+        assertEquals(7, patchAlarm.getDays().size());
+        assertEquals(fieldUpdatesAlarm.getDaysMask(), patchAlarm.getDaysMask());
+        assertEquals(fieldUpdatesAlarm.getExecuteTimeInMils(), patchAlarm.getExecuteTimeInMils());
+        assertEquals(fieldUpdatesAlarm.getNextFireAt(), patchAlarm.getNextFireAt());
+        assertEquals(fieldUpdatesAlarm.getConnectionsMask(), patchAlarm.getConnectionsMask());
+    }
+
+    @Test
+    public void applyPatches_keepsUnchangedFields() throws Exception {
+        PreciseConnectivityAlarm alarm = buildAlarm();
+        int alarmId = mAlarmSqlHelper.createAlarm(alarm).intValue();
+
+        // Add bluetooth and remove wifi, turn the alarm off, nothing else changes
+        SparseArray<AlarmPatch> patches = new SparseArray<>();
+        patches.put(alarmId, new AlarmPatch()
+                .setConnection(Connection.BLUETOOTH, true)
+                .setConnection(Connection.WIFI, false)
+                .setActive(false));
+        mAlarmSqlHelper.applyPatches(patches, new int[0]);
+
+        PreciseConnectivityAlarm patchedAlarm = mAlarmSqlHelper.getAlarmById(alarmId);
+        assertFalse(patchedAlarm.isActive());
+        assertTrue(patchedAlarm.getConnections().contains(Connection.BLUETOOTH));
+        assertFalse(patchedAlarm.getConnections().contains(Connection.WIFI));
+        assertEquals(alarm.getStartTime(), patchedAlarm.getStartTime());
+        assertEquals(alarm.getDuration(), patchedAlarm.getDuration());
+        assertEquals(alarm.getDaysMask(), patchedAlarm.getDaysMask());
+        assertEquals(alarm.getNextFireAt(), patchedAlarm.getNextFireAt());
+    }
+
+    /**
+     * @return: An alarm set on monday and handling wifi
+     */
+    private PreciseConnectivityAlarm buildAlarm() {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.MONDAY);
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+
+        return new PreciseConnectivityAlarm(System.currentTimeMillis(), 3600000L, days, connections);
+    }
+}
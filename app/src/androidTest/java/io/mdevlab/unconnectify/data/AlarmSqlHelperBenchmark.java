@@ -0,0 +1,135 @@
+package io.mdevlab.unconnectify.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmark of the alarm list loading and creation, which will execute on an Android device.
+ * It reports how the time needed by readAllAlarms grows with the number of alarms, and
+ * compares creating alarms one by one with creating them in one batch
+ * <p>
+ * Results are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmSqlHelperBenchmark {
+
+    private static final String TAG = AlarmSqlHelperBenchmark.class.getSimpleName();
+    private static final String BENCHMARK_DATABASE_NAME = "AlarmsBenchmark.db";
+    private static final int[] ALARM_COUNTS = {10, 100, 500, 1000};
+    private static final int RUNS = 5;
+    private static final int[] CREATED_ALARM_COUNTS = {100, 1000, 5000};
+
+    private Context mContext;
+    private AlarmSqlHelper mAlarmSqlHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, BENCHMARK_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+    }
+
+    @After
+    public void tearDown() {
+        mAlarmSqlHelper.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    @Test
+    public void readAllAlarms_loadTimeByAlarmCount() throws Exception {
+        int createdAlarms = 0;
+
+        for (int alarmCount : ALARM_COUNTS) {
+
+            // Grow the table up to the wanted number of alarms
+            for (; createdAlarms < alarmCount; createdAlarms++)
+                mAlarmSqlHelper.createAlarm(buildAlarm(createdAlarms));
+
+            // Warm up, then keep the best run to limit scheduling noise
+            mAlarmSqlHelper.readAllAlarms(null, null);
+            long bestNanos = Long.MAX_VALUE;
+            List<PreciseConnectivityAlarm> alarms = null;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                alarms = mAlarmSqlHelper.readAllAlarms(null, null);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            }
+
+            assertEquals(alarmCount, alarms.size());
+            assertEquals(3, alarms.get(0).getDays().size());
+            assertEquals(2, alarms.get(0).getConnections().size());
+
+            Log.i(TAG, "readAllAlarms: " + alarmCount + " alarms loaded in " + bestNanos / 1000 + " us");
+        }
+    }
+
+    @Test
+    public void createAlarms_bulkVersusOneByOne() throws Exception {
+        for (int alarmCount : CREATED_ALARM_COUNTS) {
+            List<PreciseConnectivityAlarm> alarms = new ArrayList<>(alarmCount);
+            for (int i = 0; i < alarmCount; i++)
+                alarms.add(buildAlarm(i));
+
+            // One by one, each insert is its own transaction
+            long start = System.nanoTime();
+            for (PreciseConnectivityAlarm alarm : alarms)
+                mAlarmSqlHelper.createAlarm(alarm);
+            long oneByOneNanos = System.nanoTime() - start;
+
+            // In one batch
+            start = System.nanoTime();
+            long[] alarmIds = mAlarmSqlHelper.createAlarms(alarms);
+            long bulkNanos = System.nanoTime() - start;
+
+            assertEquals(alarmCount, alarmIds.length);
+            for (int i = 0; i < alarmCount; i++) {
+                assertEquals(alarmIds[i], alarms.get(i).getAlarmId());
+                if (i > 0)
+                    assertEquals(alarmIds[i - 1] + 1, alarmIds[i]);
+            }
+            assertEquals(2 * alarmCount, mAlarmSqlHelper.readAllAlarms(null, null).size());
+
+            Log.i(TAG, "create " + alarmCount + " alarms: " + oneByOneNanos / 1000000 + " ms one by one, "
+                    + bulkNanos / 1000000 + " ms with createAlarms");
+
+            // Start the next count from an empty database
+            mAlarmSqlHelper.close();
+            mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+            mAlarmSqlHelper = new AlarmSqlHelper(mContext, BENCHMARK_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+        }
+    }
+
+    /**
+     * @param index: Index of the alarm, used to spread the start times over the day
+     * @return: An alarm set on 3 days and handling 2 connections
+     */
+    private PreciseConnectivityAlarm buildAlarm(int index) {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.MONDAY);
+        days.add(Calendar.WEDNESDAY);
+        days.add(Calendar.FRIDAY);
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+        connections.add(Connection.BLUETOOTH);
+
+        long startTime = System.currentTimeMillis() + index * 60000L;
+        return new PreciseConnectivityAlarm(startTime, 3600000L, days, connections);
+    }
+}
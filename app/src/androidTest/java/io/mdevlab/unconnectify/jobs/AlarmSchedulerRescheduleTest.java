@@ -0,0 +1,186 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.evernote.android.job.JobRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.data.AlarmPatch;
+import io.mdevlab.unconnectify.data.AlarmRepository;
+import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.Constants;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumentation test of AlarmScheduler, which will execute on an Android device.
+ * It replays a session of edits of two alarms, rearming the job after each edit, and counts
+ * the calls to the JobManager: the job is only armed again when the earliest transition changes
+ * <p>
+ * The alarms are kept in a database of their own, counts are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlarmSchedulerRescheduleTest {
+
+    private static final String TAG = AlarmSchedulerRescheduleTest.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "AlarmsSchedulerTest.db";
+    private static final String TEST_SNAPSHOT_NAME = "AlarmsSchedulerTest.snapshot";
+    private static final long HOUR = 3600000L;
+
+    private Context mContext;
+    private AlarmSqlHelper mAlarmSqlHelper;
+    private AlarmRepository mAlarmRepository;
+    private AlarmScheduler mAlarmScheduler;
+    private CountingJobCalls mJobCalls;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, TEST_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+        mAlarmRepository = new AlarmRepository(mAlarmSqlHelper, new File(mContext.getCacheDir(), TEST_SNAPSHOT_NAME));
+        mJobCalls = new CountingJobCalls();
+        mAlarmScheduler = new AlarmScheduler(mContext, mAlarmRepository, mJobCalls);
+    }
+
+    @After
+    public void tearDown() {
+        mAlarmRepository.flushAndWait();
+        mAlarmSqlHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        new File(mContext.getCacheDir(), TEST_SNAPSHOT_NAME).delete();
+    }
+
+    @Test
+    public void editingSession_jobManagerCallsPerEdit() throws Exception {
+
+        // None of the alarms runs today, the first one runs next in two days
+        PreciseConnectivityAlarm first = buildAlarm(daysFromToday(2), daysFromToday(4), daysFromToday(5));
+        PreciseConnectivityAlarm second = buildAlarm(daysFromToday(6));
+        createAlarms(first, second);
+
+        mAlarmScheduler.reschedule();
+        assertEquals(1, mJobCalls.schedules);
+        assertEquals(first.getNextFireAt(), mJobCalls.armedFireAt);
+        mJobCalls.reset();
+
+        // Days after the next one are toggled, the earliest transition doesn't change
+        int edits = 0;
+        for (int day : new int[]{daysFromToday(4), daysFromToday(5)}) {
+            edit(first, new AlarmPatch().setDay(day, false));
+            edit(first, new AlarmPatch().setDay(day, true));
+            edits += 2;
+        }
+        assertEquals(0, mJobCalls.schedules + mJobCalls.cancels);
+
+        // The second alarm runs tomorrow as well, then not anymore
+        edit(second, new AlarmPatch().setDay(daysFromToday(1), true));
+        assertEquals(second.getNextFireAt(), mJobCalls.armedFireAt);
+        edit(second, new AlarmPatch().setDay(daysFromToday(1), false));
+        assertEquals(first.getNextFireAt(), mJobCalls.armedFireAt);
+        edits += 2;
+
+        // Both alarms are turned off
+        edit(second, new AlarmPatch().setActive(false));
+        edit(first, new AlarmPatch().setActive(false));
+        edits += 2;
+
+        // Of the 8 edits, tomorrow is armed, the first alarm again, then the job is cancelled
+        Log.i(TAG, edits + " edits: " + mJobCalls.schedules + " jobs scheduled, " + mJobCalls.cancels + " cancelled");
+        assertEquals(2, mJobCalls.schedules);
+        assertEquals(1, mJobCalls.cancels);
+        assertEquals(0, mJobCalls.armedFireAt);
+    }
+
+    /**
+     * Method that edits an alarm the way AlarmManager does, then rearms the job
+     *
+     * @param alarm: The alarm
+     * @param patch: Changes of the schedule of the alarm
+     */
+    private void edit(PreciseConnectivityAlarm alarm, AlarmPatch patch) {
+        mAlarmRepository.patchAlarm(alarm.getAlarmId(), patch);
+        mAlarmRepository.patchAlarm(alarm.getAlarmId(), AlarmPatch.nextTransitionOf(alarm, System.currentTimeMillis()));
+        mAlarmScheduler.reschedule();
+    }
+
+    private void createAlarms(PreciseConnectivityAlarm... alarms) {
+        List<PreciseConnectivityAlarm> newAlarms = new ArrayList<>();
+        for (PreciseConnectivityAlarm alarm : alarms) {
+            AlarmPatch.nextTransitionOf(alarm, System.currentTimeMillis()).applyTo(alarm);
+            newAlarms.add(alarm);
+        }
+        mAlarmRepository.createAlarms(newAlarms);
+    }
+
+    /**
+     * @return: An active alarm handling wifi for an hour, starting at the current minute of the day on the given days
+     */
+    private PreciseConnectivityAlarm buildAlarm(Integer... days) {
+        Calendar startTime = Calendar.getInstance();
+        startTime.set(Calendar.SECOND, 0);
+        startTime.set(Calendar.MILLISECOND, 0);
+
+        List<Integer> dayList = new ArrayList<>();
+        Collections.addAll(dayList, days);
+        return new PreciseConnectivityAlarm(startTime.getTimeInMillis(), HOUR, dayList, Collections.singletonList(Connection.WIFI));
+    }
+
+    /**
+     * @return: The day of the week the given number of days from today, as defined in the class Calendar
+     */
+    private static int daysFromToday(int days) {
+        int today = Calendar.getInstance().get(Calendar.DAY_OF_WEEK);
+        return (today - Calendar.SUNDAY + days) % 7 + Calendar.SUNDAY;
+    }
+
+    /**
+     * Calls to the JobManager counted instead of being made, there's no pending job at first
+     */
+    private static class CountingJobCalls implements AlarmScheduler.JobCalls {
+
+        int schedules = 0;
+        int cancels = 0;
+        long armedFireAt = 0;
+
+        @Override
+        public Set<JobRequest> getAllJobRequestsForTag(String tag) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void schedule(JobSnapshot snapshot) {
+            schedules++;
+            armedFireAt = snapshot.fireAt;
+        }
+
+        @Override
+        public void cancelAllForTag(String tag) {
+            if (Constants.SCHEDULER_TAG.equals(tag)) {
+                cancels++;
+                armedFireAt = 0;
+            }
+        }
+
+        void reset() {
+            schedules = 0;
+            cancels = 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.data.AlarmPatch;
+import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation test, which will execute on an Android device.
+ * It counts the job launches and database writes needed by one edge of an alarm handling
+ * three connections, with the chain of one job per connection and with one job per transition
+ * <p>
+ * Counts are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConnectivityJobTransitionTest {
+
+    private static final String TAG = ConnectivityJobTransitionTest.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "AlarmsTransitionTest.db";
+    private static final long TWO_HOURS = 2 * 3600000L;
+
+    private Context mContext;
+    private AlarmSqlHelper mAlarmSqlHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mAlarmSqlHelper = new AlarmSqlHelper(mContext, TEST_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+    }
+
+    @After
+    public void tearDown() {
+        mAlarmSqlHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void disableEdge_chainVersusSingleTransition() throws Exception {
+        PreciseConnectivityAlarm chainAlarm = buildDueAlarm();
+        PreciseConnectivityAlarm transitionAlarm = buildDueAlarm();
+        chainAlarm.setAlarmId(mAlarmSqlHelper.createAlarm(chainAlarm).intValue());
+        transitionAlarm.setAlarmId(mAlarmSqlHelper.createAlarm(transitionAlarm).intValue());
+
+        // Before: one job per connection, each one saving the alarm with a next job 1 ms later,
+        // the last one saving the next transition
+        int statementCount = mAlarmSqlHelper.getStatementCount();
+        int chainLaunches = 0;
+        int chainTransactions = 0;
+        int connectionCount = chainAlarm.getConnections().size();
+        for (int i = 0; i < connectionCount; i++) {
+            chainLaunches++;
+            AlarmPatch patch = i < connectionCount - 1
+                    ? new AlarmPatch().setExecutionTime(1L).setNextFireAt(System.currentTimeMillis() + 1L)
+                    : ConnectivityJob.buildNextTransitionPatch(chainAlarm, false);
+            patch.applyTo(chainAlarm);
+            writePatch(chainAlarm.getAlarmId(), patch);
+            chainTransactions++;
+        }
+        int chainStatements = mAlarmSqlHelper.getStatementCount() - statementCount;
+
+        // After: the job runs as long as the alarm is due, every run handling all the connections
+        statementCount = mAlarmSqlHelper.getStatementCount();
+        long dueAt = transitionAlarm.getNextFireAt();
+        int transitionLaunches = 0;
+        int transitionTransactions = 0;
+        while (transitionAlarm.getNextFireAt() <= System.currentTimeMillis()) {
+            transitionLaunches++;
+            AlarmPatch patch = ConnectivityJob.buildNextTransitionPatch(transitionAlarm, transitionAlarm.getCurrentState());
+            patch.applyTo(transitionAlarm);
+            writePatch(transitionAlarm.getAlarmId(), patch);
+            transitionTransactions++;
+        }
+        int transitionStatements = mAlarmSqlHelper.getStatementCount() - statementCount;
+
+        Log.i(TAG, connectionCount + " connections, one edge: " + chainLaunches + " job launches and "
+                + chainTransactions + " transactions (" + chainStatements + " statements) with the chain, "
+                + transitionLaunches + " job launch and " + transitionTransactions + " transaction ("
+                + transitionStatements + " statement) with one transition");
+
+        assertEquals(connectionCount, chainLaunches);
+        assertEquals(1, transitionLaunches);
+        assertEquals(1, transitionStatements);
+        assertTrue(transitionStatements < chainStatements);
+
+        // Both ways end on the same next transition: re-enabling the connections at the end time,
+        // two hours after the time the disabling was due at
+        PreciseConnectivityAlarm savedAlarm = mAlarmSqlHelper.getAlarmById(transitionAlarm.getAlarmId());
+        assertTrue(savedAlarm.getCurrentState());
+        assertEquals(chainAlarm.getCurrentState(), savedAlarm.getCurrentState());
+        assertEquals(dueAt + TWO_HOURS, savedAlarm.getNextFireAt());
+    }
+
+    @Test
+    public void alarmWithoutEnd_keepsDisabling() throws Exception {
+        PreciseConnectivityAlarm alarm = buildDueAlarm();
+        alarm.setDuration(1);
+
+        ConnectivityJob.buildNextTransitionPatch(alarm, false).applyTo(alarm);
+
+        assertFalse(alarm.getCurrentState());
+        assertTrue(alarm.getNextFireAt() > System.currentTimeMillis());
+    }
+
+    /**
+     * Method that writes the patch of an alarm, as the write queue does at the end of a job
+     *
+     * @param alarmId: Id of the alarm
+     * @param patch:   The patch
+     */
+    private void writePatch(int alarmId, AlarmPatch patch) {
+        SparseArray<AlarmPatch> patches = new SparseArray<>();
+        patches.put(alarmId, patch);
+        mAlarmSqlHelper.applyPatches(patches, new int[0]);
+    }
+
+    /**
+     * @return: An alarm handling wifi, hotspot and bluetooth for two hours, whose disabling is due
+     */
+    private PreciseConnectivityAlarm buildDueAlarm() {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.getInstance().get(Calendar.DAY_OF_WEEK));
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+        connections.add(Connection.HOTSPOT);
+        connections.add(Connection.BLUETOOTH);
+
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(System.currentTimeMillis(), TWO_HOURS, days, connections);
+        alarm.setCurrentState(false);
+        alarm.setNextFireAt(System.currentTimeMillis() - 1);
+        return alarm;
+    }
+}
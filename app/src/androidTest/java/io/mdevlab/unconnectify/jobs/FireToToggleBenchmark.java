@@ -0,0 +1,159 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.evernote.android.job.util.support.PersistableBundleCompat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.schedule.ConflictIndex;
+import io.mdevlab.unconnectify.schedule.WeekTime;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the time between the start of a job and the moment it knows which radios to toggle,
+ * which will execute on an Android device.
+ * Before, the job opens the database, reads the alarms and indexes them. After, it reads the
+ * snapshot carried in its extras. The toggles themselves cost the same both ways and aren't timed
+ * <p>
+ * Results are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class FireToToggleBenchmark {
+
+    private static final String TAG = FireToToggleBenchmark.class.getSimpleName();
+    private static final String BENCHMARK_DATABASE_NAME = "AlarmsFireToToggleBenchmark.db";
+    private static final int ALARM_COUNT = 100;
+    private static final int RUNS = 20;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+
+        AlarmSqlHelper alarmSqlHelper = openDatabase();
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>();
+        for (int i = 0; i < ALARM_COUNT; i++)
+            alarms.add(buildAlarm(i));
+        alarmSqlHelper.createAlarms(alarms);
+        alarmSqlHelper.close();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    @Test
+    public void fireToToggle_databaseVersusSnapshot() throws Exception {
+        long fireAt = System.currentTimeMillis();
+        RadioReconciler.DesiredState fromDatabase = null;
+        RadioReconciler.DesiredState fromSnapshot = null;
+
+        // Before: a new connection to the database, as in a process started for the job
+        long bestDatabaseNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            AlarmSqlHelper alarmSqlHelper = openDatabase();
+            fromDatabase = desiredStateFromAlarms(alarmSqlHelper.readAllActiveAlarms(), fireAt);
+            bestDatabaseNanos = Math.min(bestDatabaseNanos, System.nanoTime() - start);
+            alarmSqlHelper.close();
+        }
+
+        // After: the snapshot written to the extras when the job was armed
+        AlarmSqlHelper alarmSqlHelper = openDatabase();
+        List<PreciseConnectivityAlarm> dueAlarms = dueAlarms(alarmSqlHelper.readAllActiveAlarms(), fireAt);
+        alarmSqlHelper.close();
+        PersistableBundleCompat extras = new PersistableBundleCompat();
+        JobSnapshot.take(fireAt, Long.MAX_VALUE, dueAlarms, fromDatabase).writeTo(extras);
+
+        long bestSnapshotNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            JobSnapshot snapshot = JobSnapshot.readFrom(extras);
+            assertNotNull(snapshot);
+            assertTrue(snapshot.holdsAt(fireAt));
+            fromSnapshot = snapshot.desiredState;
+            bestSnapshotNanos = Math.min(bestSnapshotNanos, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, ALARM_COUNT + " alarms, fire to toggle: " + bestDatabaseNanos / 1000 + " us reading the database, "
+                + bestSnapshotNanos / 1000 + " us reading the snapshot of the job");
+
+        assertEquals(fromDatabase.on, fromSnapshot.on);
+        assertEquals(fromDatabase.off, fromSnapshot.off);
+        assertTrue(bestSnapshotNanos < bestDatabaseNanos);
+    }
+
+    private AlarmSqlHelper openDatabase() {
+        return new AlarmSqlHelper(mContext, BENCHMARK_DATABASE_NAME, null, AlarmSqlHelper.DATABASE_VERSION);
+    }
+
+    /**
+     * Method that computes the desired state of the radios from the alarms, as RadioReconciler does
+     *
+     * @param activeAlarms: The active alarms
+     * @param fireAt:       Fire time of the job
+     * @return: The desired state
+     */
+    private RadioReconciler.DesiredState desiredStateFromAlarms(List<PreciseConnectivityAlarm> activeAlarms, long fireAt) {
+        int handled = 0;
+        int enabling = 0;
+        for (PreciseConnectivityAlarm alarm : dueAlarms(activeAlarms, fireAt)) {
+            handled |= alarm.getConnections().getMask();
+            if (alarm.getCurrentState())
+                enabling |= alarm.getConnections().getMask();
+        }
+        TimeZone zone = TimeZone.getDefault();
+        int occupied = ConflictIndex.build(activeAlarms, zone).getOccupiedConnections(WeekTime.minuteOfWeek(fireAt, zone));
+        return new RadioReconciler.DesiredState(RadioReconciler.desiredOn(enabling, occupied),
+                RadioReconciler.desiredOff(handled, occupied));
+    }
+
+    private List<PreciseConnectivityAlarm> dueAlarms(List<PreciseConnectivityAlarm> activeAlarms, long fireAt) {
+        List<PreciseConnectivityAlarm> dueAlarms = new ArrayList<>();
+        for (PreciseConnectivityAlarm alarm : activeAlarms) {
+            if (alarm.getNextFireAt() > 0 && alarm.getNextFireAt() <= fireAt + AlarmScheduler.DUE_MARGIN_MS)
+                dueAlarms.add(alarm);
+        }
+        return dueAlarms;
+    }
+
+    /**
+     * @param index: Index of the alarm, used to spread the start times over the day
+     * @return: An active alarm of today handling wifi and bluetooth, the first one is due
+     */
+    private PreciseConnectivityAlarm buildAlarm(int index) {
+        List<Integer> days = new ArrayList<>();
+        days.add(Calendar.getInstance().get(Calendar.DAY_OF_WEEK));
+
+        List<Connection> connections = new ArrayList<>();
+        connections.add(Connection.WIFI);
+        connections.add(Connection.BLUETOOTH);
+
+        long startTime = System.currentTimeMillis() + index * 60000L;
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(startTime, 3600000L, days, connections);
+        alarm.setCurrentState(false);
+        alarm.setNextFireAt(index == 0 ? System.currentTimeMillis() - 1 : startTime);
+        return alarm;
+    }
+}
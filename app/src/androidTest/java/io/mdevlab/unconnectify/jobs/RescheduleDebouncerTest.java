@@ -0,0 +1,95 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumentation test of RescheduleDebouncer, which will execute on an Android device.
+ * It counts the reschedules of an editing session of a row (its seven days and three
+ * connections toggled in a second), which used to reschedule the job after every edit
+ * <p>
+ * Counts are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class RescheduleDebouncerTest {
+
+    private static final String TAG = RescheduleDebouncerTest.class.getSimpleName();
+
+    private static final long SETTLE_DELAY_MS = 300;
+    private static final int EDITS = 10;
+    private static final long TIME_BETWEEN_EDITS_MS = 100;
+
+    private HandlerThread mThread;
+    private RescheduleDebouncer mDebouncer;
+    private final AtomicInteger mReschedules = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mDebouncer = new RescheduleDebouncer(new Handler(mThread.getLooper()), SETTLE_DELAY_MS, new Runnable() {
+            @Override
+            public void run() {
+                mReschedules.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quit();
+    }
+
+    @Test
+    public void editingSession_reschedulesOnceSettled() throws Exception {
+        editRow();
+
+        // The edits haven't settled yet
+        assertEquals(0, mReschedules.get());
+
+        SystemClock.sleep(2 * SETTLE_DELAY_MS);
+        Log.i(TAG, EDITS + " edits of a row: " + EDITS + " reschedules before, " + mReschedules.get() + " once settled");
+        assertEquals(1, mReschedules.get());
+    }
+
+    @Test
+    public void editingSession_reschedulesOnceOnPause() throws Exception {
+        editRow();
+
+        // The user leaves the screen before the edits have settled
+        mDebouncer.flush();
+        assertEquals(1, mReschedules.get());
+
+        SystemClock.sleep(2 * SETTLE_DELAY_MS);
+        assertEquals(1, mReschedules.get());
+    }
+
+    @Test
+    public void noEdit_noReschedule() throws Exception {
+        mDebouncer.flush();
+        SystemClock.sleep(2 * SETTLE_DELAY_MS);
+        assertEquals(0, mReschedules.get());
+    }
+
+    /**
+     * Method that toggles the days and connections of a row, one edit every TIME_BETWEEN_EDITS_MS
+     */
+    private void editRow() {
+        for (int i = 0; i < EDITS; i++) {
+            mDebouncer.markDirty();
+            SystemClock.sleep(TIME_BETWEEN_EDITS_MS);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.mdevlab.unconnectify.schedule;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.data.AlarmPatch;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the lookup of the next transition the job is armed for, which will execute on an Android device.
+ * Before, the scheduler goes through every active alarm and checks its next transition against
+ * the normalized schedule. After, it runs a binary search in the sorted transitions of each
+ * connection of the normalized schedule
+ * <p>
+ * Results are written to logcat under the tag of this class
+ */
+@RunWith(AndroidJUnit4.class)
+public class NextTransitionBenchmark {
+
+    private static final String TAG = NextTransitionBenchmark.class.getSimpleName();
+    private static final int ALARM_COUNT = 1000;
+    private static final int RUNS = 20;
+
+    private final TimeZone mZone = TimeZone.getDefault();
+    private final List<PreciseConnectivityAlarm> mAlarms = new ArrayList<>();
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mNow = System.currentTimeMillis();
+
+        // Short alarms on one day each, so the windows leave transitions on every connection
+        Random random = new Random(ALARM_COUNT);
+        Connection[] connections = {Connection.WIFI, Connection.CELLULAR_DATA, Connection.HOTSPOT, Connection.BLUETOOTH};
+        for (int i = 0; i < ALARM_COUNT; i++) {
+            Calendar startTime = Calendar.getInstance();
+            startTime.set(Calendar.HOUR_OF_DAY, random.nextInt(24));
+            startTime.set(Calendar.MINUTE, random.nextInt(60));
+            startTime.set(Calendar.SECOND, 0);
+            startTime.set(Calendar.MILLISECOND, 0);
+            long duration = (1 + random.nextInt(20)) * WeekTime.MILLIS_PER_MINUTE;
+
+            PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(startTime.getTimeInMillis(), duration,
+                    Collections.singletonList(Calendar.SUNDAY + random.nextInt(7)),
+                    Collections.singletonList(connections[random.nextInt(connections.length)]));
+            alarm.setAlarmId(i + 1);
+            AlarmPatch.nextTransitionOf(alarm, mNow).applyTo(alarm);
+            mAlarms.add(alarm);
+        }
+    }
+
+    @Test
+    public void nextTransition_alarmScanVersusBinarySearch() throws Exception {
+        long start = System.nanoTime();
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(mAlarms, mZone);
+        long normalizeNanos = System.nanoTime() - start;
+
+        // Before: every active alarm is gone through, as the scheduler did
+        long fromAlarms = 0;
+        long bestScanNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            fromAlarms = nextEffectiveFireAt(schedule);
+            bestScanNanos = Math.min(bestScanNanos, System.nanoTime() - start);
+        }
+
+        // After: a binary search per connection in the sorted transitions of the schedule
+        long fromSchedule = 0;
+        long bestSearchNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            fromSchedule = schedule.getNextTransitionTime(mNow, mZone);
+            bestSearchNanos = Math.min(bestSearchNanos, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, ALARM_COUNT + " alarms, next transition: " + bestScanNanos / 1000 + " us going through the alarms, "
+                + bestSearchNanos / 1000 + " us in the normalized schedule (normalized once in "
+                + normalizeNanos / 1000 + " us)");
+
+        // The scan only sees the next transition of each alarm, it can't find an earlier one than the schedule
+        assertTrue(fromSchedule > mNow);
+        assertTrue(fromAlarms == 0 || fromSchedule <= fromAlarms);
+        assertTrue(bestSearchNanos < bestScanNanos);
+    }
+
+    /**
+     * Method that looks for the earliest next transition of an alarm that changes the state
+     * of a connection, the way the scheduler did before
+     *
+     * @param schedule: The normalized schedule of the alarms
+     * @return: The fire time of the transition, 0 if there's none
+     */
+    private long nextEffectiveFireAt(NormalizedSchedule schedule) {
+        long next = 0;
+        for (PreciseConnectivityAlarm alarm : mAlarms) {
+            long nextFireAt = alarm.getNextFireAt();
+            if (nextFireAt <= 0 || (next != 0 && nextFireAt >= next))
+                continue;
+
+            int minuteOfWeek = WeekTime.minuteOfWeek(nextFireAt, mZone);
+            for (Connection connection : alarm.getConnections()) {
+                if (schedule.hasTransition(connection, minuteOfWeek, alarm.getCurrentState())) {
+                    next = nextFireAt;
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+}
@@ -1,25 +1,109 @@
 package io.mdevlab.unconnectify;
 
+import android.app.Activity;
 import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 
 import com.crashlytics.android.Crashlytics;
 import com.evernote.android.job.JobManager;
 
 import io.fabric.sdk.android.Fabric;
+import io.mdevlab.unconnectify.data.AlarmRepository;
 import io.mdevlab.unconnectify.jobs.ConnectivityJobCreator;
 import jonathanfinerty.once.Once;
 
 /**
+ * Most process starts only run a job, so onCreate only sets up what the jobs need:
+ * the job manager and the alarm repository (which doesn't read the database until it's used)
+ * The services of the UI (Crashlytics, Once) are initialized when the first activity is created
+ * <p>
  * Created by mdevlab on 2/10/17.
  */
 
 public class App extends Application {
 
+    // Time at which the process started, on the elapsed realtime clock
+    private static long sProcessStartElapsed = 0;
+
+    // Whether Once was initialized, guarded by App.class
+    private static boolean sOnceInitialised = false;
+
     @Override
     public void onCreate() {
         super.onCreate();
-        Fabric.with(this, new Crashlytics());
-        Once.initialise(getBaseContext());
+
+        // The start of the process is only known from Nougat, the start of the application is close to it
+        sProcessStartElapsed = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime()
+                : SystemClock.elapsedRealtime();
+
+        // Essential path, needed by the jobs
         JobManager.create(this).addJobCreator(new ConnectivityJobCreator(getApplicationContext()));
+        AlarmRepository.getInstance(this);
+
+        // UI services, initialized with the first activity
+        registerActivityLifecycleCallbacks(new UiServicesInitializer());
+    }
+
+    /**
+     * @return: Time at which the process started, on the elapsed realtime clock
+     */
+    public static long getProcessStartElapsed() {
+        return sProcessStartElapsed;
+    }
+
+    /**
+     * Method that initializes Once the first time it's called
+     * It's called with the first activity, and by the code that uses Once outside of the UI
+     *
+     * @param context
+     */
+    public static synchronized void initialiseOnce(Context context) {
+        if (!sOnceInitialised) {
+            Once.initialise(context.getApplicationContext());
+            sOnceInitialised = true;
+        }
+    }
+
+    /**
+     * Callbacks that initialize the services of the UI when the first activity is created,
+     * then unregister themselves
+     */
+    private class UiServicesInitializer implements ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            Fabric.with(App.this, new Crashlytics());
+            initialiseOnce(App.this);
+            unregisterActivityLifecycleCallbacks(this);
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
     }
 }
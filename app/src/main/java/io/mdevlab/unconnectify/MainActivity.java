@@ -5,12 +5,16 @@ import android.animation.ValueAnimator;
 import android.app.Activity;
 import android.app.TimePickerDialog;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.DefaultItemAnimator;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -18,6 +22,7 @@ import android.view.ViewTreeObserver;
 import android.widget.TextView;
 import android.widget.TimePicker;
 
+import java.lang.ref.WeakReference;
 import java.util.List;
 
 import io.mdevlab.unconnectify.adapter.AlarmAdapter;
@@ -25,8 +30,10 @@ import io.mdevlab.unconnectify.adapter.AlarmViewHolder;
 import io.mdevlab.unconnectify.alarm.AlarmManager;
 import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
 import io.mdevlab.unconnectify.connectivitymodels.Hotspot;
-import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.data.AlarmListSnapshot;
+import io.mdevlab.unconnectify.data.AlarmRepository;
 import io.mdevlab.unconnectify.fragment.TimePickerFragment;
+import io.mdevlab.unconnectify.jobs.AlarmScheduler;
 import io.mdevlab.unconnectify.utils.DateUtils;
 import io.mdevlab.unconnectify.utils.DialogUtils;
 import io.mdevlab.unconnectify.utils.FeatureDiscovery;
@@ -37,14 +44,22 @@ public class MainActivity extends AppCompatActivity implements TimePickerDialog.
     private RecyclerView.LayoutManager mLayoutManager;
     private RecyclerView mAlarmList;
     private AlarmAdapter mAlarmAdapter;
-    private AlarmSqlHelper mAlarmSqlHelper;
     private TextView mAlarmsCount;
+    private View mAlarmsLoading;
     private Toolbar mToolbar;
     private SharedPreferences onboardingSharedPreference;
 
+    // Time at which the creation of the activity started, on the uptime clock
+    private long mCreateUptime;
+
+    // Time from the creation of the activity to its first frame, and to the first frame showing the alarms
+    private long mFirstFrameDelay = -1;
+    private long mAlarmsFrameDelay = -1;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateUptime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         mToolbar = (Toolbar) findViewById(R.id.toolbar);
@@ -63,15 +78,61 @@ public class MainActivity extends AppCompatActivity implements TimePickerDialog.
         //Set the animator with the default
         mAlarmList.setItemAnimator(new DefaultItemAnimator());
 
-        //instance of the SQLHelper
-        mAlarmSqlHelper = new AlarmSqlHelper(MainActivity.this);
+        //The alarm Adapter, without alarms until they're loaded
+        mAlarmAdapter = new AlarmAdapter(null, MainActivity.this);
+        mAlarmList.setAdapter(mAlarmAdapter);
 
-        //Read the list of alarms
-        List<PreciseConnectivityAlarm> alarms = mAlarmSqlHelper.readAllAlarms(null, null);
+        //Alarms counts textview, and the progress shown while the alarms are loaded
+        mAlarmsCount = (TextView) findViewById(R.id.alarms_count);
+        mAlarmsLoading = findViewById(R.id.alarms_loading);
 
-        //The alarm Adapter
-        mAlarmAdapter = new AlarmAdapter(alarms, MainActivity.this);
-        mAlarmList.setAdapter(mAlarmAdapter);
+        //The alarms of the snapshot are shown right away if there's one, until the list is read
+        final AlarmListSnapshot snapshot = AlarmListSnapshot.read(AlarmListSnapshot.getFile(MainActivity.this));
+        if (snapshot != null) {
+            mAlarmAdapter.setSnapshotAlarms(snapshot.getAlarms());
+            mAlarmsLoading.setVisibility(View.GONE);
+            setAlarmsCount();
+        } else {
+            mAlarmsCount.setText(R.string.loading_alarms);
+        }
+
+        onNextFrame(new Runnable() {
+            @Override
+            public void run() {
+                mFirstFrameDelay = SystemClock.uptimeMillis() - mCreateUptime;
+                if (snapshot != null)
+                    mAlarmsFrameDelay = mFirstFrameDelay;
+            }
+        });
+
+        //Read the list of alarms off the main thread
+        new LoadAlarmsTask(MainActivity.this, snapshot).execute();
+    }
+
+    /**
+     * Method called once the alarms are loaded, it hands them to the adapter in place of the
+     * ones of the snapshot
+     * Unless an alarm was created in the meantime, in which case the adapter already read them
+     *
+     * @param alarms: The alarms
+     */
+    private void onAlarmsLoaded(List<PreciseConnectivityAlarm> alarms) {
+        if (!mAlarmAdapter.hasAlarms())
+            mAlarmAdapter.setAlarms(alarms);
+        mAlarmsLoading.setVisibility(View.GONE);
+        setAlarmsCount();
+
+        onNextFrame(new Runnable() {
+            @Override
+            public void run() {
+                if (mAlarmsFrameDelay == -1)
+                    mAlarmsFrameDelay = SystemClock.uptimeMillis() - mCreateUptime;
+                Log.i(TAG, "First frame " + mFirstFrameDelay + " ms after the creation of the activity, "
+                        + "first frame with the alarms after " + mAlarmsFrameDelay + " ms");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                    reportFullyDrawn();
+            }
+        });
 
         // Feature discovery
         mAlarmList.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
@@ -88,13 +149,70 @@ public class MainActivity extends AppCompatActivity implements TimePickerDialog.
                 }
             }
         });
+    }
 
+    /**
+     * Method that runs an action right before the next frame of the activity is drawn
+     *
+     * @param action: The action
+     */
+    private void onNextFrame(final Runnable action) {
+        mAlarmList.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mAlarmList.getViewTreeObserver().removeOnPreDrawListener(this);
+                action.run();
+                return true;
+            }
+        });
+    }
 
+    /**
+     * @return: Time from the creation of the activity to its first frame, -1 until it's drawn
+     */
+    public long getFirstFrameDelay() {
+        return mFirstFrameDelay;
+    }
 
+    /**
+     * @return: Time from the creation of the activity to the first frame showing the alarms, -1 until it's drawn
+     */
+    public long getAlarmsFrameDelay() {
+        return mAlarmsFrameDelay;
+    }
 
-        //Alarms counts textview
-        mAlarmsCount = (TextView) findViewById(R.id.alarms_count);
-        mAlarmsCount.setText(alarms.size() + " alarms");
+    /**
+     * Task that reads the alarms in the background and hands them to the activity, if it's still there
+     * It checks the snapshot shown meanwhile against them, and has it written again if it doesn't match
+     */
+    private static class LoadAlarmsTask extends AsyncTask<Void, Void, List<PreciseConnectivityAlarm>> {
+
+        private final WeakReference<MainActivity> mActivity;
+        private final AlarmRepository mAlarmRepository;
+        private final AlarmListSnapshot mSnapshot;
+
+        LoadAlarmsTask(MainActivity activity, AlarmListSnapshot snapshot) {
+            mActivity = new WeakReference<>(activity);
+            mAlarmRepository = AlarmRepository.getInstance(activity);
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        protected List<PreciseConnectivityAlarm> doInBackground(Void... params) {
+            List<PreciseConnectivityAlarm> alarms = mAlarmRepository.readAllAlarms();
+            if (mSnapshot == null || !mSnapshot.isSnapshotOf(alarms)) {
+                Log.i(TAG, "The snapshot of the alarms is missing or outdated, writing it again");
+                mAlarmRepository.rewriteSnapshot();
+            }
+            return alarms;
+        }
+
+        @Override
+        protected void onPostExecute(List<PreciseConnectivityAlarm> alarms) {
+            MainActivity activity = mActivity.get();
+            if (activity != null && !activity.isFinishing())
+                activity.onAlarmsLoaded(alarms);
+        }
     }
 
     @Override
@@ -108,8 +226,18 @@ public class MainActivity extends AppCompatActivity implements TimePickerDialog.
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
         MenuItem createAlarm = menu.findItem(R.id.action_add_alarm);
-        if (createAlarm != null)
-            FeatureDiscovery.getInstance().createAlarmFeatureDiscovery(MainActivity.this, findViewById(R.id.action_add_alarm));
+
+        // The feature discovery waits for the toolbar to be laid out, after the first frame
+        if (createAlarm != null) {
+            mToolbar.post(new Runnable() {
+                @Override
+                public void run() {
+                    View addAlarm = findViewById(R.id.action_add_alarm);
+                    if (addAlarm != null)
+                        FeatureDiscovery.getInstance().createAlarmFeatureDiscovery(MainActivity.this, addAlarm);
+                }
+            });
+        }
         return true;
     }
 
@@ -164,11 +292,10 @@ public class MainActivity extends AppCompatActivity implements TimePickerDialog.
             //set the alarm id
             preciseConnectivityAlarm.setAlarmId((int) alarmId);
 
+            //The adapter updates the alarms count once the alarm is in the list
             mAlarmAdapter.addAlarm(preciseConnectivityAlarm);
             //update the notification
             updateNextAlarmNotification();
-
-            setAlarmsCount();
         }
     }
 
@@ -222,6 +349,9 @@ public class MainActivity extends AppCompatActivity implements TimePickerDialog.
     @Override
     protected void onPause() {
         super.onPause();
+        //rearm the job and write the pending alarm changes without waiting for the end of the edits
+        AlarmScheduler.getInstance(MainActivity.this).flushScheduleChanges();
+        AlarmRepository.getInstance(MainActivity.this).flush();
         //update the notification
         updateNextAlarmNotification();
     }
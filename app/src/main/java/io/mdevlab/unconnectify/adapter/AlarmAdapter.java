@@ -1,7 +1,9 @@
 package io.mdevlab.unconnectify.adapter;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,6 +11,8 @@ import android.view.ViewGroup;
 
 import com.chauthai.swipereveallayout.ViewBinderHelper;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -16,12 +20,17 @@ import io.mdevlab.unconnectify.MainActivity;
 import io.mdevlab.unconnectify.R;
 import io.mdevlab.unconnectify.alarm.AlarmManager;
 import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
-import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.data.AlarmRepository;
 import io.mdevlab.unconnectify.utils.AlarmUtils;
 import io.mdevlab.unconnectify.utils.Connection;
-import io.mdevlab.unconnectify.utils.DateUtils;
+import io.mdevlab.unconnectify.utils.TimeFormatter;
 
 /**
+ * Adapter of the list of alarms
+ * The items have stable ids, the ids of the alarms. When an alarm is added or deleted the list
+ * is read again from the repository and compared to the rows shown with DiffUtil in the
+ * background, so only the inserted, removed, moved and changed rows are bound again
+ * <p>
  * Created by mdevlab on 2/12/17.
  */
 
@@ -43,44 +52,131 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmViewHolder> {
     };
 
     private List<PreciseConnectivityAlarm> alarms;
-    private AlarmSqlHelper alarmSqlHelper;
+
+    // Whether the alarms come from the snapshot, until the alarms of the repository are loaded
+    private boolean mFromSnapshot = false;
+
+    // What the rows show, taken when the alarms were handed to the adapter
+    private List<AlarmRow> mRows = new ArrayList<>();
+
+    // Diff being computed for the latest list of alarms, null if there's none
+    private DiffTask mDiffTask = null;
     private Context mContext;
+    private final TimeFormatter mTimeFormatter;
     private final ViewBinderHelper viewBinderHelper = new ViewBinderHelper();
 
     /**
      * Constructor for  the alarm adapter
      *
-     * @param alarms  list of alarms provided
+     * @param alarms  list of alarms provided, null while the alarms are being loaded
      * @param context
      */
     public AlarmAdapter(List<PreciseConnectivityAlarm> alarms, Context context) {
         this.alarms = alarms;
         this.mContext = context;
-        this.alarmSqlHelper = new AlarmSqlHelper(mContext);
+        this.mTimeFormatter = TimeFormatter.getInstance(context);
+        if (alarms != null)
+            mRows = rowsOf(alarms);
+        setHasStableIds(true);
     }
 
     /**
-     * add alarm to the List of alarms
+     * Method that sets the list of alarms once they're loaded
+     *
+     * @param alarms: The alarms
+     */
+    public void setAlarms(List<PreciseConnectivityAlarm> alarms) {
+        replaceAlarms(alarms, false);
+    }
+
+    /**
+     * Method that shows the alarms of the snapshot while the alarms are being loaded
+     * They can be deleted but not edited, their controls are disabled (see onBindViewHolder)
+     *
+     * @param alarms: The alarms of the snapshot
+     */
+    public void setSnapshotAlarms(List<PreciseConnectivityAlarm> alarms) {
+        replaceAlarms(alarms, true);
+    }
+
+    /**
+     * Method that replaces the whole list, dropping the diff being computed if there's one
+     *
+     * @param alarms:       The alarms
+     * @param fromSnapshot: Whether they come from the snapshot
+     */
+    private void replaceAlarms(List<PreciseConnectivityAlarm> alarms, boolean fromSnapshot) {
+        this.alarms = alarms;
+        mRows = rowsOf(alarms);
+        mFromSnapshot = fromSnapshot;
+        mDiffTask = null;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * @return: Whether the adapter has the alarms of the repository, it doesn't while they're
+     * being loaded (even if it shows the ones of the snapshot)
+     */
+    public boolean hasAlarms() {
+        return alarms != null && !mFromSnapshot;
+    }
+
+    /**
+     * add alarm to the List of alarms, once it's created
      *
      * @param preciseConnectivityAlarm
      */
     public void addAlarm(PreciseConnectivityAlarm preciseConnectivityAlarm) {
-        alarms.clear();
-        alarms = alarmSqlHelper.readAllAlarms(null, null);
-        notifyDataSetChanged();
+        refresh();
     }
 
     /**
-     * delete the alarm from the list position and with the given id
+     * delete the alarm with the given id
      *
-     * @param position the position in the list
-     * @param alarmId  the id of the alarm used for db purposes as we delete the alarm by id
+     * @param alarmId the id of the alarm used for db purposes as we delete the alarm by id
      */
-    public void deleteAlarm(int position, int alarmId) {
-        alarms.remove(position);
-        notifyDataSetChanged();
-        ((MainActivity) mContext).setAlarmsCount();
+    public void deleteAlarm(int alarmId) {
         AlarmManager.getInstance(mContext).clearAlarm(alarmId);
+        refresh();
+    }
+
+    /**
+     * Method that reads the alarms of the repository and updates the rows that differ
+     * The alarms of the snapshot are replaced as a whole, none of their rows can be kept
+     */
+    private void refresh() {
+        List<PreciseConnectivityAlarm> newAlarms = AlarmRepository.getInstance(mContext).readAllAlarms();
+        if (alarms == null || mFromSnapshot) {
+            setAlarms(newAlarms);
+            ((MainActivity) mContext).setAlarmsCount();
+            return;
+        }
+
+        mDiffTask = new DiffTask(this, mRows, newAlarms);
+        mDiffTask.execute();
+    }
+
+    /**
+     * Method that shows the new alarms once their diff with the rows shown is computed,
+     * unless a newer list was given since
+     *
+     * @param diffTask: The task which computed the diff
+     * @param result:   The diff
+     */
+    private void onDiffComputed(DiffTask diffTask, DiffUtil.DiffResult result) {
+        if (diffTask != mDiffTask)
+            return;
+
+        mDiffTask = null;
+        alarms = diffTask.mNewAlarms;
+        mRows = diffTask.mNewRows;
+        result.dispatchUpdatesTo(this);
+        ((MainActivity) mContext).setAlarmsCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return alarms.get(position).getAlarmId();
     }
 
     @Override
@@ -91,7 +187,7 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmViewHolder> {
     }
 
     @Override
-    public void onBindViewHolder(AlarmViewHolder holder, final int position) {
+    public void onBindViewHolder(AlarmViewHolder holder, int position) {
         final PreciseConnectivityAlarm currentAlarm = alarms.get(position);
 
         AlarmUtils.displayAlarm(currentAlarm, "onBindViewHolder");
@@ -100,7 +196,7 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmViewHolder> {
         holder.mDeleteAlarmView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                deleteAlarm(position, currentAlarm.getAlarmId());
+                deleteAlarm(currentAlarm.getAlarmId());
             }
         });
 
@@ -109,20 +205,20 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmViewHolder> {
 
             @Override
             public void onClick(View view) {
-                deleteAlarm(position, currentAlarm.getAlarmId());
+                deleteAlarm(currentAlarm.getAlarmId());
             }
         });
 
         viewBinderHelper.bind(holder.mSwipeRevealLayout, String.valueOf(currentAlarm.getAlarmId()));
 
-        // Setting the alarm object to the holder
-        holder.setAlarm(currentAlarm);
-
-        // Setting the position to the holder
-        holder.setPosition(position);
+        // Setting the alarm object to the holder, the holder ignores edits until it has one
+        // An alarm of the snapshot only holds what's shown, its row can't be edited until it's
+        // rebound once the alarms are loaded
+        holder.setAlarm(mFromSnapshot ? null : currentAlarm);
+        holder.setEditable(!mFromSnapshot);
 
-        // Setting the card's color
-        holder.mContainer.setBackgroundColor(ContextCompat.getColor(mContext, colors[position % colors.length]));
+        // Setting the card's color, it follows the alarm so the other rows keep theirs when it moves
+        holder.mContainer.setBackgroundColor(ContextCompat.getColor(mContext, colors[currentAlarm.getAlarmId() % colors.length]));
 
         // Setting the card's mask
         holder.mSwitchedOffAlarmCover.setVisibility(currentAlarm.isActive() ? View.GONE : View.VISIBLE);
@@ -133,11 +229,11 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmViewHolder> {
         holder.setCheckToggleOnOff(true);
 
         // Start time
-        holder.mStartTime.setText(DateUtils.getTimeFromLong(currentAlarm.getStartTime()));
+        holder.mStartTime.setText(mTimeFormatter.formatTime(currentAlarm.getStartTime()));
 
         // End time and separator
         if (currentAlarm.getDuration() != 1) {
-            holder.mEndTime.setText(DateUtils.getTimeFromLong(currentAlarm.getStartTime() + currentAlarm.getDuration()));
+            holder.mEndTime.setText(mTimeFormatter.formatTime(currentAlarm.getStartTime() + currentAlarm.getDuration()));
         } else {
             holder.mEndTime.setAlpha(0.5f);
             holder.mTimesSeparator.setAlpha(0.5f);
@@ -208,4 +304,118 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmViewHolder> {
             return alarms.size();
         return 0;
     }
+
+    /**
+     * @param alarms: The alarms
+     * @return: What the rows of the alarms show
+     */
+    static List<AlarmRow> rowsOf(List<PreciseConnectivityAlarm> alarms) {
+        List<AlarmRow> rows = new ArrayList<>(alarms.size());
+        for (PreciseConnectivityAlarm alarm : alarms)
+            rows.add(new AlarmRow(alarm));
+        return rows;
+    }
+
+    /**
+     * What the row of an alarm shows, copied from the alarm
+     * The alarms of the repository are changed in place, so the rows are what the diffs compare
+     */
+    static class AlarmRow {
+
+        final int alarmId;
+        final long startTime;
+        final long duration;
+        final int daysMask;
+        final int connectionsMask;
+        final boolean active;
+
+        AlarmRow(PreciseConnectivityAlarm alarm) {
+            alarmId = alarm.getAlarmId();
+            startTime = alarm.getStartTime();
+            duration = alarm.getDuration();
+            daysMask = alarm.getDaysMask();
+            connectionsMask = alarm.getConnectionsMask();
+            active = alarm.isActive();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AlarmRow))
+                return false;
+            AlarmRow row = (AlarmRow) o;
+            return alarmId == row.alarmId && startTime == row.startTime && duration == row.duration
+                    && daysMask == row.daysMask && connectionsMask == row.connectionsMask && active == row.active;
+        }
+
+        @Override
+        public int hashCode() {
+            return alarmId;
+        }
+    }
+
+    /**
+     * Diff of two lists of rows: a row is the same item if it's of the same alarm,
+     * and its content is the same if it shows the same
+     */
+    static class RowDiffCallback extends DiffUtil.Callback {
+
+        private final List<AlarmRow> mOldRows;
+        private final List<AlarmRow> mNewRows;
+
+        RowDiffCallback(List<AlarmRow> oldRows, List<AlarmRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).alarmId == mNewRows.get(newItemPosition).alarmId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+        }
+    }
+
+    /**
+     * Task that computes the diff between the rows shown and a new list of alarms in the background
+     * The rows of the new alarms are taken on the main thread, where the alarms are changed
+     */
+    private static class DiffTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+
+        private final WeakReference<AlarmAdapter> mAdapter;
+        private final List<AlarmRow> mOldRows;
+        private final List<AlarmRow> mNewRows;
+        private final List<PreciseConnectivityAlarm> mNewAlarms;
+
+        DiffTask(AlarmAdapter adapter, List<AlarmRow> oldRows, List<PreciseConnectivityAlarm> newAlarms) {
+            mAdapter = new WeakReference<>(adapter);
+            mOldRows = oldRows;
+            mNewRows = rowsOf(newAlarms);
+            mNewAlarms = newAlarms;
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... params) {
+            return DiffUtil.calculateDiff(new RowDiffCallback(mOldRows, mNewRows), true);
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult result) {
+            AlarmAdapter adapter = mAdapter.get();
+            if (adapter != null)
+                adapter.onDiffComputed(this, result);
+        }
+    }
 }
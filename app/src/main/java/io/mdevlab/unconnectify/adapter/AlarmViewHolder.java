@@ -37,7 +37,6 @@ public class AlarmViewHolder extends RecyclerView.ViewHolder implements TimePick
 
     private PreciseConnectivityAlarm mAlarm;
     private Context mContext;
-    private int mPosition;
 
     private boolean hasChosenStartTime = true;
 
@@ -375,7 +374,7 @@ public class AlarmViewHolder extends RecyclerView.ViewHolder implements TimePick
         if (!hasChosenStartTime) {
             Bundle endTimeBundle = new Bundle();
             endTimeBundle.putBoolean(Constants.END_TIME_BUNDLE_KEY, true);
-            endTimeBundle.putInt(Constants.ALARM_POSITION, mPosition);
+            endTimeBundle.putInt(Constants.ALARM_POSITION, getAdapterPosition());
             timePickerFragment.setArguments(endTimeBundle);
         }
 
@@ -393,6 +392,10 @@ public class AlarmViewHolder extends RecyclerView.ViewHolder implements TimePick
     @Override
     public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
 
+        // The holder doesn't have its alarm while the list shows the snapshot
+        if (mAlarm == null)
+            return;
+
         /**
          * If 'minute' is between 0 and 9 it only has one digit,
          * so a '0' is added to the beginning of it
@@ -509,6 +512,22 @@ public class AlarmViewHolder extends RecyclerView.ViewHolder implements TimePick
         this.mAlarm = mAlarm;
     }
 
+    /**
+     * Method that enables or disables the controls editing the alarm
+     * They're disabled while the list shows the snapshot, the holder doesn't have its alarm
+     * then and a tap would change the row without changing the alarm
+     * The delete button is left enabled
+     *
+     * @param editable: Whether the alarm can be edited
+     */
+    public void setEditable(boolean editable) {
+        View[] controls = {mSwitchOnOffView, mSwitchOnOffToggle, mStartTime, mEndTime,
+                mWifi, mHotspot, mBluetooth, mWifiContainer, mHotspotContainer, mBluetoothContainer,
+                mSunday, mMonday, mTuesday, mWednesday, mThursday, mFriday, mSaturday};
+        for (View control : controls)
+            control.setEnabled(editable);
+    }
+
     /**
      * Method that updates an alarm's UI once the end time has been set
      * It basically makes the opacity of mEndTime and the separator 1
@@ -536,15 +555,6 @@ public class AlarmViewHolder extends RecyclerView.ViewHolder implements TimePick
         }
     }
 
-    /**
-     * Method that sets the position of the current alarm
-     *
-     * @param mPosition
-     */
-    public void setPosition(int mPosition) {
-        this.mPosition = mPosition;
-    }
-
     /**
      * Method that checks the toggle button of the current day
      */
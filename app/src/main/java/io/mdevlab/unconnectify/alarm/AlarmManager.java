@@ -2,17 +2,20 @@ package io.mdevlab.unconnectify.alarm;
 
 import android.content.Context;
 
-import com.evernote.android.job.JobManager;
+import java.util.Collection;
 
-import java.util.List;
-
-import io.mdevlab.unconnectify.data.AlarmSqlHelper;
-import io.mdevlab.unconnectify.jobs.ConnectivityJobManager;
+import io.mdevlab.unconnectify.data.AlarmPatch;
+import io.mdevlab.unconnectify.data.AlarmRepository;
+import io.mdevlab.unconnectify.jobs.AlarmScheduler;
 import io.mdevlab.unconnectify.notification.AlarmNotificationManager;
-import io.mdevlab.unconnectify.utils.AlarmUtils;
 import io.mdevlab.unconnectify.utils.Connection;
 
 /**
+ * The methods updating an alarm are called by the UI, they only update the alarm in memory
+ * The changes are written to the database by the AlarmRepository in the background, and the
+ * job of the alarms is rearmed by the AlarmScheduler once the edits have settled, so a burst
+ * of edits rearms it only once
+ * <p>
  * Created by mdevlab on 2/10/17.
  */
 
@@ -20,11 +23,11 @@ public class AlarmManager {
 
     private static Context mContext;
     private static AlarmManager instance = null;
-    private static AlarmSqlHelper alarmSqlHelper = null;
+    private static AlarmRepository alarmRepository = null;
 
     private AlarmManager(Context context) {
         this.mContext = context;
-        alarmSqlHelper = new AlarmSqlHelper(context);
+        alarmRepository = AlarmRepository.getInstance(context);
     }
 
     public static AlarmManager getInstance(Context context) {
@@ -42,61 +45,61 @@ public class AlarmManager {
      */
     public long createAlarm(PreciseConnectivityAlarm alarm) {
 
-        // Saving the alarm to the local database using the sql helper
-        long alarmId = alarmSqlHelper.createAlarm(alarm);
+        // Setting the next transition of the alarm, it's saved with the alarm
+        AlarmPatch.nextTransitionOf(alarm, System.currentTimeMillis()).applyTo(alarm);
+
+        // Saving the alarm to the local database using the repository
+        long alarmId = alarmRepository.createAlarm(alarm);
 
         // Launching alarm job
-        alarm.setAlarmId((int) alarmId);
-        createAlarmJob(alarm);
+        rearmJobOnceSettled();
 
         return alarmId;
     }
 
     /**
-     * Method that sets the first job for an alarm right after its creation
-     * It's also called to update an alarm's job after this alarm has been modified
-     * So it starts by canceling the previous job first before creating a new one
+     * Method that creates a batch of alarms at once, to seed or restore a set of schedules
+     * The next transitions of the active alarms are set before they're saved in one transaction,
+     * then the job is rearmed once for the whole batch
      *
-     * @param alarm: The newly created alarm
+     * @param alarms: The alarms to create
+     * @return: The ids of the created alarms, in the order of the collection
      */
-    private void createAlarmJob(PreciseConnectivityAlarm alarm) {
-        createAlarmJob(alarm, false);
+    public long[] createAlarms(Collection<PreciseConnectivityAlarm> alarms) {
+
+        // Setting the next transitions of the active alarms, they're saved with the alarms
+        for (PreciseConnectivityAlarm alarm : alarms) {
+            if (alarm.isActive())
+                AlarmPatch.nextTransitionOf(alarm, System.currentTimeMillis()).applyTo(alarm);
+        }
+
+        // Saving the alarms to the local database using the repository
+        long[] alarmIds = alarmRepository.createAlarms(alarms);
+
+        // Launching the job of the alarms
+        rearmJobOnceSettled();
+
+        return alarmIds;
     }
 
     /**
-     * Method that sets the first job for an alarm right after its creation
-     * It's also called to update an alarm's job after this alarm has been modified
-     * So it starts by canceling the previous job first before creating a new one
+     * Method that sets the next transition of an alarm after its schedule has been modified
+     * The job of the alarms is then rearmed once the edits have settled
      *
-     * @param alarm: The newly created alarm
+     * @param alarm: The alarm
      */
-    private void createAlarmJob(PreciseConnectivityAlarm alarm, boolean activate) {
-
-        // Cancel previous job assigned to alarm if it exists
-        if (alarm.getJobId() != -1)
-            JobManager.instance().cancel(alarm.getJobId());
-
-        ConnectivityJobManager.buildJobRequest(alarm, AlarmUtils.getStringFromConnection(alarm.getFirstConnection()),
-                activate,
-                alarm.getExecuteTimeInMils());
+    private void rescheduleAlarmJob(PreciseConnectivityAlarm alarm) {
+        alarmRepository.patchAlarm(alarm.getAlarmId(), AlarmPatch.nextTransitionOf(alarm, System.currentTimeMillis()));
+        rearmJobOnceSettled();
     }
 
     /**
-     * Method that updates the job id in both an alarm object and in
-     * the database.
-     * It was made static as a quick solution, it shouldn't normally be
-     * this way, it should be corrected
-     *
-     * @param alarmId: Id of the alarm of which the job id needs to be updated
-     * @param jobId:   New job id to assign the alarm
+     * Method that marks the schedule of the alarms changed, the job is rearmed in the background
+     * once the edits have settled (see AlarmScheduler.scheduleChanged)
+     * An alarm that was deleted or turned off is left out of the job this way
      */
-    public static void updateAlarmJobId(int alarmId, int jobId) {
-        if (alarmSqlHelper != null) {
-            PreciseConnectivityAlarm alarm = alarmSqlHelper.getAlarmById(alarmId);
-            if (alarm != null)
-                alarm.setJobId(jobId);
-            alarmSqlHelper.updateAlarmJob(alarmId, jobId);
-        }
+    private void rearmJobOnceSettled() {
+        AlarmScheduler.getInstance(mContext).scheduleChanged();
     }
 
     /**
@@ -107,11 +110,15 @@ public class AlarmManager {
      */
     public Boolean clearAlarm(int alarmId) {
 
-        // Cancel the job assigned to the alarm being deleted
-        cancelAlarmJob(alarmSqlHelper.getAlarmById(alarmId));
+        PreciseConnectivityAlarm alarm = alarmRepository.getAlarmById(alarmId);
+        if (alarm == null)
+            return false;
+
+        // Rearm the job without the alarm being deleted
+        rearmJobOnceSettled();
 
-        // Deleting the alarm from the local database using the sql helper
-        int lines = alarmSqlHelper.deleteAlarm(alarmId);
+        // Deleting the alarm from the local database using the repository
+        int lines = alarmRepository.deleteAlarm(alarmId);
 
         if (lines > 0) {
             return true;
@@ -120,21 +127,6 @@ public class AlarmManager {
         return false;
     }
 
-    /**
-     * Method that cancels an alarm's job
-     *
-     * @param alarm: Alarm of which we want to cancel the job
-     */
-    private void cancelAlarmJob(PreciseConnectivityAlarm alarm) {
-
-        // If the alarm has a job, cancel it
-        if (alarm.getJobId() != -1) {
-            alarm.setJobId(-1);
-            alarmSqlHelper.updateAlarmJob(alarm.getAlarmId(), -1);
-            JobManager.instance().cancel(alarm.getJobId());
-        }
-    }
-
     /**
      * Method that updates an alarm's state (on/off)
      *
@@ -143,19 +135,8 @@ public class AlarmManager {
      */
     public void updateAlarmState(PreciseConnectivityAlarm alarm, boolean isActive) {
 
-        // Update the state of the alarm object and in the dababase
-        alarm.setActive(isActive);
-        alarm.setCurrentState(isActive);
-        alarmSqlHelper.updateAlarmCurrentState(alarm.getAlarmId(), isActive);
-
-        // If alarm is now active, create its job
-        if (isActive) {
-            createAlarmJob(alarm);
-        }
-
-        // Else, cancel its current running job
-        else
-            cancelAlarmJob(alarm);
+        // If alarm is now active, its next transition is computed from now, else the job is rearmed without it
+        patchAlarm(alarm.getAlarmId(), new AlarmPatch().setActive(isActive));
     }
 
     /**
@@ -167,30 +148,33 @@ public class AlarmManager {
      */
     public void updateAlarm(PreciseConnectivityAlarm alarm, long executionTime, long alarmDuration) {
 
-        // Update the alarm object
-        if (executionTime != alarm.getExecuteTimeInMils()) {
-            alarm.setStartTime(executionTime);
-            alarm.setExecuteTimeInMils(AlarmUtils.getAlarmExecutionTime(alarm));
-        } else
-            alarm.setDuration(alarmDuration);
-
-        // Update the alarm in the database
-        alarmSqlHelper.updateAlarm(alarm.getAlarmId(),
-                alarm.getStartTime(),
-                alarm.getExecuteTimeInMils(),
-                alarm.getDuration());
-
-        /**
-         * Create new job for the alarm
-         * 'activate' indicates whether to enable or disable the connections in the job
-         * If executionTime = startTime + duration, it means the next job is
-         * supposed to re-enable the connections, this is why the value of 'activate'
-         * becomes true.
-         */
-        boolean activate = false;
-        if (alarm.getExecuteTimeInMils() == alarm.getStartTime() + alarm.getDuration())
-            activate = true;
-        createAlarmJob(alarm, activate);
+        // Either the start time or the duration of the alarm changes, its next transition follows
+        AlarmPatch patch = new AlarmPatch();
+        if (executionTime != alarm.getExecuteTimeInMils())
+            patch.setStartTime(executionTime);
+        else
+            patch.setDuration(alarmDuration);
+        patchAlarm(alarm.getAlarmId(), patch);
+    }
+
+    /**
+     * Method that applies any combination of changes to an alarm at once
+     * The alarm is changed in memory right away, the changes are written to the database
+     * in the background as a single statement, merged with the other pending changes
+     * of the alarm
+     * If the patch changes the schedule of the alarm, its next transition is computed again,
+     * else the pending transition is left as it is
+     *
+     * @param alarmId: Id of the alarm being updated
+     * @param patch:   Changes to apply to the alarm
+     */
+    public void patchAlarm(int alarmId, AlarmPatch patch) {
+        PreciseConnectivityAlarm alarm = alarmRepository.patchAlarm(alarmId, patch);
+        if (alarm == null || !patch.changesSchedule())
+            return;
+
+        // Set the new transition
+        rescheduleAlarmJob(alarm);
     }
 
     /**
@@ -201,19 +185,7 @@ public class AlarmManager {
      * @param isActive:           State of the selected connection
      */
     public void updateAlarmConnection(int alarmId, Connection selectedConnection, boolean isActive) {
-        PreciseConnectivityAlarm alarm = alarmSqlHelper.getAlarmById(alarmId);
-
-        // Update the alarm object
-        if (isActive)
-            alarm.getConnections().add(selectedConnection);
-        else
-            alarm.getConnections().remove(selectedConnection);
-
-        // Update the alarm in the database
-        alarmSqlHelper.updateAlarmConnection(alarmId, selectedConnection, isActive);
-
-        // Create a new job
-        createAlarmJob(alarm);
+        patchAlarm(alarmId, new AlarmPatch().setConnection(selectedConnection, isActive));
     }
 
     /**
@@ -224,61 +196,7 @@ public class AlarmManager {
      * @param isActive:    State of the selected day
      */
     public void updateAlarmDay(int alarmId, int selectedDay, boolean isActive) {
-        PreciseConnectivityAlarm alarm = alarmSqlHelper.getAlarmById(alarmId);
-
-        // Update the alarm object
-        if (isActive)
-            alarm.getDays().add(selectedDay);
-        else
-            alarm.getDays().remove(Integer.valueOf(selectedDay));
-
-        alarm.setExecuteTimeInMils(AlarmUtils.getAlarmExecutionTime(alarm, true));
-        alarmSqlHelper.updateAlarm(alarmId,
-                alarm.getStartTime(),
-                alarm.getExecuteTimeInMils(),
-                alarm.getDuration());
-
-        // Update the alarm in the database
-        alarmSqlHelper.updateAlarmDay(alarmId, selectedDay, isActive);
-
-        // Create a new job
-        createAlarmJob(alarm);
-    }
-
-    /**
-     * Method that handles conflicts between alarms
-     * This method checks whether its argument, an alarm is
-     * in conflict with another alarm that already exists
-     * A conflict between two alarms happens when all these conditions are met:
-     * - both alarms run in the same day (or more than one day)
-     * - At least one connection model is handled by both alarms
-     * - The period of "work" of one alarm intersect with that of the other
-     *
-     * @param alarm: Alarm we want to check if in conflict with other alarms
-     * @return: Id of the conflicting alarm's id if a conflict is found, -1 otherwise
-     */
-    public int handleAlarmConflicts(PreciseConnectivityAlarm alarm, Connection connection) {
-        if (alarmSqlHelper != null) {
-
-            // Get a list of all precise active alarms from the database
-            List<PreciseConnectivityAlarm> activeAlarms = alarmSqlHelper.readAllActiveAlarms();
-
-            /**
-             * Loop on the elements of the alarm
-             * The alarm passed on as an argument is compared with each element of the list
-             * If a conflict is found, the conflicting alarm's Id is returned
-             */
-            for (PreciseConnectivityAlarm activeAlarm : activeAlarms) {
-
-                // If the two alarms are in conflict, return the conflicting alarm's Id
-                if (alarm.getAlarmId() != activeAlarm.getAlarmId())
-                    if (alarm.inConflictWithAlarm(activeAlarm, connection))
-                        return activeAlarm.getAlarmId();
-            }
-        }
-
-        // At this point there aren't any conflicts, -1 is returned
-        return -1;
+        patchAlarm(alarmId, new AlarmPatch().setDay(selectedDay, isActive));
     }
 
     public void handleNotification() {
@@ -1,10 +1,12 @@
 package io.mdevlab.unconnectify.alarm;
 
-import java.util.List;
+import java.util.Collection;
 
 import io.mdevlab.unconnectify.utils.AlarmUtils;
 import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.ConnectionSet;
 import io.mdevlab.unconnectify.utils.DateUtils;
+import io.mdevlab.unconnectify.utils.DaySet;
 
 /**
  * Class that represents one alarm.
@@ -37,14 +39,21 @@ public class PreciseConnectivityAlarm {
      */
     private long mExecutionTimeInMils;
 
+    /**
+     * Absolute time in milliseconds at which the next job of the alarm fires
+     * It's set at the same time as 'mExecutionTimeInMils' and it's the value
+     * the job of the alarm is scheduled with
+     */
+    private long mNextFireAt;
+
     // Duration of the alarm
     private long mDuration;
 
     // Days to which the alarm is set
-    private List<Integer> mDays;
+    private DaySet mDays = new DaySet();
 
     // Connections concerned by the alarm
-    private List<Connection> mConnections;
+    private ConnectionSet mConnections = new ConnectionSet();
 
     // Boolean defining whether or not the alarm is active/on
     private boolean isActive;
@@ -76,14 +85,14 @@ public class PreciseConnectivityAlarm {
      * @param mExecutionTimeInMils: The execution time of the alarm
      * @param mDuration:            Duration after which the alarm should re-enable mConnections
      */
-    public PreciseConnectivityAlarm(long mExecutionTimeInMils, long mDuration, List<Integer> mDays, List<Connection> mConnections) {
+    public PreciseConnectivityAlarm(long mExecutionTimeInMils, long mDuration, Collection<Integer> mDays, Collection<Connection> mConnections) {
         this.mStartTime = mExecutionTimeInMils;
         this.mDuration = mDuration;
-        this.mDays = mDays;
-        this.mConnections = mConnections;
+        this.mDays = new DaySet(mDays);
+        this.mConnections = new ConnectionSet(mConnections);
         this.isActive = true;
         this.mCurrentState = false;
-        this.mExecutionTimeInMils = AlarmUtils.getAlarmExecutionTime(this);
+        setExecutionTime(AlarmUtils.getAlarmExecutionTime(this));
     }
 
     /**
@@ -95,7 +104,7 @@ public class PreciseConnectivityAlarm {
      * @param mDays:                Days to which the connection is set to, it mustn't be null
      * @param mExecutionTimeInMils: The execution time of the alarm
      */
-    public PreciseConnectivityAlarm(long mExecutionTimeInMils, List<Integer> mDays, List<Connection> mConnections) {
+    public PreciseConnectivityAlarm(long mExecutionTimeInMils, Collection<Integer> mDays, Collection<Connection> mConnections) {
         this(mExecutionTimeInMils, 0, mDays, mConnections);
     }
 
@@ -138,102 +147,11 @@ public class PreciseConnectivityAlarm {
     public PreciseConnectivityAlarm(long mExecutionTimeInMils, int mDuration) {
         this.mStartTime = mExecutionTimeInMils;
         this.mDuration = mDuration;
-        this.mDays = DateUtils.getToday();
-        this.mConnections = AlarmUtils.getDefaultConnection();
+        this.mDays = new DaySet(DateUtils.getToday());
+        this.mConnections = new ConnectionSet(AlarmUtils.getDefaultConnection());
         this.isActive = true;
         this.mCurrentState = false;
-        this.mExecutionTimeInMils = AlarmUtils.getAlarmExecutionTime(this);
-    }
-
-    /**
-     * Method that checks whether the current alarm object is in
-     * conflict with another alarm passed on as an argument
-     *
-     * @param alarm: Alarm with which the current alarm is compared
-     *               to determine if a conflict between the two exists
-     * @return: Id of the alarm in conflict with the current alarm, -1 if no
-     * conflict found
-     */
-    public boolean inConflictWithAlarm(PreciseConnectivityAlarm alarm, Connection connection) {
-        if (alarm != null) {
-
-            // Determine if both alarms handle one or more same connection(s)
-            if (hasSameConnectivity(connection))
-                return true;
-
-            // Determine if both alarms are set to the same day(s)
-            if (isBeingLaunchedToday(alarm.getDays()))
-                return true;
-
-            // Determine if both alarms function in the same period
-            if (isExecutedInTheSamePeriod(alarm.getLastUpdate(), alarm.getExecuteTimeInMils(), alarm.getDuration()))
-                return true;
-        }
-        return false;
-    }
-
-    /**
-     * Method that determines whether or not the current alarm object
-     * and another alarm object handle the same connections
-     *
-     * @param connection: Connection list of the alarm object
-     * @return
-     */
-    private boolean hasSameConnectivity(Connection connection) {
-        return mConnections.contains(connection);
-    }
-
-    /**
-     * Method that determines whether or not the current alarm object
-     * and another alarm object are both set to be launched on the current
-     * day
-     *
-     * @param daysList: List of days in which the other alarm is set to
-     * @return
-     */
-    private boolean isBeingLaunchedToday(List<Integer> daysList) {
-        return daysList.contains(DateUtils.getToday().get(0));
-    }
-
-    /**
-     * Method that determines whether or not 2 connections function in the same period of time
-     *
-     * @param executionTime: Execution/ start time of the alarm
-     * @param duration:      Duration of the alarm
-     * @return
-     */
-    private boolean isExecutedInTheSamePeriod(long lastUpdate, long executionTime, long duration) {
-
-
-        /**
-         * To know the exact time on which an alarm is launched, we get it using
-         * the formula : lastUpdate + executionTime
-         *
-         * Two alarms are in conflict when either one of them is launched between
-         * the execution time of the other one and its end time
-         */
-        return (isInRange(lastUpdate + executionTime,
-                mLastUpdate + mExecutionTimeInMils + mDuration,
-                lastUpdate + executionTime + duration) ||
-                isInRange(mLastUpdate + mExecutionTimeInMils,
-                        lastUpdate + executionTime + duration,
-                        mExecutionTimeInMils + mDuration)
-        );
-    }
-
-    /**
-     * Utility method used in the method 'isExecutedInTheSamePeriod'
-     * It checks if a number is contained in a range
-     *
-     * @param lowerBound:   Lower bound of the range
-     * @param middleMember: Number being checked if in range or not
-     * @param upperBound:   Upper bound of the range
-     * @return: Whether or not the middle number is in the range [lowerBound, upperBound]
-     */
-    private boolean isInRange(long lowerBound, long middleMember, long upperBound) {
-        if (lowerBound <= middleMember && middleMember <= upperBound)
-            return true;
-        return false;
+        setExecutionTime(AlarmUtils.getAlarmExecutionTime(this));
     }
 
     public int getAlarmId() {
@@ -260,6 +178,32 @@ public class PreciseConnectivityAlarm {
         this.mExecutionTimeInMils = mExecutionTimeInMils;
     }
 
+    public long getNextFireAt() {
+        return mNextFireAt;
+    }
+
+    public void setNextFireAt(long nextFireAt) {
+        this.mNextFireAt = nextFireAt;
+    }
+
+    /**
+     * Method that sets the time left until the next job of the alarm along with
+     * the absolute time at which this job fires
+     *
+     * @param executionTime: Milliseconds left before the next job of the alarm
+     */
+    public void setExecutionTime(long executionTime) {
+        this.mExecutionTimeInMils = executionTime;
+        this.mNextFireAt = System.currentTimeMillis() + executionTime;
+    }
+
+    /**
+     * @return: Milliseconds left until the absolute time at which the next job of the alarm fires
+     */
+    public long getTimeUntilNextFire() {
+        return mNextFireAt - System.currentTimeMillis();
+    }
+
     public boolean isActive() {
         return isActive;
     }
@@ -268,20 +212,42 @@ public class PreciseConnectivityAlarm {
         this.isActive = isActive;
     }
 
-    public List<Connection> getConnections() {
+    public ConnectionSet getConnections() {
         return mConnections;
     }
 
-    public void setConnections(List<Connection> mConnections) {
-        this.mConnections = mConnections;
+    public void setConnections(Collection<Connection> mConnections) {
+        this.mConnections = new ConnectionSet(mConnections);
     }
 
-    public List<Integer> getDays() {
+    public DaySet getDays() {
         return mDays;
     }
 
-    public void setDays(List<Integer> mDays) {
-        this.mDays = mDays;
+    public void setDays(Collection<Integer> mDays) {
+        this.mDays = new DaySet(mDays);
+    }
+
+    /**
+     * @return: The days of the alarm as a mask, see DaySet
+     */
+    public int getDaysMask() {
+        return mDays.getMask();
+    }
+
+    public void setDaysMask(int daysMask) {
+        mDays.setMask(daysMask);
+    }
+
+    /**
+     * @return: The connections of the alarm as a mask, see ConnectionSet
+     */
+    public int getConnectionsMask() {
+        return mConnections.getMask();
+    }
+
+    public void setConnectionsMask(int connectionsMask) {
+        mConnections.setMask(connectionsMask);
     }
 
     public long getDuration() {
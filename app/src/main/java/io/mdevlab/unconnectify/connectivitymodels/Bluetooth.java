@@ -35,4 +35,8 @@ public class Bluetooth extends Connectivity {
         if (mBluetoothAdapter.isEnabled())
             mBluetoothAdapter.disable();
     }
+
+    public boolean isEnabled() {
+        return mBluetoothAdapter.isEnabled();
+    }
 }
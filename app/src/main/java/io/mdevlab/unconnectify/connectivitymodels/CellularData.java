@@ -52,12 +52,17 @@ public class CellularData extends  Connectivity{
     }
 
     @Override
-    protected void enable() {
+    public void enable() {
 
     }
 
     @Override
-    protected void disable() {
+    public void disable() {
 
     }
+
+    @Override
+    public boolean isEnabled() {
+        return getMobileDataState();
+    }
 }
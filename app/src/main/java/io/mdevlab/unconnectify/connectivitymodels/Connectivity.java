@@ -6,7 +6,7 @@ package io.mdevlab.unconnectify.connectivitymodels;
 
 
 /**
- * This is the parent class for all Connectivity models it contains two abstract methods enable/disable
+ * This is the parent class for all Connectivity models it contains three abstract methods enable/disable/isEnabled
  * all connectivity should extend it
  *
  */
@@ -15,10 +15,15 @@ public abstract class Connectivity {
     /**
      * this class will be the main class for enabling any connectivity
      */
-    protected abstract void enable();
+    public abstract void enable();
 
     /**
      * this class will be the main class for disabling  any connectivity
      */
-    protected abstract void disable();
+    public abstract void disable();
+
+    /**
+     * this class will be the main class for reading the current state of any connectivity
+     */
+    public abstract boolean isEnabled();
 }
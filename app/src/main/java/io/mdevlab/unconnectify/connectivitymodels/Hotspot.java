@@ -57,4 +57,11 @@ public class Hotspot extends Connectivity {
             wifiManager.setWifiEnabled(false);
         apControl.enable();
     }
+
+    /**
+     * This function is for reading whether the hotspot is enabled
+     */
+    public boolean isEnabled() {
+        return apControl.isEnabled();
+    }
 }
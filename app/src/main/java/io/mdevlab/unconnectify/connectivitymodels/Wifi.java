@@ -36,4 +36,8 @@ public class Wifi extends Connectivity {
         if (mWifiManager.isWifiEnabled())
             mWifiManager.setWifiEnabled(false);
     }
+
+    public boolean isEnabled() {
+        return mWifiManager.isWifiEnabled();
+    }
 }
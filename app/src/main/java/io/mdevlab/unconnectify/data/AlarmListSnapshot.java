@@ -0,0 +1,226 @@
+package io.mdevlab.unconnectify.data;
+
+import android.content.Context;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+
+/**
+ * Binary copy of the list of alarms, read when MainActivity starts to show the alarms
+ * without waiting for the database
+ * The file is made of a header followed by one fixed-width record per alarm, in the order
+ * of the list (the last updated alarm first):
+ * - Header: magic number, format version, number of records, CRC32 of the records
+ * - Record: id, start time, duration, days mask, connections mask, flags (active)
+ * <p>
+ * The database stays the source of truth: the snapshot is written by AlarmRepository after
+ * the changes are written to the database, and it's checked against the alarms of the database
+ * once they're loaded. A snapshot that's truncated, of another format or whose checksum doesn't
+ * match is deleted and the alarms are read from the database
+ * <p>
+ * Created by mdevlab on 3/28/17.
+ */
+
+public class AlarmListSnapshot {
+
+    public static final String FILE_NAME = "alarms.snapshot";
+
+    // "ALRS"
+    private static final int MAGIC = 0x414C5253;
+    private static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    // id (4), start time (8), duration (8), days mask (4), connections mask (4), flags (4)
+    static final int RECORD_SIZE = 32;
+
+    private static final int FLAG_ACTIVE = 1;
+
+    // Records of the alarms, as written in the file
+    private final byte[] mRecords;
+
+    private AlarmListSnapshot(byte[] records) {
+        mRecords = records;
+    }
+
+    /**
+     * @param context
+     * @return: The file of the snapshot, in the files of the application
+     */
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * @return: Number of alarms in the snapshot
+     */
+    public int getAlarmCount() {
+        return mRecords.length / RECORD_SIZE;
+    }
+
+    /**
+     * Method that builds the alarms of the snapshot
+     * They only hold what the list shows, they're replaced by the alarms of the repository
+     * once these are loaded
+     *
+     * @return: The alarms, in the order of the list
+     */
+    public List<PreciseConnectivityAlarm> getAlarms() {
+        ByteBuffer buffer = ByteBuffer.wrap(mRecords);
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>(getAlarmCount());
+        while (buffer.hasRemaining()) {
+            PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm();
+            alarm.setAlarmId(buffer.getInt());
+            alarm.setStartTime(buffer.getLong());
+            alarm.setDuration(buffer.getLong());
+            alarm.setDaysMask(buffer.getInt());
+            alarm.setConnectionsMask(buffer.getInt());
+            alarm.setActive((buffer.getInt() & FLAG_ACTIVE) != 0);
+            alarms.add(alarm);
+        }
+        return alarms;
+    }
+
+    /**
+     * @param alarms: The alarms, in the order of the list
+     * @return: Whether the snapshot holds exactly these alarms, in this order
+     */
+    public boolean isSnapshotOf(List<PreciseConnectivityAlarm> alarms) {
+        return Arrays.equals(mRecords, encode(alarms));
+    }
+
+    /**
+     * Method that encodes the records of a list of alarms
+     *
+     * @param alarms: The alarms, in the order of the list
+     * @return: The records
+     */
+    static byte[] encode(List<PreciseConnectivityAlarm> alarms) {
+        ByteBuffer buffer = ByteBuffer.allocate(alarms.size() * RECORD_SIZE);
+        for (PreciseConnectivityAlarm alarm : alarms) {
+            buffer.putInt(alarm.getAlarmId());
+            buffer.putLong(alarm.getStartTime());
+            buffer.putLong(alarm.getDuration());
+            buffer.putInt(alarm.getDaysMask());
+            buffer.putInt(alarm.getConnectionsMask());
+            buffer.putInt(alarm.isActive() ? FLAG_ACTIVE : 0);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param records: Records of the alarms
+     * @return: The checksum of the records
+     */
+    static int checksumOf(byte[] records) {
+        CRC32 crc = new CRC32();
+        crc.update(records, 0, records.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Method that reads the snapshot through a memory mapping of the file
+     * A snapshot that can't be used is deleted
+     *
+     * @param file: The file of the snapshot
+     * @return: The snapshot, null if there's none or if it can't be used
+     */
+    public static AlarmListSnapshot read(File file) {
+        if (!file.isFile())
+            return null;
+
+        byte[] records = null;
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size >= HEADER_SIZE && size <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int magic = buffer.getInt();
+                int formatVersion = buffer.getInt();
+                int count = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (magic == MAGIC && formatVersion == FORMAT_VERSION && count >= 0
+                        && size == HEADER_SIZE + (long) count * RECORD_SIZE) {
+                    records = new byte[count * RECORD_SIZE];
+                    buffer.get(records);
+                    if (checksumOf(records) != checksum)
+                        records = null;
+                }
+            }
+        } catch (IOException e) {
+            records = null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+
+        if (records == null) {
+            file.delete();
+            return null;
+        }
+        return new AlarmListSnapshot(records);
+    }
+
+    /**
+     * Method that writes the records of the alarms to the snapshot
+     * They're written to a temporary file first, which then replaces the snapshot,
+     * so the snapshot is never left half written
+     *
+     * @param file:    The file of the snapshot
+     * @param records: Records of the alarms, see encode
+     * @return: Whether the snapshot was written
+     */
+    static boolean write(File file, byte[] records) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records.length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(records.length / RECORD_SIZE);
+        buffer.putInt(checksumOf(records));
+        buffer.put(records);
+        buffer.flip();
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporaryFile);
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            output.getFD().sync();
+        } catch (IOException e) {
+            closeQuietly(output);
+            temporaryFile.delete();
+            return false;
+        }
+        closeQuietly(output);
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
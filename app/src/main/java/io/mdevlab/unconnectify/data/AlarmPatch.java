@@ -0,0 +1,253 @@
+package io.mdevlab.unconnectify.data;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.AlarmUtils;
+import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.ConnectionSet;
+import io.mdevlab.unconnectify.utils.DaySet;
+
+/**
+ * Set of changes to apply to one alarm
+ * Any combination of fields, days and connections can be changed by one patch, the fields
+ * that aren't set are left as they are. Days and connections are changed bit by bit, so a patch
+ * adding a day doesn't overwrite a day added by another patch
+ * <p>
+ * Patches of the same alarm can be merged, the result being the same as applying one patch
+ * after the other. This is how the write queue turns several quick edits into one statement
+ * <p>
+ * Created by mdevlab on 3/18/17.
+ */
+
+public class AlarmPatch {
+
+    // Fields of the alarm, null when unchanged
+    private Long mStartTime;
+    private Long mExecutionTime;
+    private Long mDuration;
+    private Long mNextFireAt;
+    private Integer mJobId;
+    private Boolean mActive;
+    private Boolean mCurrentState;
+
+    // Bits of the days and connections to add to the alarm and to remove from it
+    private int mDaysToSet;
+    private int mDaysToClear;
+    private int mConnectionsToSet;
+    private int mConnectionsToClear;
+
+    // Time of the change, it becomes the last update time of the alarm
+    private long mUpdateTime = System.currentTimeMillis();
+
+    /**
+     * Method that builds the changes setting the next transition of an alarm from a given time
+     * The time of the transition and whether it enables the connections are computed together:
+     * - If the alarm is running, the transition is its end time and re-enables the connections
+     * - Else, it's its next start and disables them
+     *
+     * @param alarm: The alarm
+     * @param now:   Time from which the next transition is computed
+     * @return: The patch of the alarm
+     */
+    public static AlarmPatch nextTransitionOf(PreciseConnectivityAlarm alarm, long now) {
+        long executionTime = AlarmUtils.getAlarmExecutionTime(alarm, false, now);
+        return new AlarmPatch()
+                .setExecutionTime(executionTime)
+                .setNextFireAt(now + executionTime)
+                .setCurrentState(AlarmUtils.isAlarmRunning(alarm, now));
+    }
+
+    public AlarmPatch setStartTime(long startTime) {
+        mStartTime = startTime;
+        return this;
+    }
+
+    public AlarmPatch setExecutionTime(long executionTime) {
+        mExecutionTime = executionTime;
+        return this;
+    }
+
+    public AlarmPatch setDuration(long duration) {
+        mDuration = duration;
+        return this;
+    }
+
+    public AlarmPatch setNextFireAt(long nextFireAt) {
+        mNextFireAt = nextFireAt;
+        return this;
+    }
+
+    public AlarmPatch setJobId(int jobId) {
+        mJobId = jobId;
+        return this;
+    }
+
+    public AlarmPatch setActive(boolean active) {
+        mActive = active;
+        return this;
+    }
+
+    public AlarmPatch setCurrentState(boolean currentState) {
+        mCurrentState = currentState;
+        return this;
+    }
+
+    /**
+     * Method that adds a day to the alarm, or removes it
+     *
+     * @param day:   Day as defined in the class Calendar
+     * @param isSet: If true the day is added, else it's removed
+     * @return: The patch
+     */
+    public AlarmPatch setDay(int day, boolean isSet) {
+        int bit = DaySet.maskOf(day);
+        if (isSet) {
+            mDaysToSet |= bit;
+            mDaysToClear &= ~bit;
+        } else {
+            mDaysToClear |= bit;
+            mDaysToSet &= ~bit;
+        }
+        return this;
+    }
+
+    /**
+     * Method that adds a connection to the alarm, or removes it
+     *
+     * @param connection: The connection
+     * @param isSet:      If true the connection is added, else it's removed
+     * @return: The patch
+     */
+    public AlarmPatch setConnection(Connection connection, boolean isSet) {
+        int bit = ConnectionSet.maskOf(connection);
+        if (isSet) {
+            mConnectionsToSet |= bit;
+            mConnectionsToClear &= ~bit;
+        } else {
+            mConnectionsToClear |= bit;
+            mConnectionsToSet &= ~bit;
+        }
+        return this;
+    }
+
+    /**
+     * Method that merges a later patch of the same alarm into this one
+     * The fields set by the later patch win, and so do its days and connections
+     *
+     * @param later: Patch made after this one
+     * @return: This patch, now holding the changes of both
+     */
+    public AlarmPatch merge(AlarmPatch later) {
+        if (later.mStartTime != null)
+            mStartTime = later.mStartTime;
+        if (later.mExecutionTime != null)
+            mExecutionTime = later.mExecutionTime;
+        if (later.mDuration != null)
+            mDuration = later.mDuration;
+        if (later.mNextFireAt != null)
+            mNextFireAt = later.mNextFireAt;
+        if (later.mJobId != null)
+            mJobId = later.mJobId;
+        if (later.mActive != null)
+            mActive = later.mActive;
+        if (later.mCurrentState != null)
+            mCurrentState = later.mCurrentState;
+
+        mDaysToSet = (mDaysToSet & ~later.mDaysToClear) | later.mDaysToSet;
+        mDaysToClear = (mDaysToClear & ~later.mDaysToSet) | later.mDaysToClear;
+        mConnectionsToSet = (mConnectionsToSet & ~later.mConnectionsToClear) | later.mConnectionsToSet;
+        mConnectionsToClear = (mConnectionsToClear & ~later.mConnectionsToSet) | later.mConnectionsToClear;
+
+        mUpdateTime = Math.max(mUpdateTime, later.mUpdateTime);
+        return this;
+    }
+
+    /**
+     * Method that applies the patch to an alarm object
+     *
+     * @param alarm: The alarm to change
+     */
+    public void applyTo(PreciseConnectivityAlarm alarm) {
+        if (mStartTime != null)
+            alarm.setStartTime(mStartTime);
+        if (mExecutionTime != null)
+            alarm.setExecuteTimeInMils(mExecutionTime);
+        if (mDuration != null)
+            alarm.setDuration(mDuration);
+        if (mNextFireAt != null)
+            alarm.setNextFireAt(mNextFireAt);
+        if (mJobId != null)
+            alarm.setJobId(mJobId);
+        if (mActive != null)
+            alarm.setActive(mActive);
+        if (mCurrentState != null)
+            alarm.setCurrentState(mCurrentState);
+
+        alarm.setDaysMask((alarm.getDaysMask() | mDaysToSet) & ~mDaysToClear);
+        alarm.setConnectionsMask((alarm.getConnectionsMask() | mConnectionsToSet) & ~mConnectionsToClear);
+        alarm.setLastUpdate(mUpdateTime);
+    }
+
+    /**
+     * @return: Whether the patch changes the days of the alarm
+     */
+    public boolean changesDays() {
+        return mDaysToSet != 0 || mDaysToClear != 0;
+    }
+
+    /**
+     * @return: Whether the patch changes the weekly schedule of the alarm: its times, days,
+     * connections or state
+     */
+    public boolean changesSchedule() {
+        return mStartTime != null || mDuration != null || mActive != null || changesDays()
+                || mConnectionsToSet != 0 || mConnectionsToClear != 0;
+    }
+
+    Long getStartTime() {
+        return mStartTime;
+    }
+
+    Long getExecutionTime() {
+        return mExecutionTime;
+    }
+
+    Long getDuration() {
+        return mDuration;
+    }
+
+    Long getNextFireAt() {
+        return mNextFireAt;
+    }
+
+    Integer getJobId() {
+        return mJobId;
+    }
+
+    Boolean getActive() {
+        return mActive;
+    }
+
+    Boolean getCurrentState() {
+        return mCurrentState;
+    }
+
+    int getDaysToSet() {
+        return mDaysToSet;
+    }
+
+    int getDaysToClear() {
+        return mDaysToClear;
+    }
+
+    int getConnectionsToSet() {
+        return mConnectionsToSet;
+    }
+
+    int getConnectionsToClear() {
+        return mConnectionsToClear;
+    }
+
+    long getUpdateTime() {
+        return mUpdateTime;
+    }
+}
@@ -0,0 +1,409 @@
+package io.mdevlab.unconnectify.data;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.schedule.ConflictIndex;
+import io.mdevlab.unconnectify.schedule.NormalizedSchedule;
+import io.mdevlab.unconnectify.schedule.ScheduleNormalizer;
+import io.mdevlab.unconnectify.utils.Connection;
+
+/**
+ * Application wide store of the alarms, in front of AlarmSqlHelper
+ * All the alarms are loaded from the database once, the first time the repository is used,
+ * and are then kept in memory in a map keyed by alarm id
+ * - Reads (by id, active alarms, next alarm) are answered from memory
+ * - Writes update the alarm in memory right away and are then written to the database
+ * in the background by an AlarmWriteQueue, so the calling thread never waits for the disk.
+ * Quick edits of the same alarm are written once, in one transaction
+ * - Creating an alarm is the only write done on the calling thread, its id comes from the database
+ * - The normalized schedule of the active alarms is compiled on demand and kept until
+ * an alarm changes its schedule
+ * - The conflict index of the active alarms is built on demand, then changed alarm by alarm
+ * - After the changes are written, the list of alarms is written to an AlarmListSnapshot
+ * that MainActivity shows while the database is read
+ * <p>
+ * The alarm objects returned are the ones held by the repository, a change made to an alarm
+ * has to go through patchAlarm (or one of the update methods built on it) to be saved
+ * Every method is synchronized, the repository is used by both the UI and the jobs
+ * <p>
+ * Created by mdevlab on 3/15/17.
+ */
+
+public class AlarmRepository {
+
+    private static AlarmRepository instance = null;
+
+    private final AlarmSqlHelper mAlarmSqlHelper;
+
+    // Background writer of the alarm changes
+    private final AlarmWriteQueue mWriteQueue;
+
+    // Alarms by their id, null until the alarms are loaded
+    private SparseArray<PreciseConnectivityAlarm> mAlarmsById = null;
+
+    // Merged off-windows of the active alarms, null until it's needed or after an alarm changes
+    private NormalizedSchedule mNormalizedSchedule = null;
+
+    // Minutes covered by the active alarms for each connection, null until it's needed
+    private ConflictIndex mConflictIndex = null;
+
+    // Id of the time zone the normalized schedule and the conflict index were computed in
+    private String mZoneId = null;
+
+    // Key of the snapshot among the tasks run after the writes of the alarms, AlarmScheduler uses -1
+    private static final int SNAPSHOT_TASK_ID = -2;
+
+    // Key of the one-time rebuild of the database among the tasks run after the writes of the alarms
+    private static final int VACUUM_TASK_ID = -3;
+
+    private final File mSnapshotFile;
+
+    // Records last written to the snapshot, only used on the thread of the write queue
+    private byte[] mWrittenRecords = null;
+
+    // Writes the list of alarms to the snapshot, unless it didn't change
+    private final Runnable mWriteSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            byte[] records;
+            synchronized (AlarmRepository.this) {
+                records = AlarmListSnapshot.encode(readAllAlarms());
+            }
+            if (mSnapshotFile.isFile() && Arrays.equals(records, mWrittenRecords))
+                return;
+            if (AlarmListSnapshot.write(mSnapshotFile, records))
+                mWrittenRecords = records;
+        }
+    };
+
+    // Order of the alarms list, the last updated alarm first (same order as AlarmSqlHelper.readAllAlarms)
+    private static final Comparator<PreciseConnectivityAlarm> LAST_UPDATE_DESC = new Comparator<PreciseConnectivityAlarm>() {
+        @Override
+        public int compare(PreciseConnectivityAlarm alarm1, PreciseConnectivityAlarm alarm2) {
+            return Long.compare(alarm2.getLastUpdate(), alarm1.getLastUpdate());
+        }
+    };
+
+    private AlarmRepository(Context context) {
+        this(AlarmSqlHelper.getInstance(context), AlarmListSnapshot.getFile(context));
+    }
+
+    /**
+     * @param alarmSqlHelper: Database of the alarms
+     * @param snapshotFile:   File the list of alarms is written to
+     */
+    @VisibleForTesting
+    public AlarmRepository(AlarmSqlHelper alarmSqlHelper, File snapshotFile) {
+        mAlarmSqlHelper = alarmSqlHelper;
+        mWriteQueue = new AlarmWriteQueue(mAlarmSqlHelper);
+        mSnapshotFile = snapshotFile;
+
+        // The database is rebuilt once if it has to be, on the thread of the writes
+        mWriteQueue.enqueueTask(VACUUM_TASK_ID, new Runnable() {
+            @Override
+            public void run() {
+                mAlarmSqlHelper.enableIncrementalVacuum();
+            }
+        });
+    }
+
+    public static synchronized AlarmRepository getInstance(Context context) {
+        if (instance == null)
+            instance = new AlarmRepository(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Method that loads all the alarms from the database the first time it's called
+     * The active alarms without a next transition (the ones saved before the version 5 of the
+     * database, see AlarmSqlHelper.upgradeToVersion5) get it computed from now and saved
+     *
+     * @return: The alarms by their id
+     */
+    private SparseArray<PreciseConnectivityAlarm> alarms() {
+        if (mAlarmsById == null) {
+            List<PreciseConnectivityAlarm> alarms = mAlarmSqlHelper.readAllAlarms(null, null);
+            long now = System.currentTimeMillis();
+            mAlarmsById = new SparseArray<>(alarms.size());
+            for (PreciseConnectivityAlarm alarm : alarms) {
+                mAlarmsById.put(alarm.getAlarmId(), alarm);
+                if (alarm.isActive() && alarm.getNextFireAt() == 0) {
+                    AlarmPatch patch = AlarmPatch.nextTransitionOf(alarm, now);
+                    patch.applyTo(alarm);
+                    mWriteQueue.enqueuePatch(alarm.getAlarmId(), patch);
+                }
+            }
+        }
+        return mAlarmsById;
+    }
+
+    /**
+     * Method that applies a set of changes to an alarm
+     * The alarm in memory is changed right away, the patch is then queued to be written
+     * in the background, merged with the other changes of the alarm waiting to be written
+     *
+     * @param alarmId: Id of the alarm
+     * @param patch:   The changes, the patch mustn't be changed once passed to this method
+     * @return: The changed alarm, null if it doesn't exist
+     */
+    public synchronized PreciseConnectivityAlarm patchAlarm(int alarmId, AlarmPatch patch) {
+        PreciseConnectivityAlarm alarm = alarms().get(alarmId);
+        if (alarm == null)
+            return null;
+
+        patch.applyTo(alarm);
+        if (patch.changesSchedule()) {
+            scheduleChanged();
+            reindexConflicts(alarm);
+        }
+        mWriteQueue.enqueuePatch(alarmId, patch);
+        listChanged();
+        return alarm;
+    }
+
+    /**
+     * Method that runs a task once the pending changes of an alarm are written
+     * Like the writes, the task runs on the background thread of the write queue and
+     * only the last task given for an alarm is run
+     *
+     * @param alarmId: Id of the alarm the task is about
+     * @param task:    The task
+     */
+    public void runAfterWrites(int alarmId, Runnable task) {
+        mWriteQueue.enqueueTask(alarmId, task);
+    }
+
+    /**
+     * Method that starts writing the pending changes right away, without waiting for them
+     */
+    public void flush() {
+        mWriteQueue.flush();
+    }
+
+    /**
+     * Method that writes the pending changes and waits until they're written
+     * It's meant for the jobs, which mustn't finish before their changes are saved
+     * It mustn't be called from the main thread
+     */
+    public void flushAndWait() {
+        mWriteQueue.flushAndWait();
+    }
+
+    /**
+     * Method that saves a new alarm and adds it to the repository
+     *
+     * @param alarm: The alarm to create, its id is set once it's saved
+     * @return: The id of the created alarm, -1 if it couldn't be saved
+     */
+    public synchronized long createAlarm(PreciseConnectivityAlarm alarm) {
+        SparseArray<PreciseConnectivityAlarm> alarms = alarms();
+
+        long alarmId = mAlarmSqlHelper.createAlarm(alarm);
+        if (alarmId != -1) {
+            alarm.setAlarmId((int) alarmId);
+            alarm.setLastUpdate(System.currentTimeMillis());
+            alarms.put(alarm.getAlarmId(), alarm);
+                scheduleChanged();
+            reindexConflicts(alarm);
+            listChanged();
+        }
+        return alarmId;
+    }
+
+    /**
+     * Method that saves a batch of new alarms in one transaction and adds them to the repository
+     *
+     * @param newAlarms: The alarms to create, their ids are set once they're saved
+     * @return: The ids of the created alarms, in the order of the collection
+     */
+    public synchronized long[] createAlarms(Collection<PreciseConnectivityAlarm> newAlarms) {
+        SparseArray<PreciseConnectivityAlarm> alarms = alarms();
+
+        long[] alarmIds = mAlarmSqlHelper.createAlarms(newAlarms);
+        for (PreciseConnectivityAlarm alarm : newAlarms) {
+            alarms.put(alarm.getAlarmId(), alarm);
+                reindexConflicts(alarm);
+        }
+        scheduleChanged();
+        listChanged();
+        return alarmIds;
+    }
+
+    /**
+     * @return: All the alarms, the last updated one first
+     */
+    public synchronized List<PreciseConnectivityAlarm> readAllAlarms() {
+        SparseArray<PreciseConnectivityAlarm> alarms = alarms();
+
+        List<PreciseConnectivityAlarm> allAlarms = new ArrayList<>(alarms.size());
+        for (int i = 0; i < alarms.size(); i++)
+            allAlarms.add(alarms.valueAt(i));
+        Collections.sort(allAlarms, LAST_UPDATE_DESC);
+        return allAlarms;
+    }
+
+    /**
+     * @return: All the active alarms, the last updated one first
+     */
+    public synchronized List<PreciseConnectivityAlarm> readAllActiveAlarms() {
+        SparseArray<PreciseConnectivityAlarm> alarms = alarms();
+
+        List<PreciseConnectivityAlarm> activeAlarms = new ArrayList<>();
+        for (int i = 0; i < alarms.size(); i++) {
+            if (alarms.valueAt(i).isActive())
+                activeAlarms.add(alarms.valueAt(i));
+        }
+        Collections.sort(activeAlarms, LAST_UPDATE_DESC);
+        return activeAlarms;
+    }
+
+    /**
+     * The transitions in the past are left out, they're the ones the job skipped because they
+     * didn't change the state of any connection (see AlarmScheduler), they're only moved
+     * forward the next time the job runs for the alarm
+     *
+     * @return: The active alarm whose next transition is the soonest from now, null if there's none
+     */
+    public synchronized PreciseConnectivityAlarm readNextAlarm() {
+        SparseArray<PreciseConnectivityAlarm> alarms = alarms();
+        long now = System.currentTimeMillis();
+
+        PreciseConnectivityAlarm nextAlarm = null;
+        for (int i = 0; i < alarms.size(); i++) {
+            PreciseConnectivityAlarm alarm = alarms.valueAt(i);
+            if (alarm.isActive() && alarm.getNextFireAt() > now
+                    && (nextAlarm == null || alarm.getNextFireAt() < nextAlarm.getNextFireAt()))
+                nextAlarm = alarm;
+        }
+        return nextAlarm;
+    }
+
+    /**
+     * Method that returns the merged off-windows of the active alarms
+     * It's only normalized again if an alarm changed its schedule or the time zone changed
+     * since the last call
+     *
+     * @param zone: Time zone of the minutes of the schedule
+     * @return: The normalized schedule
+     */
+    public synchronized NormalizedSchedule getNormalizedSchedule(TimeZone zone) {
+        zoneUsed(zone);
+        if (mNormalizedSchedule == null)
+            mNormalizedSchedule = ScheduleNormalizer.normalize(readAllActiveAlarms(), zone);
+        return mNormalizedSchedule;
+    }
+
+    /**
+     * Method that drops the schedule and the conflict index if they were computed in another
+     * time zone, their minutes of the week don't match the wall time anymore
+     *
+     * @param zone: Time zone the caller counts the minutes of the week in
+     */
+    private void zoneUsed(TimeZone zone) {
+        if (zone.getID().equals(mZoneId))
+            return;
+
+        mZoneId = zone.getID();
+        mNormalizedSchedule = null;
+        mConflictIndex = null;
+    }
+
+    /**
+     * Method that drops the schedules compiled from the alarms, after an alarm changed its schedule
+     */
+    private void scheduleChanged() {
+        mNormalizedSchedule = null;
+    }
+
+    /**
+     * Method that queues the writing of the snapshot, after the pending changes
+     */
+    private void listChanged() {
+        mWriteQueue.enqueueTask(SNAPSHOT_TASK_ID, mWriteSnapshot);
+    }
+
+    /**
+     * Method that writes the snapshot again, when it's missing or doesn't match the alarms
+     * It's written in the background, without waiting for the next change
+     */
+    public void rewriteSnapshot() {
+        listChanged();
+        mWriteQueue.flush();
+    }
+
+    /**
+     * @param minuteOfWeek: The minute of the week
+     * @param zone:         Time zone of the minute of the week
+     * @return: Mask of the connections handled by at least one active alarm during the minute
+     */
+    public synchronized int getOccupiedConnections(int minuteOfWeek, TimeZone zone) {
+        return conflictIndex(zone).getOccupiedConnections(minuteOfWeek);
+    }
+
+    /**
+     * Method that builds the conflict index the first time it's called, and again after the
+     * time zone changed. It's kept up to date as the alarms change in between
+     *
+     * @param zone: Time zone of the minutes of the index
+     * @return: The conflict index
+     */
+    private ConflictIndex conflictIndex(TimeZone zone) {
+        zoneUsed(zone);
+        if (mConflictIndex == null)
+            mConflictIndex = ConflictIndex.build(readAllActiveAlarms(), zone);
+        return mConflictIndex;
+    }
+
+    /**
+     * Method that updates the minutes covered by an alarm in the conflict index, if it's built
+     *
+     * @param alarm: The created or changed alarm
+     */
+    private void reindexConflicts(PreciseConnectivityAlarm alarm) {
+        if (mConflictIndex != null) {
+            mConflictIndex.remove(alarm.getAlarmId());
+            mConflictIndex.add(alarm);
+        }
+    }
+
+    /**
+     * @param alarmId: Id of the alarm
+     * @return: The alarm, null if it doesn't exist
+     */
+    public synchronized PreciseConnectivityAlarm getAlarmById(int alarmId) {
+        return alarms().get(alarmId);
+    }
+
+    /**
+     * Method that deletes an alarm
+     *
+     * @param alarmId: Id of the alarm to delete
+     * @return: The number of deleted alarms, 1 or 0 if the alarm didn't exist
+     */
+    public synchronized int deleteAlarm(int alarmId) {
+        SparseArray<PreciseConnectivityAlarm> alarms = alarms();
+
+        if (alarms.get(alarmId) == null)
+            return 0;
+
+        alarms.remove(alarmId);
+        scheduleChanged();
+        if (mConflictIndex != null)
+            mConflictIndex.remove(alarmId);
+        mWriteQueue.enqueueDelete(alarmId);
+        listChanged();
+        return 1;
+    }
+}
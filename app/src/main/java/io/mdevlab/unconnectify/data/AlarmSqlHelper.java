@@ -3,24 +3,42 @@ package io.mdevlab.unconnectify.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
 import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.ConnectionSet;
+import io.mdevlab.unconnectify.utils.DaySet;
 
 /**
  * This class will be the main class for all the database Operations
  * the creation of th Database
- * -Table Alarm
- * -Table alarm_days
- * -Table alarm_connections
+ * -Table Alarm, its days and connections are stored as bitmasks (see DaySet and ConnectionSet)
+ * so reading or writing an alarm only touches one row, and deleting it leaves nothing behind
+ * -The database uses incremental vacuum, the file shrinks back after alarms are deleted
  * and all The Needed CRUD operations
  * some specific helper Methods to interact with the DBs with specific attributes
  * <p>
+ * Threading model:
+ * -There is one helper for the whole process, shared through getInstance, so there is one
+ * connection pool for the database whatever the thread using it
+ * -The database is in write-ahead-log mode: reads run on their own connections and are never
+ * blocked by a write, only the writes are serialized (on the primary connection)
+ * -Reads can be done from any thread, they don't open transactions so they don't take the primary
+ * connection away from the writer
+ * -Changes of existing alarms are written from the thread of the AlarmWriteQueue only, alarms are
+ * created from the calling thread since their id is needed right away
+ * <p>
  * Created by mdevlab on 2/10/17.
  */
 
@@ -29,16 +47,25 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
     public static final String TAG = AlarmSqlHelper.class.getSimpleName();
     //Datbase Name
     public static final String DATABASE_NAME = "Alarms.db";
-    //Current Version 1 since Feb 11 2017
-    public static final int DATABASE_VERSION = 1;
+    //Version 1 since Feb 11 2017
+    //Version 2: days and connections moved from alarm_days and alarm_connections to bitmask columns of alarm
+    //Version 3: absolute and indexed next_fire_at column
+    //Version 4: isactive and currentstate stored as INTEGER (0/1), index on jobid
+    //Version 5: currentstate tells whether the next transition enables the connections, no index on jobid
+    public static final int DATABASE_VERSION = 5;
     public static final String ASC = "ASC";
 
     // Table Names
     private static final String TABLE_ALARM = "alarm";
+
+    // Table the alarm table is rebuilt into by the migration to the version 4
+    private static final String TABLE_ALARM_NEW = "alarm_new";
+
+    // Tables of the version 1, only used by the migration to the version 2
     private static final String TABLE_ALARM_DAYS = "alarm_days";
     private static final String TABLE_ALARM_CONNECTIONS = "alarm_connections";
 
-    //common column for alarm_days and  connection_days and alarm table
+    //Alarm table primary key
     private static final String KEY_ID = "id";
 
     // Alarm Table - column names
@@ -49,50 +76,91 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
     public static final String JOBID = "jobid";
     public static final String UPDATETIME = "updatetime";
     public static final String CURRENTSTATE = "currentstate";
+    public static final String DAYS_COLUMN = "days";
+    public static final String CONNECTIONS_COLUMN = "connections";
+    public static final String NEXT_FIRE_AT_COLUMN = "next_fire_at";
+
+    // Value of the auto_vacuum pragma for which the free pages are only given back on demand
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Number of free pages from which they're given back to the file system
+    private static final long FREE_PAGES_THRESHOLD = 16;
+
+    // Index names
+    private static final String INDEX_ALARM_NEXT_FIRE_AT = "alarm_next_fire_at_index";
+
+    // Index of the version 4, dropped by the migration to the version 5
+    private static final String INDEX_ALARM_JOBID = "alarm_jobid_index";
+
+    // Values of the boolean columns isactive and currentstate
+    private static final int TRUE = 1;
+    private static final int FALSE = 0;
 
-    //common column for alarm_days and  connection_days
+    // Selection of the active alarms, served by INDEX_ALARM_NEXT_FIRE_AT
+    private static final String SELECTION_ACTIVE = ISACTIVE_COLUMN + " = " + TRUE;
+
+    // Version 1 alarm_days and alarm_connections Tables - column names
     private static final String KEY_ALARM_ID = "alarm_id";
-    // Alarm_days Table - column names
     private static final String KEY_DAY_ID = "day_id";
-
-    // Connection_days Table - column names
     private static final String KEY_CONNECTION_ID = "connection_id";
 
-
     /*
      Table Create Statements for table alarm
-     alarm(id, isactive, executiontimeinmils)
+     alarm(id, isactive, currentstate, starttimeinmils, executiontimeinmils, duration, jobid, updatetime, days, connections, next_fire_at)
+        */
+    private static final String CREATE_TABLE_ALARM = createTableAlarm(TABLE_ALARM);
+
+    /*
+     Index used by readNextAlarm and readAllActiveAlarms
+     The next active alarm is the first entry of the index for isactive = 1,
+     so finding it is an index seek instead of a scan and a sort of the table
         */
-    private static final String CREATE_TABLE_ALARM = "CREATE TABLE "
-            + TABLE_ALARM + "("
-            + KEY_ID + " INTEGER PRIMARY KEY  AUTOINCREMENT ,"
-            + ISACTIVE_COLUMN + " TEXT,"
-            + CURRENTSTATE + " TEXT,"
-            + START_TIME_COLUMN + " INTEGER,"
-            + EXECUTION_TIME_COLUMN + " INTEGER,"
-            + DURATION + " INTEGER,"
-            + JOBID + " INTEGER,"
-            + UPDATETIME + " INTEGER)";
+    private static final String CREATE_INDEX_ALARM_NEXT_FIRE_AT = "CREATE INDEX "
+            + INDEX_ALARM_NEXT_FIRE_AT + " ON " + TABLE_ALARM
+            + "(" + ISACTIVE_COLUMN + ", " + NEXT_FIRE_AT_COLUMN + ")";
 
     /*
-     Table Create Statements for table alarm_days
-     alarm_days(id, alarm_id, day_id)
-      */
-    private static final String CREATE_TABLE_ALARM_DAYS = "CREATE TABLE "
-            + TABLE_ALARM_DAYS + "("
-            + KEY_ALARM_ID + " INTEGER,"
-            + KEY_DAY_ID + " INTEGER ," +
-            " PRIMARY KEY (" + KEY_ALARM_ID + ", " + KEY_DAY_ID + "))";
+     Statement applying an AlarmPatch to one alarm, see applyPatches
+        */
+    private static final String PATCH_ALARM = "UPDATE " + TABLE_ALARM + " SET "
+            + START_TIME_COLUMN + " = COALESCE(?, " + START_TIME_COLUMN + "), "
+            + EXECUTION_TIME_COLUMN + " = COALESCE(?, " + EXECUTION_TIME_COLUMN + "), "
+            + DURATION + " = COALESCE(?, " + DURATION + "), "
+            + NEXT_FIRE_AT_COLUMN + " = COALESCE(?, " + NEXT_FIRE_AT_COLUMN + "), "
+            + JOBID + " = COALESCE(?, " + JOBID + "), "
+            + ISACTIVE_COLUMN + " = COALESCE(?, " + ISACTIVE_COLUMN + "), "
+            + CURRENTSTATE + " = COALESCE(?, " + CURRENTSTATE + "), "
+            + DAYS_COLUMN + " = (" + DAYS_COLUMN + " | ?) & ~?, "
+            + CONNECTIONS_COLUMN + " = (" + CONNECTIONS_COLUMN + " | ?) & ~?, "
+            + UPDATETIME + " = ?"
+            + " WHERE " + KEY_ID + " = ?";
+
+    private static final String DELETE_ALARM = "DELETE FROM " + TABLE_ALARM + " WHERE " + KEY_ID + " = ?";
 
     /*
-    Table Create Statements for table alarm_connections
-        alarm_connections(id, alarm_id, connection_id)
+     Statement inserting one alarm, see createAlarms
         */
-    private static final String CREATE_TABLE_ALARM_CONNECTIONS = "CREATE TABLE "
-            + TABLE_ALARM_CONNECTIONS + "("
-            + KEY_ALARM_ID + " INTEGER,"
-            + KEY_CONNECTION_ID + " INTEGER ," +
-            " PRIMARY KEY (" + KEY_ALARM_ID + ", " + KEY_CONNECTION_ID + "))";
+    private static final String INSERT_ALARM = "INSERT INTO " + TABLE_ALARM + "("
+            + ISACTIVE_COLUMN + ", "
+            + CURRENTSTATE + ", "
+            + START_TIME_COLUMN + ", "
+            + EXECUTION_TIME_COLUMN + ", "
+            + DURATION + ", "
+            + JOBID + ", "
+            + UPDATETIME + ", "
+            + DAYS_COLUMN + ", "
+            + CONNECTIONS_COLUMN + ", "
+            + NEXT_FIRE_AT_COLUMN + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Compiled statements of applyPatches and createAlarms, compiled once and reused by every batch
+    private SQLiteStatement mPatchStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mInsertStatement;
+
+    private static AlarmSqlHelper instance = null;
+
+    // Number of statements run, see getStatementCount
+    private final AtomicInteger mStatementCount = new AtomicInteger();
 
     /**
      * Constructor for the AlarmSqlHelper
@@ -100,33 +168,207 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      * @param context
      */
     public AlarmSqlHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
     public AlarmSqlHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
         super(context, name, factory, version);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * @param context
+     * @return the helper shared by the whole process
+     */
+    public static synchronized AlarmSqlHelper getInstance(Context context) {
+        if (instance == null)
+            instance = new AlarmSqlHelper(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Method that builds the create statement of the alarm table
+     * The migration to the version 4 rebuilds the table under another name,
+     * this is why the name of the table is an argument
+     *
+     * @param tableName: Name of the created table
+     * @return: The create statement
+     */
+    private static String createTableAlarm(String tableName) {
+        return "CREATE TABLE "
+                + tableName + "("
+                + KEY_ID + " INTEGER PRIMARY KEY  AUTOINCREMENT ,"
+                + ISACTIVE_COLUMN + " INTEGER NOT NULL DEFAULT " + FALSE + ","
+                + CURRENTSTATE + " INTEGER NOT NULL DEFAULT " + FALSE + ","
+                + START_TIME_COLUMN + " INTEGER,"
+                + EXECUTION_TIME_COLUMN + " INTEGER,"
+                + DURATION + " INTEGER,"
+                + JOBID + " INTEGER,"
+                + UPDATETIME + " INTEGER,"
+                + DAYS_COLUMN + " INTEGER NOT NULL DEFAULT 0,"
+                + CONNECTIONS_COLUMN + " INTEGER NOT NULL DEFAULT 0,"
+                + NEXT_FIRE_AT_COLUMN + " INTEGER NOT NULL DEFAULT 0)";
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+
+        // Only takes effect on a database that has no table yet, see enableIncrementalVacuum for the existing ones
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+    }
+
+    /**
+     * This method rebuilds the database once if it was created before incremental vacuum was
+     * enabled, for the pragma to take effect
+     * VACUUM rewrites the whole file and can't run inside the upgrade transaction, so it's run
+     * from the thread of the AlarmWriteQueue rather than by whichever thread opens the database first
+     */
+    public synchronized void enableIncrementalVacuum() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * This method gives the free pages of the database file back to the file system once
+     * there are enough of them, so the file shrinks after alarms are deleted
+     * It must be called outside of any transaction
+     *
+     * @param db the writable database
+     */
+    private void reclaimFreePages(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) < FREE_PAGES_THRESHOLD)
+            return;
+
+        // The pragma returns a row per freed page, the cursor has to be read for all of them to be freed
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         // creating required tables
         db.execSQL(CREATE_TABLE_ALARM);
-        db.execSQL(CREATE_TABLE_ALARM_DAYS);
-        db.execSQL(CREATE_TABLE_ALARM_CONNECTIONS);
+        createIndexes(db);
+    }
 
+    /**
+     * Method that creates the indexes of the alarm table
+     *
+     * @param db
+     */
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_INDEX_ALARM_NEXT_FIRE_AT);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
-        //TODO Implements the backup plan before updating the table so our users dont lose their alarms
-        // on upgrade drop older tables
-        db.execSQL("DROP TABLE IF EXISTS " + CREATE_TABLE_ALARM);
-        db.execSQL("DROP TABLE IF EXISTS " + CREATE_TABLE_ALARM_DAYS);
-        db.execSQL("DROP TABLE IF EXISTS " + CREATE_TABLE_ALARM_CONNECTIONS);
+        /**
+         * Each version upgrades the schema of the previous one while keeping the
+         * alarms of the user, the steps are chained so a database of any older
+         * version ends up with the current schema
+         * onUpgrade is already run inside a transaction by SQLiteOpenHelper
+         */
+        if (oldVersion < 2)
+            upgradeToVersion2(db);
+        if (oldVersion < 3)
+            upgradeToVersion3(db);
+        if (oldVersion < 4)
+            upgradeToVersion4(db);
+        if (oldVersion < 5)
+            upgradeToVersion5(db);
+    }
+
+    /**
+     * Version 2 moves the days and connections of the alarms from the tables alarm_days
+     * and alarm_connections to the bitmask columns days and connections of the table alarm
+     * The bit of a day is (1 << day_id), the bit of a connection is (1 << connection_id)
+     * Rows of the old tables that don't belong to any alarm are dropped along with the tables
+     *
+     * @param db
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_ALARM + " ADD COLUMN " + DAYS_COLUMN + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE_ALARM + " ADD COLUMN " + CONNECTIONS_COLUMN + " INTEGER NOT NULL DEFAULT 0");
+
+        // (day_id, alarm_id) and (connection_id, alarm_id) are primary keys, so summing the bits is the same as or-ing them
+        db.execSQL("UPDATE " + TABLE_ALARM + " SET "
+                + DAYS_COLUMN + " = (SELECT IFNULL(SUM(1 << " + KEY_DAY_ID + "), 0) FROM " + TABLE_ALARM_DAYS
+                + " WHERE " + KEY_ALARM_ID + " = " + TABLE_ALARM + "." + KEY_ID + "), "
+                + CONNECTIONS_COLUMN + " = (SELECT IFNULL(SUM(1 << " + KEY_CONNECTION_ID + "), 0) FROM " + TABLE_ALARM_CONNECTIONS
+                + " WHERE " + KEY_ALARM_ID + " = " + TABLE_ALARM + "." + KEY_ID + ")");
+
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ALARM_DAYS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ALARM_CONNECTIONS);
+    }
+
+    /**
+     * Version 3 adds the absolute time at which the next job of an alarm fires
+     * Until now it was computed on each read as "updatetime + executiontimeinmils",
+     * which is exactly what the existing rows are initialized with
+     *
+     * @param db
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_ALARM + " ADD COLUMN " + NEXT_FIRE_AT_COLUMN + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("UPDATE " + TABLE_ALARM + " SET " + NEXT_FIRE_AT_COLUMN + " = " + UPDATETIME + " + " + EXECUTION_TIME_COLUMN);
+        db.execSQL(CREATE_INDEX_ALARM_NEXT_FIRE_AT);
+    }
+
+    /**
+     * Version 4 stores isactive and currentstate as INTEGER instead of the TEXT "true"/"false"
+     * SQLite can't change the type of a column, so the table is rebuilt: the rows are copied
+     * to a new table with the booleans converted, the old table is dropped along with its
+     * index and the new table takes its name. The ids are copied as they are, the jobs
+     * of the alarms keep pointing to the right rows
+     *
+     * @param db
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        String columns = KEY_ID + ", "
+                + START_TIME_COLUMN + ", "
+                + EXECUTION_TIME_COLUMN + ", "
+                + DURATION + ", "
+                + JOBID + ", "
+                + UPDATETIME + ", "
+                + DAYS_COLUMN + ", "
+                + CONNECTIONS_COLUMN + ", "
+                + NEXT_FIRE_AT_COLUMN;
+
+        db.execSQL(createTableAlarm(TABLE_ALARM_NEW));
+        db.execSQL("INSERT INTO " + TABLE_ALARM_NEW + "(" + columns + ", " + ISACTIVE_COLUMN + ", " + CURRENTSTATE + ")"
+                + " SELECT " + columns + ", "
+                + "CASE WHEN " + ISACTIVE_COLUMN + " = 'true' THEN " + TRUE + " ELSE " + FALSE + " END, "
+                + "CASE WHEN " + CURRENTSTATE + " = 'true' THEN " + TRUE + " ELSE " + FALSE + " END"
+                + " FROM " + TABLE_ALARM);
+        db.execSQL("DROP TABLE " + TABLE_ALARM);
+        db.execSQL("ALTER TABLE " + TABLE_ALARM_NEW + " RENAME TO " + TABLE_ALARM);
+        createIndexes(db);
+    }
 
-        // create new tables
-        onCreate(db);
+    /**
+     * Version 5 gives currentstate its meaning of the single job: whether the next transition
+     * of the alarm enables the connections. Until now it held whether the alarm was active,
+     * and next_fire_at was derived from the last update time, which any edit of the alarm moved
+     * Both are reset, the next transition of every active alarm is computed again from the time
+     * of the day and the days of the alarm when the alarms are loaded (see AlarmRepository),
+     * which SQL can't do in the time zone of the device
+     * The index on jobid is dropped, the single job of the alarms doesn't look them up by job
+     *
+     * @param db
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_ALARM_JOBID);
+        db.execSQL("UPDATE " + TABLE_ALARM + " SET "
+                + NEXT_FIRE_AT_COLUMN + " = 0, "
+                + CURRENTSTATE + " = " + FALSE);
     }
 
     /**
@@ -134,8 +376,43 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      */
     public void closeDB() {
         SQLiteDatabase db = this.getReadableDatabase();
-        if (db != null && db.isOpen())
+        if (db != null && db.isOpen()) {
+            releaseStatements();
             db.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        releaseStatements();
+        super.close();
+    }
+
+    /**
+     * This method closes the compiled statements, they're compiled again on the next use
+     */
+    private synchronized void releaseStatements() {
+        if (mPatchStatement != null) {
+            mPatchStatement.close();
+            mDeleteStatement.close();
+            mInsertStatement.close();
+            mPatchStatement = null;
+            mDeleteStatement = null;
+            mInsertStatement = null;
+        }
+    }
+
+    /**
+     * This method compiles the statements of the batch writes the first time they're needed
+     *
+     * @param db the writable database
+     */
+    private void compileStatements(SQLiteDatabase db) {
+        if (mPatchStatement == null) {
+            mPatchStatement = db.compileStatement(PATCH_ALARM);
+            mDeleteStatement = db.compileStatement(DELETE_ALARM);
+            mInsertStatement = db.compileStatement(INSERT_ALARM);
+        }
     }
 
     /**
@@ -151,118 +428,217 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
         // Get a writable instance of alarm db
         SQLiteDatabase db = this.getWritableDatabase();
 
-        //get days and connections collections
-        List<Connection> connections = connectivityAlarm.getConnections();
-        List<Integer> days = connectivityAlarm.getDays();
-
-        // Instantiate row to be inserted
-        ContentValues values = new ContentValues();
-        values.put(ISACTIVE_COLUMN, String.valueOf(connectivityAlarm.isActive()));
-        values.put(CURRENTSTATE, String.valueOf(connectivityAlarm.getCurrentState()));
-        values.put(START_TIME_COLUMN, connectivityAlarm.getStartTime());
-        values.put(EXECUTION_TIME_COLUMN, connectivityAlarm.getExecuteTimeInMils());
+        // Instantiate row to be inserted, days and connections included
+        ContentValues values = getAlarmValues(connectivityAlarm);
         values.put(UPDATETIME, System.currentTimeMillis());
-        values.put(JOBID, connectivityAlarm.getJobId());
-        values.put(DURATION, connectivityAlarm.getDuration());
 
         // Insert row
-        long alarmId = db.insert(TABLE_ALARM, null, values);
+        mStatementCount.incrementAndGet();
+        return db.insert(TABLE_ALARM, null, values);
+    }
 
-        // Insert days
-        for (long day : days) {
-            createAlarmDay(alarmId, day);
+    /**
+     * This method creates a batch of alarms in one transaction, with a single compiled
+     * insert statement run once per alarm
+     * Either all the alarms are created or none of them, the ids of the alarms are set
+     * once the transaction is committed
+     *
+     * @param connectivityAlarms the alarms to create
+     * @return the ids of the created alarms, in the order of the collection
+     */
+    public synchronized long[] createAlarms(Collection<PreciseConnectivityAlarm> connectivityAlarms) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        compileStatements(db);
+
+        long[] alarmIds = new long[connectivityAlarms.size()];
+        long updateTime = System.currentTimeMillis();
+
+        db.beginTransaction();
+        try {
+            int i = 0;
+            for (PreciseConnectivityAlarm connectivityAlarm : connectivityAlarms) {
+                mInsertStatement.bindLong(1, toInteger(connectivityAlarm.isActive()));
+                mInsertStatement.bindLong(2, toInteger(connectivityAlarm.getCurrentState()));
+                mInsertStatement.bindLong(3, connectivityAlarm.getStartTime());
+                mInsertStatement.bindLong(4, connectivityAlarm.getExecuteTimeInMils());
+                mInsertStatement.bindLong(5, connectivityAlarm.getDuration());
+                mInsertStatement.bindLong(6, connectivityAlarm.getJobId());
+                mInsertStatement.bindLong(7, updateTime);
+                mInsertStatement.bindLong(8, connectivityAlarm.getDaysMask());
+                mInsertStatement.bindLong(9, connectivityAlarm.getConnectionsMask());
+                mInsertStatement.bindLong(10, connectivityAlarm.getNextFireAt());
+                alarmIds[i++] = mInsertStatement.executeInsert();
+                mStatementCount.incrementAndGet();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
 
-        // Insert connections
-        for (Connection connection : connections) {
-            createAlarmConnection(alarmId, connection);
+        int i = 0;
+        for (PreciseConnectivityAlarm connectivityAlarm : connectivityAlarms) {
+            connectivityAlarm.setAlarmId((int) alarmIds[i++]);
+            connectivityAlarm.setLastUpdate(updateTime);
         }
-
-        return alarmId;
+        return alarmIds;
     }
 
     /**
-     * Method that adds a row to alarm_days table
-     * The day is attached to the alarm
+     * This method builds the values of the row of an alarm, every column but the id
      *
-     * @param alarmId Alarm id of the alarm attached to this connection
-     * @param day     Day id attached to this alarm
-     * @return
+     * @param connectivityAlarm the alarm
+     * @return the values of the row of the alarm
      */
-    private Long createAlarmDay(long alarmId, long day) {
-
-        //get a writable instance of alarm db
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // instantiate row to be inserted
+    private static ContentValues getAlarmValues(PreciseConnectivityAlarm connectivityAlarm) {
         ContentValues values = new ContentValues();
-        values.put(KEY_ALARM_ID, alarmId);
-        values.put(KEY_DAY_ID, day);
-
-        //insert row
-        long id = db.insert(TABLE_ALARM_DAYS, null, values);
-
-        //return alarm_days KEY_ID
-        return id;
+        values.put(ISACTIVE_COLUMN, toInteger(connectivityAlarm.isActive()));
+        values.put(CURRENTSTATE, toInteger(connectivityAlarm.getCurrentState()));
+        values.put(START_TIME_COLUMN, connectivityAlarm.getStartTime());
+        values.put(EXECUTION_TIME_COLUMN, connectivityAlarm.getExecuteTimeInMils());
+        values.put(UPDATETIME, connectivityAlarm.getLastUpdate());
+        values.put(JOBID, connectivityAlarm.getJobId());
+        values.put(DURATION, connectivityAlarm.getDuration());
+        values.put(DAYS_COLUMN, connectivityAlarm.getDaysMask());
+        values.put(CONNECTIONS_COLUMN, connectivityAlarm.getConnectionsMask());
+        values.put(NEXT_FIRE_AT_COLUMN, connectivityAlarm.getNextFireAt());
+        return values;
     }
 
     /**
-     * Method that adds a row to alarm_connections table
-     * The connection is attached to the alarm
+     * This method applies a batch of patches and deletions in one transaction
+     * Either all the changes are written or none of them
+     * Every patch is one run of the same compiled statement, whatever the fields it changes:
+     * the fields left unchanged are bound to null and kept as they are by COALESCE, and the
+     * days and connections are changed with bit operations on their masks
      *
-     * @param alarmId    the alarm id attached to this connection
-     * @param connection the connection id attached to this alarm
-     * @return
+     * @param patches         the patches to apply, by alarm id
+     * @param deletedAlarmIds the ids of the deleted alarms
      */
-    private Long createAlarmConnection(long alarmId, Connection connection) {
-
-        //get a writable instance of alarm db
+    public synchronized void applyPatches(SparseArray<AlarmPatch> patches, int[] deletedAlarmIds) {
         SQLiteDatabase db = this.getWritableDatabase();
+        compileStatements(db);
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < patches.size(); i++) {
+                bindPatch(mPatchStatement, patches.keyAt(i), patches.valueAt(i));
+                mPatchStatement.executeUpdateDelete();
+                mStatementCount.incrementAndGet();
+            }
+
+            for (int alarmId : deletedAlarmIds) {
+                mDeleteStatement.bindLong(1, alarmId);
+                mDeleteStatement.executeUpdateDelete();
+                mStatementCount.incrementAndGet();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
 
-        // instantiate row to be inserted
-        ContentValues values = new ContentValues();
-        values.put(KEY_ALARM_ID, alarmId);
-        values.put(KEY_CONNECTION_ID, connection.getValue());
+        if (deletedAlarmIds.length > 0)
+            reclaimFreePages(db);
+    }
 
-        //insert row
-        long id = db.insert(TABLE_ALARM_CONNECTIONS, null, values);
+    /**
+     * This method binds the values of a patch to the PATCH_ALARM statement
+     *
+     * @param statement the compiled PATCH_ALARM statement
+     * @param alarmId   the alarm concerned
+     * @param patch     the changes of the alarm
+     */
+    private static void bindPatch(SQLiteStatement statement, int alarmId, AlarmPatch patch) {
+        statement.clearBindings();
+        bindNullable(statement, 1, patch.getStartTime());
+        bindNullable(statement, 2, patch.getExecutionTime());
+        bindNullable(statement, 3, patch.getDuration());
+        bindNullable(statement, 4, patch.getNextFireAt());
+        bindNullable(statement, 5, patch.getJobId() == null ? null : (long) patch.getJobId());
+        bindNullable(statement, 6, patch.getActive() == null ? null : (long) toInteger(patch.getActive()));
+        bindNullable(statement, 7, patch.getCurrentState() == null ? null : (long) toInteger(patch.getCurrentState()));
+        statement.bindLong(8, patch.getDaysToSet());
+        statement.bindLong(9, patch.getDaysToClear());
+        statement.bindLong(10, patch.getConnectionsToSet());
+        statement.bindLong(11, patch.getConnectionsToClear());
+        statement.bindLong(12, patch.getUpdateTime());
+        statement.bindLong(13, alarmId);
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, Long value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindLong(index, value);
+    }
 
-        //return alarm_connections KEY_ID
-        return id;
+    /**
+     * @return the number of statements run by this helper since its creation, used by the tests
+     * to compare how many statements the different ways of writing an alarm cost
+     */
+    @VisibleForTesting
+    public int getStatementCount() {
+        return mStatementCount.get();
     }
 
     /**
      * This method returns all alarms within the specified selection
-     * call example : readAllAlarms(ISACTIVE_COLUMN +" = ?", new String[] {"true"});
+     * call example : readAllAlarms(ISACTIVE_COLUMN +" = ?", new String[] {"1"});
      *
      * @param selection     the selection clause
      * @param selectionArgs the arguments of the selection cause
      * @return the list of  PreciseConnectivityAlarm
      */
     public List<PreciseConnectivityAlarm> readAllAlarms(String selection, String[] selectionArgs) {
+        return queryAlarms(selection, selectionArgs, UPDATETIME + " DESC", null);
+    }
+
+    /**
+     * This method runs a single query returning fully hydrated alarms
+     * The days and connections of each alarm are columns of the alarm row,
+     * so loading N alarms costs one cursor
+     * No transaction is opened, so the query runs on a reader connection and never waits
+     * for the writer. The list is a consistent snapshot as long as the rows fit in one
+     * cursor window, which is the case for any realistic number of alarms
+     *
+     * @param selection     the selection clause, may be null
+     * @param selectionArgs the arguments of the selection clause
+     * @param orderBy       the order by clause, may be null
+     * @param limit         the limit clause, may be null
+     * @return the list of PreciseConnectivityAlarm
+     */
+    private List<PreciseConnectivityAlarm> queryAlarms(String selection, String[] selectionArgs, String orderBy, String limit) {
         List<PreciseConnectivityAlarm> alarms = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
 
-        //execute the query
-        Cursor cursor = db.query(TABLE_ALARM,
-                null,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                UPDATETIME + " DESC");
-
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-                //create the instance of preciseConnectivityAlarm form getConnectivityAlarmFromCursor method
-                PreciseConnectivityAlarm preciseConnectivityAlarm = getConnectivityAlarmFromCursor(cursor);
-
-                // adding alarm  to alarms list
-                alarms.add(preciseConnectivityAlarm);
-                //jump to next line within the cursor
-            } while (cursor.moveToNext());
+        Cursor cursor = null;
+        try {
+            //execute the query
+            cursor = db.query(TABLE_ALARM,
+                    null,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    orderBy,
+                    limit);
+            mStatementCount.incrementAndGet();
+
+            // looping through all rows and adding to list
+            if (cursor.moveToFirst()) {
+                // The column indexes are looked up once for the whole cursor
+                AlarmColumns columns = new AlarmColumns(cursor);
+                do {
+                    //create the instance of preciseConnectivityAlarm form getConnectivityAlarmFromCursor method
+                    alarms.add(getConnectivityAlarmFromCursor(cursor, columns));
+                    //jump to next line within the cursor
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
         }
+
         //return the final list of alarms
         return alarms;
     }
@@ -274,107 +650,87 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      * @return PreciseConnectivityAlarm created from the given cursor
      */
     public PreciseConnectivityAlarm getConnectivityAlarmFromCursor(Cursor cursor) {
+        return getConnectivityAlarmFromCursor(cursor, new AlarmColumns(cursor));
+    }
+
+    /**
+     * This function builds a PreciseConnectivityAlarm object from a cursor
+     * whose column indexes have already been looked up
+     *
+     * @param cursor  the cursor from we will retrieve  PreciseConnectivityAlarm data
+     * @param columns the column indexes of the cursor
+     * @return PreciseConnectivityAlarm created from the given cursor
+     */
+    private PreciseConnectivityAlarm getConnectivityAlarmFromCursor(Cursor cursor, AlarmColumns columns) {
 
         // The preciseConnectivityAlarm to be returned
         PreciseConnectivityAlarm preciseConnectivityAlarm = new PreciseConnectivityAlarm();
 
-        // Get the alarm id
-        int alarmId = cursor.getInt((cursor.getColumnIndex(KEY_ID)));
-
         // Instantiate the alarm with its setter methods
-        preciseConnectivityAlarm.setAlarmId(cursor.getInt((cursor.getColumnIndex(KEY_ID))));
-        preciseConnectivityAlarm.setStartTime(cursor.getLong((cursor.getColumnIndex(START_TIME_COLUMN))));
-        preciseConnectivityAlarm.setExecuteTimeInMils(cursor.getLong((cursor.getColumnIndex(EXECUTION_TIME_COLUMN))));
-        preciseConnectivityAlarm.setActive(Boolean.parseBoolean(cursor.getString((cursor.getColumnIndex(ISACTIVE_COLUMN)))));
-        preciseConnectivityAlarm.setCurrentState(Boolean.parseBoolean(cursor.getString((cursor.getColumnIndex(CURRENTSTATE)))));
-        preciseConnectivityAlarm.setDuration(cursor.getInt((cursor.getColumnIndex(DURATION))));
-        preciseConnectivityAlarm.setLastUpdate(cursor.getInt((cursor.getColumnIndex(UPDATETIME))));
-        preciseConnectivityAlarm.setJobId(cursor.getInt((cursor.getColumnIndex(JOBID))));
-
-        /**
-         * Fill days and connections using respectively getAllDaysOfAlarm getAllConnectionOfAlarm the helper methods
-         * to get the alarms days and connections
-         */
-        List<Integer> days = getAllDaysOfAlarm(alarmId);
-        List<Connection> connections = getAllConnectionOfAlarm(alarmId);
-
-        // Set days and connections list
-        preciseConnectivityAlarm.setConnections(connections);
-        preciseConnectivityAlarm.setDays(days);
+        preciseConnectivityAlarm.setAlarmId(cursor.getInt(columns.id));
+        preciseConnectivityAlarm.setStartTime(cursor.getLong(columns.startTime));
+        preciseConnectivityAlarm.setExecuteTimeInMils(cursor.getLong(columns.executionTime));
+        preciseConnectivityAlarm.setActive(cursor.getInt(columns.isActive) == TRUE);
+        preciseConnectivityAlarm.setCurrentState(cursor.getInt(columns.currentState) == TRUE);
+        preciseConnectivityAlarm.setDuration(cursor.getInt(columns.duration));
+        preciseConnectivityAlarm.setLastUpdate(cursor.getLong(columns.updateTime));
+        preciseConnectivityAlarm.setJobId(cursor.getInt(columns.jobId));
+
+        preciseConnectivityAlarm.setDaysMask(cursor.getInt(columns.days));
+        preciseConnectivityAlarm.setConnectionsMask(cursor.getInt(columns.connections));
+        preciseConnectivityAlarm.setNextFireAt(cursor.getLong(columns.nextFireAt));
 
         return preciseConnectivityAlarm;
     }
 
     /**
-     * This method calls readAllAlarms by specifying the selection and the selection arguments
-     * It returns a list of all active alarms
-     *
-     * @return A list of all active Alarms
-     */
-    public List<PreciseConnectivityAlarm> readAllActiveAlarms() {
-        return readAllAlarms(ISACTIVE_COLUMN + " = ?", new String[]{"true"});
-    }
-
-    /**
-     * Get all days on which the alarm will be repeated
-     *
-     * @param id of the alarm
-     * @return return a list  of Days  of the given id
+     * Indexes of the columns of an alarm cursor
+     * They're looked up once per cursor instead of once per column of every row
      */
-    public List<Integer> getAllDaysOfAlarm(int id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        List<Integer> listOfDays = new ArrayList<>();
-        Cursor cursor = db.query(TABLE_ALARM_DAYS,
-                null,
-                KEY_ALARM_ID + " = ?",
-                new String[]{Integer.toString(id)},
-                null,
-                null,
-                KEY_DAY_ID);
-        if (cursor.moveToFirst()) {
-            do {
-                listOfDays.add(cursor.getInt((cursor.getColumnIndex(KEY_DAY_ID))));
-            } while (cursor.moveToNext());
+    private static class AlarmColumns {
+        final int id;
+        final int isActive;
+        final int currentState;
+        final int startTime;
+        final int executionTime;
+        final int duration;
+        final int jobId;
+        final int updateTime;
+        final int days;
+        final int connections;
+        final int nextFireAt;
+
+        AlarmColumns(Cursor cursor) {
+            id = cursor.getColumnIndex(KEY_ID);
+            isActive = cursor.getColumnIndex(ISACTIVE_COLUMN);
+            currentState = cursor.getColumnIndex(CURRENTSTATE);
+            startTime = cursor.getColumnIndex(START_TIME_COLUMN);
+            executionTime = cursor.getColumnIndex(EXECUTION_TIME_COLUMN);
+            duration = cursor.getColumnIndex(DURATION);
+            jobId = cursor.getColumnIndex(JOBID);
+            updateTime = cursor.getColumnIndex(UPDATETIME);
+            days = cursor.getColumnIndex(DAYS_COLUMN);
+            connections = cursor.getColumnIndex(CONNECTIONS_COLUMN);
+            nextFireAt = cursor.getColumnIndex(NEXT_FIRE_AT_COLUMN);
         }
-        return listOfDays;
     }
 
     /**
-     * This function returns a list of the connections handled by an alarm
-     *
-     * @param id of the alarm
-     * @return return a list  of Connection of the given id
+     * @param value: A boolean value
+     * @return: The value stored in the isactive and currentstate columns for the boolean
      */
-    public List<Connection> getAllConnectionOfAlarm(int id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        List<Connection> listOfConnections = new ArrayList<>();
-        Cursor cursor = db.query(TABLE_ALARM_CONNECTIONS,
-                null,
-                KEY_ALARM_ID + " = ?",
-                new String[]{Integer.toString(id)},
-                null,
-                null,
-                KEY_CONNECTION_ID + " ASC");
-        if (cursor.moveToFirst()) {
-            do {
-                listOfConnections.add(Connection.fromInt(cursor.getInt((cursor.getColumnIndex(KEY_CONNECTION_ID)))));
-            } while (cursor.moveToNext());
-        }
-        return listOfConnections;
+    private static int toInteger(boolean value) {
+        return value ? TRUE : FALSE;
     }
 
     /**
-     * * Deleting single Alarm by id
+     * This method calls readAllAlarms by specifying the selection and the selection arguments
+     * It returns a list of all active alarms
      *
-     * @param id alarm to be deleted
-     * @return deleted Lines
+     * @return A list of all active Alarms
      */
-    public int deleteAlarm(int id) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        int deletedLines = db.delete(TABLE_ALARM, KEY_ID + " = ?",
-                new String[]{String.valueOf(id)});
-        return deletedLines;
+    public List<PreciseConnectivityAlarm> readAllActiveAlarms() {
+        return readAllAlarms(SELECTION_ACTIVE, null);
     }
 
     /**
@@ -383,43 +739,24 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      * @param alarmId       the alarm id to be updated
      * @param executionTime the executionTime value to be inserted
      * @param alarmDuration the alarmDuration value to be inserted
+     * @param nextFireAt    the absolute time in milliseconds at which the next job of the alarm fires
      * @return
      */
-    public int updateAlarm(int alarmId, long startTime, long executionTime, long alarmDuration) {
+    public int updateAlarm(int alarmId, long startTime, long executionTime, long alarmDuration, long nextFireAt) {
 
         //Get the writable DB
         SQLiteDatabase db = this.getWritableDatabase();
 
-        // Values to be updated EXECUTION_TIME_COLUMN,DURATION,UPDATETIME
+        // Values to be updated EXECUTION_TIME_COLUMN,DURATION,NEXT_FIRE_AT_COLUMN,UPDATETIME
         ContentValues values = new ContentValues();
         values.put(START_TIME_COLUMN, startTime);
         values.put(EXECUTION_TIME_COLUMN, executionTime);
         values.put(DURATION, alarmDuration);
+        values.put(NEXT_FIRE_AT_COLUMN, nextFireAt);
         values.put(UPDATETIME, System.currentTimeMillis());
 
         // updating the row
-        return db.update(TABLE_ALARM, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(alarmId)});
-    }
-
-    /**
-     * Update the JobId of the given alarm
-     *
-     * @param alarmId the alarm id to be updated
-     * @param jobId   the JobId value to be inserted
-     * @return
-     */
-    public int updateAlarmJob(int alarmId, int jobId) {
-
-        // Get the writable DB
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // Values to be updated: JobId
-        ContentValues values = new ContentValues();
-        values.put(JOBID, jobId);
-        values.put(UPDATETIME, System.currentTimeMillis());
-
-        // updating the row
+        mStatementCount.incrementAndGet();
         return db.update(TABLE_ALARM, values, KEY_ID + " = ?",
                 new String[]{String.valueOf(alarmId)});
     }
@@ -429,26 +766,10 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      *
      * @param alarmId            alarm concerned
      * @param selectedConnection The type of connection
-     * @param isActive           status of Connection  if true create the connection row else delete the row
+     * @param isActive           status of Connection  if true add the connection to the alarm else remove it
      */
     public void updateAlarmConnection(int alarmId, Connection selectedConnection, boolean isActive) {
-
-        // Get the writable DB
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        // Add the newly activated connection to the connections list of the alarm
-        if (isActive) {
-            createAlarmConnection(alarmId, selectedConnection);
-        }
-
-        // Delete the newly deactivated connection from the connections list of the alarm
-        else {
-            db.delete(TABLE_ALARM_CONNECTIONS, KEY_ALARM_ID + " = ? AND " + KEY_CONNECTION_ID + "= ?",
-                    new String[]{String.valueOf(alarmId), String.valueOf(selectedConnection.getValue())});
-        }
-
-        // Update the 'last updated time' of the alarm
-        alarmUpdated(alarmId);
+        updateAlarmMask(alarmId, CONNECTIONS_COLUMN, ConnectionSet.maskOf(selectedConnection), isActive);
     }
 
     /**
@@ -456,28 +777,32 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      *
      * @param alarmId     alarm concerned
      * @param selectedDay The Day
-     * @param isActive    status of the day  if true create the day row else delete the row
+     * @param isActive    status of the day  if true add the day to the alarm else remove it
      */
     public void updateAlarmDay(int alarmId, int selectedDay, boolean isActive) {
+        updateAlarmMask(alarmId, DAYS_COLUMN, DaySet.maskOf(selectedDay), isActive);
+    }
+
+    /**
+     * Sets or clears a bit of one of the bitmask columns of an alarm
+     * The 'last updated time' of the alarm is updated by the same statement
+     *
+     * @param alarmId  alarm concerned
+     * @param column   DAYS_COLUMN or CONNECTIONS_COLUMN
+     * @param bit      the bit of the day or connection
+     * @param isActive if true the bit is set, else it's cleared
+     */
+    private void updateAlarmMask(int alarmId, String column, int bit, boolean isActive) {
 
         // Get the writable DB
         SQLiteDatabase db = this.getWritableDatabase();
 
-        // Add the newly selected day to the days list of the alarm
-        if (isActive) {
-            createAlarmDay(alarmId, selectedDay);
-        }
-
-        // Delete the newly unselected day from the days list of the alarm
-        else {
-            db.delete(TABLE_ALARM_DAYS, KEY_ALARM_ID + " = ? AND " + KEY_DAY_ID + "= ?",
-                    new String[]{String.valueOf(alarmId), String.valueOf(selectedDay)});
-
-        }
-
-        // Update the 'last updated time' of the alarm
-        alarmUpdated(alarmId);
-
+        String newMask = isActive ? column + " | ?" : column + " & ~?";
+        mStatementCount.incrementAndGet();
+        db.execSQL("UPDATE " + TABLE_ALARM
+                        + " SET " + column + " = " + newMask + ", " + UPDATETIME + " = ?"
+                        + " WHERE " + KEY_ID + " = ?",
+                new Object[]{bit, System.currentTimeMillis(), alarmId});
     }
 
     /**
@@ -487,45 +812,26 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      */
     public PreciseConnectivityAlarm readNextAlarm() {
 
-        SQLiteDatabase db = this.getWritableDatabase();
-
         /**
          * The next alarm should be the one that's active and going to be launched the soonest
-         * The exact execution time is calculated using "lastUpdateTime + executionTime"
+         * The exact execution time is stored in NEXT_FIRE_AT_COLUMN
          * The result is to be ordered in an ascending order, so that the first element would
          * be the soonest alarm to be launched
          *
          * The sql query would look like smth like this
-         * select KEY_ID, CURRENTSTATE, START_TIME_COLUMN, EXECUTION_TIME_COLUMN, DURATION, JOBID, UPDATETIME, (UPDATETIME + EXECUTION_TIME_COLUMN)  AS EXACT_EXECUTION_TIME
+         * select *
          * from TABLE_ALARM
-         * where ISACTIVE_COLUMN = “true”
-         * order by EXACT_EXECUTION_TIME ASC
+         * where ISACTIVE_COLUMN = 1
+         * order by NEXT_FIRE_AT_COLUMN ASC
+         * limit 1
+         * Both the where and the order by clauses are served by INDEX_ALARM_NEXT_FIRE_AT
          */
-        Cursor cursor = db.rawQuery("SELECT " + KEY_ID + ", " + ISACTIVE_COLUMN + ", " + START_TIME_COLUMN + ", " + CURRENTSTATE + ", " + START_TIME_COLUMN + ", " +
-                        EXECUTION_TIME_COLUMN + ", " + DURATION + ", " + JOBID + ", " + UPDATETIME + ", " + CURRENTSTATE + ", (" + UPDATETIME + " + " +
-                        EXECUTION_TIME_COLUMN + ") AS EXACT_EXECUTION_TIME" +
-                        " FROM " + TABLE_ALARM +
-                        " WHERE " + ISACTIVE_COLUMN + "=?" +
-                        " ORDER BY EXACT_EXECUTION_TIME ASC",
-                new String[]{"true"});
-
-        if (cursor.getCount() > 0) {
-            cursor.moveToFirst();
-            return getConnectivityAlarmFromCursor(cursor);
-        }
+        List<PreciseConnectivityAlarm> alarms = queryAlarms(SELECTION_ACTIVE,
+                null,
+                NEXT_FIRE_AT_COLUMN + " " + ASC,
+                "1");
 
-        return null;
-    }
-
-    /**
-     * This function return the alarm by the provided jobid
-     * actually the job id provider should brovide a unique id for an alarm
-     *
-     * @param jobId each alarm is associated to a job  to be runned in the background
-     * @return the alarm
-     */
-    public PreciseConnectivityAlarm getAlarmByJobId(int jobId) {
-        return getAlarmById(jobId, "SELECT * FROM " + TABLE_ALARM + " WHERE " + JOBID + "=? ");
+        return alarms.isEmpty() ? null : alarms.get(0);
     }
 
     /**
@@ -535,72 +841,11 @@ public class AlarmSqlHelper extends SQLiteOpenHelper {
      * @param id each alarm is associated to an id
      */
     public PreciseConnectivityAlarm getAlarmById(int id) {
-        return getAlarmById(id, "SELECT * FROM " + TABLE_ALARM + " WHERE " + KEY_ID + "=? ");
-    }
-
-    /**
-     * A helper for retrieving a row by the specific id
-     * This function is used in both getAlarmByJobId and getAlarmById
-     *
-     * @param id
-     * @param Query
-     * @return
-     */
-    private PreciseConnectivityAlarm getAlarmById(int id, String Query) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        Cursor cursor = db.rawQuery(Query,
-                new String[]{String.valueOf(id)});
-
-        if (cursor.getCount() > 0) {
-            cursor.moveToFirst();
-            return getConnectivityAlarmFromCursor(cursor);
-        }
-
-        return null;
-    }
-
-    /**
-     * Method called when an alarm is updated
-     * It sets the 'updateTime' of the alarm to the current System time
-     *
-     * @param alarmId alarm id to notice
-     * @return number of rows updated
-     */
-    private int alarmUpdated(int alarmId) {
-
-        //Get the writable DB
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        //update the update column each time we update the alarm
-        ContentValues values = new ContentValues();
-        values.put(UPDATETIME, System.currentTimeMillis());
-
-
-        // updating the row
-        return db.update(TABLE_ALARM, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(alarmId)});
-    }
-
-    /**
-     * This method update the current state of the alarm
-     *
-     * @param alarmId  alarm concerned
-     * @param isActive the state of current Connection whether true(ON) or false(OFF)
-     * @return the number of rows affected normally 1 or 0
-     */
-    public int updateAlarmCurrentState(int alarmId, boolean isActive) {
-
-        // Get the writable DB
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put(ISACTIVE_COLUMN, String.valueOf(isActive));
-        values.put(CURRENTSTATE, String.valueOf(isActive));
-        values.put(UPDATETIME, System.currentTimeMillis());
+        List<PreciseConnectivityAlarm> alarms = queryAlarms(KEY_ID + " = ?",
+                new String[]{String.valueOf(id)},
+                null,
+                "1");
 
-        // updating the row
-        return db.update(TABLE_ALARM, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(alarmId)});
+        return alarms.isEmpty() ? null : alarms.get(0);
     }
 }
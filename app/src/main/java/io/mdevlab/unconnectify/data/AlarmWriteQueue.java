@@ -0,0 +1,177 @@
+package io.mdevlab.unconnectify.data;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Single background thread on which the alarm writes of AlarmRepository are done
+ * Writes aren't done right away, the patch of an alarm (or its deletion) is queued and the
+ * changes are flushed a short moment later. The patches queued for the same alarm are merged,
+ * so several quick edits of the same alarm end up as one statement. All the writes of a flush
+ * are done in one transaction
+ * <p>
+ * Tasks that have to follow the writes of an alarm (like rescheduling its job) can be queued
+ * as well, they're run on the same thread right after the flush. Only the last task queued for
+ * an alarm is kept
+ * <p>
+ * Created by mdevlab on 3/16/17.
+ */
+
+class AlarmWriteQueue {
+
+    // Time during which the changes are gathered before being written
+    private static final long COALESCE_DELAY_MS = 150;
+
+    private final AlarmSqlHelper mAlarmSqlHelper;
+    private final Handler mHandler;
+
+    // Pending patch of each changed alarm, guarded by this
+    private SparseArray<AlarmPatch> mPendingPatches = new SparseArray<>();
+
+    // Pending deletions, guarded by this
+    private SparseBooleanArray mPendingDeletes = new SparseBooleanArray();
+
+    // Task to run after the writes of each alarm, guarded by this
+    private SparseArray<Runnable> mPendingTasks = new SparseArray<>();
+
+    // Whether a flush is already posted, guarded by this
+    private boolean mFlushPosted = false;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingWrites();
+        }
+    };
+
+    AlarmWriteQueue(AlarmSqlHelper alarmSqlHelper) {
+        mAlarmSqlHelper = alarmSqlHelper;
+
+        HandlerThread thread = new HandlerThread(AlarmWriteQueue.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Method that queues the patch of an alarm, it's merged with the patch already waiting
+     * for the same alarm if there's one
+     * The queue takes ownership of the patch, it mustn't be changed once queued
+     *
+     * @param alarmId: Id of the changed alarm
+     * @param patch:   The changes of the alarm
+     */
+    synchronized void enqueuePatch(int alarmId, AlarmPatch patch) {
+
+        // An alarm waiting to be deleted isn't written anymore
+        if (mPendingDeletes.get(alarmId))
+            return;
+
+        AlarmPatch pendingPatch = mPendingPatches.get(alarmId);
+        if (pendingPatch == null)
+            mPendingPatches.put(alarmId, patch);
+        else
+            pendingPatch.merge(patch);
+        postFlush(COALESCE_DELAY_MS);
+    }
+
+    /**
+     * Method that marks an alarm as deleted, its row will be deleted by the next flush
+     *
+     * @param alarmId: Id of the deleted alarm
+     */
+    synchronized void enqueueDelete(int alarmId) {
+        mPendingPatches.remove(alarmId);
+        mPendingDeletes.put(alarmId, true);
+        postFlush(COALESCE_DELAY_MS);
+    }
+
+    /**
+     * Method that queues a task to run once the pending writes are done
+     * The task replaces any task still waiting for the same alarm
+     *
+     * @param alarmId: Id of the alarm the task is about
+     * @param task:    The task
+     */
+    synchronized void enqueueTask(int alarmId, Runnable task) {
+        mPendingTasks.put(alarmId, task);
+        postFlush(COALESCE_DELAY_MS);
+    }
+
+    /**
+     * Method that writes the pending changes as soon as possible, without waiting for them
+     */
+    synchronized void flush() {
+        mHandler.removeCallbacks(mFlush);
+        mFlushPosted = false;
+        postFlush(0);
+    }
+
+    /**
+     * Method that writes the pending changes and waits until they're written
+     * It mustn't be called from the main thread
+     */
+    void flushAndWait() {
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            flushPendingWrites();
+            return;
+        }
+
+        flush();
+
+        // The handler runs its messages in order, so the latch is released after the flush
+        final CountDownLatch flushed = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushed.countDown();
+            }
+        });
+        try {
+            flushed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void postFlush(long delay) {
+        if (!mFlushPosted) {
+            mFlushPosted = true;
+            mHandler.postDelayed(mFlush, delay);
+        }
+    }
+
+    /**
+     * Method that writes the pending changes in one transaction, then runs the pending tasks
+     * Called on the thread of the queue
+     */
+    private void flushPendingWrites() {
+        SparseArray<AlarmPatch> patches;
+        SparseBooleanArray deletes;
+        SparseArray<Runnable> tasks;
+        synchronized (this) {
+            patches = mPendingPatches;
+            deletes = mPendingDeletes;
+            tasks = mPendingTasks;
+            mPendingPatches = new SparseArray<>();
+            mPendingDeletes = new SparseBooleanArray();
+            mPendingTasks = new SparseArray<>();
+            mFlushPosted = false;
+        }
+
+        int[] deletedAlarmIds = new int[deletes.size()];
+        for (int i = 0; i < deletes.size(); i++)
+            deletedAlarmIds[i] = deletes.keyAt(i);
+
+        if (patches.size() > 0 || deletedAlarmIds.length > 0)
+            mAlarmSqlHelper.applyPatches(patches, deletedAlarmIds);
+
+        for (int i = 0; i < tasks.size(); i++)
+            tasks.valueAt(i).run();
+    }
+}
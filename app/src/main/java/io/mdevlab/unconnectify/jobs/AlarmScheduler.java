@@ -0,0 +1,337 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.evernote.android.job.JobManager;
+import com.evernote.android.job.JobRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.App;
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.data.AlarmRepository;
+import io.mdevlab.unconnectify.schedule.NormalizedSchedule;
+import io.mdevlab.unconnectify.schedule.WeekTime;
+import io.mdevlab.unconnectify.utils.Constants;
+import jonathanfinerty.once.Once;
+
+/**
+ * Class that keeps one single exact job for all the alarms
+ * The job is armed for the earliest transition among the active alarms that changes the state
+ * of a connection, so however many alarms there are, only one exact job is pending. When it
+ * fires, every alarm whose transition is due runs, then the job is armed again for the next
+ * transition
+ * <p>
+ * The transitions that change the state of a connection are the edges of the windows of the
+ * normalized schedule (see ScheduleNormalizer). The transition of an alarm inside a window,
+ * like the end of 22:00-07:00 while 23:00-08:00 is running, doesn't launch the job, the alarm
+ * catches up the next time the job runs for it
+ * The earliest transition is found by a binary search in the sorted transitions of the
+ * normalized schedule, the alarms aren't gone through to arm the job
+ * <p>
+ * The edits of the alarms don't rearm the job one by one, they mark the schedule changed and
+ * the job is rearmed once, when the edits have settled or when the user leaves the screen
+ * The job is only scheduled or cancelled when the earliest transition changes, an edit that
+ * leaves it as it is (toggling a day of the week after the next one for instance) doesn't
+ * call the JobManager. The fire time of the pending job is read back from the JobManager once
+ * per process, so a new process doesn't schedule the same job again
+ * <p>
+ * The job carries a snapshot of its due alarms (see JobSnapshot), so it's armed again as well
+ * when the fire time is the same but the snapshot changed
+ * <p>
+ * The transition of an alarm is described by the alarm itself:
+ * - Its next fire time says when it runs
+ * - Its current state says whether it enables (true) or disables (false) its connections
+ * <p>
+ * Created by mdevlab on 3/19/17.
+ */
+
+public class AlarmScheduler {
+
+    private static final String TAG = AlarmScheduler.class.getSimpleName();
+
+    // Time without edit of the alarms after which the job is rearmed
+    private static final long SETTLE_DELAY_MS = 1000;
+
+    // Key of the rearm among the tasks run after the writes of the alarms, alarm ids start at 1
+    private static final int RESCHEDULE_TASK_ID = -1;
+
+    // Transitions due within this margin of the job run with it, the job can be a little early
+    static final long DUE_MARGIN_MS = 1000;
+
+    // Tags of the jobs of the previous versions, which had one job per alarm
+    private static final String[] LEGACY_TAGS = {Constants.WIFI_TAG, Constants.HOTSPOT_TAG, Constants.BLUETOOTH_TAG};
+
+    private static AlarmScheduler instance = null;
+
+    private final Context mContext;
+
+    private final AlarmRepository mAlarmRepository;
+
+    // Gives the state of the radios desired at the fire time, for the snapshot of the job
+    private final RadioReconciler mRadioReconciler;
+
+    // Changes of the pending job, see getJobChange
+    @VisibleForTesting
+    static final int KEEP_JOB = 0;
+    @VisibleForTesting
+    static final int ARM_JOB = 1;
+    @VisibleForTesting
+    static final int CANCEL_JOB = 2;
+
+    // Fire time of the pending job not read from the JobManager yet
+    private static final long ARMED_FIRE_AT_UNKNOWN = -1;
+
+    // Fire time the pending job is armed for, 0 if there's no pending job
+    private long mArmedFireAt = ARMED_FIRE_AT_UNKNOWN;
+
+    // Version of the snapshot of the pending job
+    private int mArmedVersion = 0;
+
+    // Normalized schedule whose report was last logged
+    private NormalizedSchedule mReportedSchedule = null;
+
+    // Gathers the edits of the alarms into one rearm of the job
+    private final RescheduleDebouncer mDebouncer;
+
+    // Calls to the JobManager
+    private final JobCalls mJobCalls;
+
+    /**
+     * Calls of the scheduler to the JobManager, the tests count them through their own implementation
+     */
+    @VisibleForTesting
+    interface JobCalls {
+
+        Set<JobRequest> getAllJobRequestsForTag(String tag);
+
+        void schedule(JobSnapshot snapshot);
+
+        void cancelAllForTag(String tag);
+    }
+
+    // Calls to the JobManager of the application
+    private static final JobCalls JOB_MANAGER_CALLS = new JobCalls() {
+        @Override
+        public Set<JobRequest> getAllJobRequestsForTag(String tag) {
+            return JobManager.instance().getAllJobRequestsForTag(tag);
+        }
+
+        @Override
+        public void schedule(JobSnapshot snapshot) {
+            ConnectivityJobManager.buildJobRequest(snapshot);
+        }
+
+        @Override
+        public void cancelAllForTag(String tag) {
+            JobManager.instance().cancelAllForTag(tag);
+        }
+    };
+
+    private final Runnable mRescheduleTask = new Runnable() {
+        @Override
+        public void run() {
+            reschedule();
+        }
+    };
+
+    private AlarmScheduler(Context context) {
+        this(context, AlarmRepository.getInstance(context), JOB_MANAGER_CALLS);
+    }
+
+    /**
+     * @param context
+     * @param alarmRepository: Repository of the alarms the job is armed for
+     * @param jobCalls:        Calls to the JobManager
+     */
+    @VisibleForTesting
+    AlarmScheduler(Context context, AlarmRepository alarmRepository, JobCalls jobCalls) {
+        mContext = context;
+        mAlarmRepository = alarmRepository;
+        mJobCalls = jobCalls;
+        mRadioReconciler = new RadioReconciler(context, alarmRepository);
+        mDebouncer = new RescheduleDebouncer(new Handler(Looper.getMainLooper()), SETTLE_DELAY_MS, new Runnable() {
+            @Override
+            public void run() {
+                // The job is rearmed in the background, once the changes of the alarms are written
+                mAlarmRepository.runAfterWrites(RESCHEDULE_TASK_ID, mRescheduleTask);
+                mAlarmRepository.flush();
+            }
+        });
+    }
+
+    public static synchronized AlarmScheduler getInstance(Context context) {
+        if (instance == null)
+            instance = new AlarmScheduler(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Method called after an edit of the alarms, the job is rearmed once the edits have settled
+     */
+    public void scheduleChanged() {
+        mDebouncer.markDirty();
+    }
+
+    /**
+     * Method that rearms the job right away if the alarms were edited since it was last armed,
+     * it's called when the user leaves the screen
+     */
+    public void flushScheduleChanges() {
+        mDebouncer.flush();
+    }
+
+    /**
+     * Method that arms the job for the earliest transition changing the state of a connection
+     * The job is only scheduled again if that time changed, and it's cancelled if there
+     * isn't any transition anymore
+     */
+    public synchronized void reschedule() {
+        cancelLegacyJobs();
+        if (mArmedFireAt == ARMED_FIRE_AT_UNKNOWN)
+            readPendingJob();
+
+        long nextFireAt = readNextTransition();
+        JobSnapshot snapshot = nextFireAt > 0 ? takeSnapshot(nextFireAt) : null;
+
+        switch (getJobChange(mArmedFireAt, mArmedVersion, nextFireAt, snapshot != null ? snapshot.version : 0)) {
+            case ARM_JOB:
+                mJobCalls.schedule(snapshot);
+                mArmedFireAt = nextFireAt;
+                mArmedVersion = snapshot.version;
+                break;
+            case CANCEL_JOB:
+                mJobCalls.cancelAllForTag(Constants.SCHEDULER_TAG);
+                mArmedFireAt = 0;
+                mArmedVersion = 0;
+                break;
+        }
+    }
+
+    /**
+     * Method that compares the earliest transition with the one the pending job is armed for
+     *
+     * @param armedFireAt:  Fire time of the pending job, 0 if there's none
+     * @param armedVersion: Version of the snapshot of the pending job
+     * @param nextFireAt:   Fire time of the earliest transition, 0 if there's none
+     * @param nextVersion:  Version of the snapshot of the earliest transition
+     * @return: KEEP_JOB if the pending job is left alone, ARM_JOB if it's scheduled
+     * for nextFireAt (replacing the pending one), CANCEL_JOB if it's cancelled
+     */
+    @VisibleForTesting
+    static int getJobChange(long armedFireAt, int armedVersion, long nextFireAt, int nextVersion) {
+        if (nextFireAt <= 0)
+            return armedFireAt != 0 ? CANCEL_JOB : KEEP_JOB;
+        return nextFireAt != armedFireAt || nextVersion != armedVersion ? ARM_JOB : KEEP_JOB;
+    }
+
+    /**
+     * Method that reads the fire time and the snapshot version of the pending job, scheduled
+     * by this process or a former one
+     * The fire time is 0 if there's no pending job, and stays ARMED_FIRE_AT_UNKNOWN if it can't
+     * be told (a job of an older version, or several jobs) in which case the job is armed again
+     */
+    private void readPendingJob() {
+        mArmedVersion = 0;
+        Set<JobRequest> requests = mJobCalls.getAllJobRequestsForTag(Constants.SCHEDULER_TAG);
+        if (requests == null || requests.isEmpty()) {
+            mArmedFireAt = 0;
+            return;
+        }
+
+        JobSnapshot snapshot = requests.size() == 1 ? JobSnapshot.readFrom(requests.iterator().next().getExtras()) : null;
+        if (snapshot == null) {
+            mArmedFireAt = ARMED_FIRE_AT_UNKNOWN;
+            return;
+        }
+        mArmedFireAt = snapshot.fireAt;
+        mArmedVersion = snapshot.version;
+    }
+
+    /**
+     * Method that takes the snapshot of the alarms due at a fire time, for the extras of the job
+     *
+     * @param fireAt: The fire time
+     * @return: The snapshot
+     */
+    private JobSnapshot takeSnapshot(long fireAt) {
+        List<PreciseConnectivityAlarm> dueAlarms = getDueAlarms(fireAt);
+        RadioReconciler.DesiredState desiredState = mRadioReconciler.getDesiredState(dueAlarms, fireAt);
+
+        // The desired state holds until the next transition of the normalized schedule
+        TimeZone zone = TimeZone.getDefault();
+        int minutes = mAlarmRepository.getNormalizedSchedule(zone)
+                .getMinutesToNextTransition(WeekTime.minuteOfWeek(fireAt, zone));
+        long windowEnd = minutes == -1 ? Long.MAX_VALUE : fireAt + minutes * WeekTime.MILLIS_PER_MINUTE;
+
+        return JobSnapshot.take(fireAt, windowEnd, dueAlarms, desiredState);
+    }
+
+    /**
+     * Method that returns the time of the earliest transition of the normalized schedule, looked
+     * up in its sorted transitions rather than by going through the active alarms
+     * The transitions due within the margin of a job that has just run are left out, but not the
+     * one of a pending job that hasn't fired yet, even if its time has passed
+     *
+     * @return: The time of the transition, 0 if there's no transition to come
+     */
+    private long readNextTransition() {
+        TimeZone zone = TimeZone.getDefault();
+        NormalizedSchedule schedule = mAlarmRepository.getNormalizedSchedule(zone);
+        if (schedule != mReportedSchedule) {
+            Log.i(TAG, schedule.getReport());
+            mReportedSchedule = schedule;
+        }
+
+        // The transitions are whole minutes, the one of the pending job is after the minute before it
+        long from = System.currentTimeMillis() + DUE_MARGIN_MS;
+        if (mArmedFireAt > 0)
+            from = Math.min(from, mArmedFireAt - WeekTime.MILLIS_PER_MINUTE);
+
+        long nextFireAt = schedule.getNextTransitionTime(from, zone);
+        return nextFireAt > 0 ? nextFireAt : 0;
+    }
+
+    /**
+     * Method called when the job fires, the job has to be armed again once the due
+     * transitions have run
+     */
+    synchronized void onJobFired() {
+        mArmedFireAt = 0;
+        mArmedVersion = 0;
+    }
+
+    /**
+     * @param now: Current time in milliseconds
+     * @return: The active alarms whose transition is due
+     */
+    List<PreciseConnectivityAlarm> getDueAlarms(long now) {
+        List<PreciseConnectivityAlarm> dueAlarms = new ArrayList<>();
+        for (PreciseConnectivityAlarm alarm : mAlarmRepository.readAllActiveAlarms()) {
+            if (alarm.getNextFireAt() > 0 && alarm.getNextFireAt() <= now + DUE_MARGIN_MS)
+                dueAlarms.add(alarm);
+        }
+        return dueAlarms;
+    }
+
+    /**
+     * Method that cancels, once per install, the jobs scheduled by the previous versions
+     * The transitions they stood for are run by the single job
+     */
+    private void cancelLegacyJobs() {
+        App.initialiseOnce(mContext);
+        if (Once.beenDone(Once.THIS_APP_INSTALL, Constants.LEGACY_JOBS_CANCELLED))
+            return;
+
+        for (String tag : LEGACY_TAGS)
+            mJobCalls.cancelAllForTag(tag);
+        Once.markDone(Constants.LEGACY_JOBS_CANCELLED);
+    }
+}
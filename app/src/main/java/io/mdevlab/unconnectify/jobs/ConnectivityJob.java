@@ -1,73 +1,77 @@
 package io.mdevlab.unconnectify.jobs;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
 
 import com.evernote.android.job.Job;
 
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.TimeZone;
 
+import io.mdevlab.unconnectify.App;
 import io.mdevlab.unconnectify.alarm.AlarmManager;
 import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
-import io.mdevlab.unconnectify.connectivitymodels.Bluetooth;
-import io.mdevlab.unconnectify.connectivitymodels.Connectivity;
-import io.mdevlab.unconnectify.connectivitymodels.ConnectivityFactory;
-import io.mdevlab.unconnectify.connectivitymodels.Hotspot;
-import io.mdevlab.unconnectify.connectivitymodels.Wifi;
-import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.data.AlarmPatch;
+import io.mdevlab.unconnectify.data.AlarmRepository;
 import io.mdevlab.unconnectify.utils.AlarmUtils;
-import io.mdevlab.unconnectify.utils.Connection;
-import io.mdevlab.unconnectify.utils.Constants;
-import io.mdevlab.unconnectify.utils.DateUtils;
-
-import static io.mdevlab.unconnectify.utils.AlarmUtils.getConnectionFromString;
 
 /**
+ * Single job of the alarms, armed by AlarmScheduler for the earliest transition
+ * When it runs, it runs the transitions of every alarm that is due, then the scheduler
+ * arms it again for the next transition
+ * The transitions enable or disable the connections of the alarms at once, each radio being
+ * toggled at most once, so an edge of an alarm costs one job launch, one write of the alarm
+ * and one rearm of the job
+ * The radios are toggled from the snapshot carried by the job (see JobSnapshot), the alarms
+ * are only read and written afterwards
+ * <p>
  * Created by mdevlab on 2/10/17.
  */
 
 public class ConnectivityJob extends Job {
 
-    private Context mContext;
+    private static final String TAG = ConnectivityJob.class.getSimpleName();
 
-    // Tag of the connection the current job is handling
-    private String mTag;
+    // Whether a job already ran in this process, only the first one measures the cold start
+    private static boolean sJobRan = false;
 
-    // Alarm sql helper object, used for database calls
-    private AlarmSqlHelper mAlarmSqlHelper;
+    private Context mContext;
 
-    // Current alarm to which the current job is assigned
-    private PreciseConnectivityAlarm mCurrentAlarm;
+    // Alarm repository, used to read and update the alarms
+    private AlarmRepository mAlarmRepository;
 
-    /**
-     * Boolean that determines whether to switch from enabling connections
-     * to disabling them, or vise versa
-     */
-    private boolean switchActivationState;
+    // Scheduler of the job, holding the transitions of the alarms
+    private AlarmScheduler mAlarmScheduler;
+
+    // Decides the state of the radios from all the active alarms
+    private RadioReconciler mRadioReconciler;
 
     /**
-     * Constructor that initializes the context, tag and sql helper
+     * Constructor that initializes the context, alarm repository, scheduler and radio reconciler
      *
      * @param context
-     * @param tag:    String indicating the type of connectivity
      */
-    public ConnectivityJob(Context context, String tag) {
+    public ConnectivityJob(Context context) {
         this.mContext = context;
-        mAlarmSqlHelper = new AlarmSqlHelper(mContext);
-        this.mTag = tag;
+        mAlarmRepository = AlarmRepository.getInstance(mContext);
+        mAlarmScheduler = AlarmScheduler.getInstance(mContext);
+        mRadioReconciler = new RadioReconciler(mContext);
     }
 
     /**
      * Method called right after this class is instantiated
-     * It basically does 3 things:
-     * - Runs the current job (handling the current connection tag
-     * defined in the global variable 'mTag')
-     * - Updates the alarm execution time. When a job is being set to run,
-     * the execution time of the alarm to which it is associated is used. so after
-     * the job is ran it's only natural to update it and set the execution time of the
-     * following job
-     * - Prepare the launch of the next job
+     * It basically does 2 things for the alarms whose transition is due:
+     * - Brings the radios to the state desired by all the active alarms, toggling only
+     * the ones whose state differs (see RadioReconciler). The desired state is first taken
+     * from the snapshot in the extras of the job, so the radios are toggled before the alarms
+     * are read, then checked against the alarms once they're read. If an alarm was edited
+     * since the snapshot was taken, the toggles the alarms don't want anymore are undone
+     * - Updates every due alarm in one patch: the execution time of its next transition, and
+     * whether that transition enables or disables the connections
+     * Then the changes are saved, and the job is armed again for the earliest transition
      *
      * @param params
      * @return
@@ -75,20 +79,41 @@ public class ConnectivityJob extends Job {
     @Override
     @NonNull
     protected Result onRunJob(Params params) {
+        long now = System.currentTimeMillis();
+        mAlarmScheduler.onJobFired();
+
+        // Toggle the radios from the snapshot carried by the job, before reading any alarm
+        int snapshotToggles = 0;
+        JobSnapshot snapshot = JobSnapshot.readFrom(params.getExtras());
+        if (snapshot != null && snapshot.holdsAt(now)) {
+            snapshotToggles = mRadioReconciler.apply(snapshot.desiredState);
+            traceToggle(now, snapshot.fireAt);
+        } else
+            snapshot = null;
+
+        List<PreciseConnectivityAlarm> dueAlarms = mAlarmScheduler.getDueAlarms(now);
+
+        // Run the transitions of all the due alarms at once, unless the snapshot already did
+        RadioReconciler.DesiredState desiredState = mRadioReconciler.getDesiredState(dueAlarms, now);
+        if (snapshot == null) {
+            mRadioReconciler.apply(desiredState);
+            traceToggle(now, getEarliestFireAt(dueAlarms, now));
+        }
 
-        // Set the alarm to which the current job is assigned
-        mCurrentAlarm = mAlarmSqlHelper.getAlarmByJobId(params.getId());
-
-        boolean activate = params.getExtras().getBoolean(Constants.ACTIVATE_TAG, false);
+        // The snapshot was taken before an edit of the alarms, the toggles the alarms don't confirm are undone
+        else if (JobSnapshot.versionOf(dueAlarms, desiredState) != snapshot.version)
+            mRadioReconciler.apply(RadioReconciler.correct(snapshot.desiredState, snapshotToggles, desiredState));
 
-        // Run the current job
-        runCurrentJob(activate);
+        // Set the next transition of every due alarm, the current state of the alarm tells
+        // whether the transition that has just run enabled the connections
+        for (PreciseConnectivityAlarm dueAlarm : dueAlarms)
+            mAlarmRepository.patchAlarm(dueAlarm.getAlarmId(), buildNextTransitionPatch(dueAlarm, dueAlarm.getCurrentState()));
 
-        // Update the execution time of the next job
-        updateAlarmExecutionTime(activate);
+        // The changes of the alarms are written in the background, the job only ends once they're saved
+        mAlarmRepository.flushAndWait();
 
-        // Run the next job
-        prepareNextJob(activate);
+        // Arm the job for the next transition
+        mAlarmScheduler.reschedule();
 
         // Update notification for next alarm
         updateNextAlarmNotification();
@@ -97,169 +122,90 @@ public class ConnectivityJob extends Job {
     }
 
     /**
-     * Method that runs a single job
-     * This job either enables or disables one of the connectivity options
+     * Method that reports how long the radios took to be toggled: from the fire time of the job,
+     * and for the first job of the process, from the start of the process
      *
-     * @param enableConnectivity: Boolean indicating whether to enable or disable the connectivity
+     * @param now:    Time at which the job started running
+     * @param fireAt: Fire time of the job
      */
-    private void runCurrentJob(boolean enableConnectivity) {
-        // Connectivity base object, can be wifi, hotspot or bluetooth
-        Connectivity connectivity = ConnectivityFactory.getConnectivity(AlarmUtils.getConnectionFromString(mTag), mContext);
-
-        // check whether for the current connection, the alarm is in conflict with another alarm
-        int conflictAlarmId = AlarmManager.getInstance(mContext).handleAlarmConflicts(mCurrentAlarm, AlarmUtils.getConnectionFromString(mTag));
-
-        /**
-         * If the id is equal to -1, it means there wasn't any conflict
-         * And so the current alarm's job goes on
-         */
-        if (conflictAlarmId == -1) {
-            executeCurrentJob(connectivity, enableConnectivity);
+    private static void traceToggle(long now, long fireAt) {
+        long fireToToggle = System.currentTimeMillis() - Math.min(now, fireAt);
+        if (sJobRan) {
+            Log.i(TAG, "Radios toggled " + fireToToggle + " ms after the fire time");
+            return;
         }
-
-        /**
-         * If the id isn't equal to -1, it means there is a conflict
-         * In this case we execute the latest one
-         */
-        else {
-            PreciseConnectivityAlarm conflictAlarm = mAlarmSqlHelper.getAlarmById(conflictAlarmId);
-            if (conflictAlarm.getLastUpdate() < mCurrentAlarm.getLastUpdate())
-                executeCurrentJob(connectivity, enableConnectivity);
-        }
-    }
-
-    private void executeCurrentJob(Connectivity connectivity, boolean enableConnectivity) {
-        // If it's wifi, enable/disable wifi
-        if (connectivity instanceof Wifi)
-            enableWifi(enableConnectivity);
-
-            // If it's hotspot, enable/disable hotspot
-        else if (connectivity instanceof Hotspot)
-            enableHotspot(enableConnectivity);
-
-            // If it's bluetooth, enable/disable bluetooth
-        else if (connectivity instanceof Bluetooth)
-            enableBluetooth(enableConnectivity);
-    }
-
-    /**
-     * Method that enables/disables wifi depending on the boolean variable passed on to it
-     *
-     * @param activateWifi
-     */
-    private void enableWifi(boolean activateWifi) {
-        if (activateWifi)
-            Wifi.getInstance(mContext).enable();
-        else
-            Wifi.getInstance(mContext).disable();
-    }
-
-    /**
-     * Method that enables/disables hotspot depending on the boolean variable passed on to it
-     *
-     * @param activateHotspot
-     */
-    private void enableHotspot(boolean activateHotspot) {
-        if (activateHotspot)
-            Hotspot.getInstance(mContext).enable();
-        else
-            Hotspot.getInstance(mContext).disable();
+        sJobRan = true;
+        long startToToggle = SystemClock.elapsedRealtime() - App.getProcessStartElapsed();
+        Log.i(TAG, "Radios toggled " + fireToToggle + " ms after the fire time, "
+                + startToToggle + " ms after the start of the process");
     }
 
     /**
-     * Method that enables/disables bluetooth depending on the boolean variable passed on to it
-     *
-     * @param activateBluetooth
+     * @param dueAlarms: The alarms whose transition is due
+     * @param now:       Time at which the job started running
+     * @return: The earliest fire time of the due alarms, now if none has one
      */
-    private void enableBluetooth(boolean activateBluetooth) {
-        if (activateBluetooth)
-            Bluetooth.getInstance().enable();
-        else
-            Bluetooth.getInstance().disable();
+    private static long getEarliestFireAt(List<PreciseConnectivityAlarm> dueAlarms, long now) {
+        long fireAt = now;
+        for (PreciseConnectivityAlarm alarm : dueAlarms) {
+            if (alarm.getNextFireAt() > 0)
+                fireAt = Math.min(fireAt, alarm.getNextFireAt());
+        }
+        return fireAt;
     }
 
     /**
-     * Method that updates the execution time of an alarm
-     * When a job is launched, it takes the execution time from the alarm
-     * object it's assigned to.
+     * Method that builds the changes setting the next transition of an alarm
      * The execution time represents the number of milliseconds left until the
-     * job is ran.
-     * Its minimum value is 1.
-     * This method first checks the latest handled connectivity:
-     * -- If it's the last connectivity to handle, The duration of the alarm is checked.
-     * ------ If it's equal to 1, then we know that the alarm doesn't have an ending time,
+     * next transition is ran.
+     * The duration of the alarm is checked:
+     * -- If it's equal to 1, then we know that the alarm doesn't have an ending time,
      * it was meant to only disable the connections at a certain time. So We set the next
-     * job to the next day in the chain of the alarm.
-     * ------ If the duration isn't equal to 1, we set the next execution time to when the
-     * alarm should re-enable the connections.
-     * -- If it isn't the last one in the chain, another connection will need to be handled
-     * by this job right away, so the execution time is set to 1
+     * transition to the next day of the alarm, and it disables the connections again.
+     * -- If the duration isn't equal to 1, the next transition does the opposite of this one:
+     * after disabling the connections, it re-enables them at the end time of the alarm, after
+     * re-enabling them, it disables them on the next day of the alarm
+     * The job isn't armed for the transitions that don't change the state of any connection,
+     * so the transitions that went by since are skipped until the next one is in the future
+     *
+     * @param alarm:    The alarm whose transition has just run
+     * @param activate: Whether the transition that has just run enabled the connections
+     * @return: The patch of the alarm
      */
-    private void updateAlarmExecutionTime(boolean activate) {
+    @VisibleForTesting
+    static AlarmPatch buildNextTransitionPatch(PreciseConnectivityAlarm alarm, boolean activate) {
+        long now = System.currentTimeMillis();
+        TimeZone zone = TimeZone.getDefault();
+
+        // The next transition follows the time the transition was due at, not the time the job ran at
+        long transitionTime = alarm.getNextFireAt() > 0 ? alarm.getNextFireAt() : now;
 
-        // Variable that's going to hold the value of the nex execution time
-        long newExecutionTime;
+        // Variable that's going to hold the time of the next transition
+        long nextFireAt;
 
-        if (isLastConnectivity(mTag)) {
-            long alarmDuration = mCurrentAlarm.getDuration();
+        // Whether the next transition enables the connections
+        boolean activateNext = activate;
 
+        // The transitions skipped by the normalized schedule (see AlarmScheduler) are in the past,
+        // they're gone through until the next transition is in the future
+        do {
             // If alarmDuration is equal to 1, the next launch of the alarm is set for another day
-            if (alarmDuration == 1) {
-                int numberOfDaysUntilNextAlarm = AlarmUtils.getNumberOfDaysUntilNextAlarm(mCurrentAlarm, true);
-                newExecutionTime = TimeUnit.DAYS.toMillis(numberOfDaysUntilNextAlarm);
-                switchActivationState = false;
+            if (alarm.getDuration() <= 1) {
+                nextFireAt = AlarmUtils.getNextStartTime(alarm, transitionTime, zone);
             } else {
-                switchActivationState = true;
-                if (activate)
-                    newExecutionTime = getTimeOfNextDayAlarm();
+                if (activateNext)
+                    nextFireAt = AlarmUtils.getNextStartTime(alarm, transitionTime, zone);
                 else
-                    newExecutionTime = mCurrentAlarm.getDuration();
+                    nextFireAt = transitionTime + alarm.getDuration();
+                activateNext = !activateNext;
             }
-        } else {
-            newExecutionTime = 1L;
-            switchActivationState = false;
-        }
+            transitionTime = nextFireAt;
+        } while (nextFireAt <= now);
 
-        mCurrentAlarm.setExecuteTimeInMils(newExecutionTime);
-        mAlarmSqlHelper.updateAlarm(mCurrentAlarm.getAlarmId(),
-                mCurrentAlarm.getStartTime(),
-                newExecutionTime,
-                mCurrentAlarm.getDuration());
-    }
-
-    /**
-     * Method that returns whether or not this connection is the last that will be
-     * handled by the job or not.
-     *
-     * @param connectionTag: Tag identifying the connection type
-     * @return: Whether or not the connection type is the last in the chain
-     * of connections to be handled by the alarm
-     */
-    private boolean isLastConnectivity(String connectionTag) {
-        return getConnectionFromString(connectionTag) == mCurrentAlarm.getLastConnection();
-    }
-
-    /**
-     * Method that prepares the next job
-     * It simply gets the next connection, determines whether to enable
-     * or disable it and then build the request for the new job
-     *
-     * @param activateNextConnection
-     */
-    private void prepareNextJob(boolean activateNextConnection) {
-
-        // Getting the tag for the next connection to be handled
-        String nextTag = getNextConnectivityTag(mTag);
-
-        // Determine whether to activate or deactivate connection
-        if (switchActivationState)
-            activateNextConnection = !activateNextConnection;
-
-        // Build request for new job
-        ConnectivityJobManager.buildJobRequest(mCurrentAlarm,
-                nextTag,
-                activateNextConnection,
-                mCurrentAlarm.getExecuteTimeInMils());
+        return new AlarmPatch()
+                .setExecutionTime(nextFireAt - now)
+                .setNextFireAt(nextFireAt)
+                .setCurrentState(activateNext);
     }
 
     /**
@@ -268,73 +214,4 @@ public class ConnectivityJob extends Job {
     private void updateNextAlarmNotification() {
         AlarmManager.getInstance(mContext).handleNotification();
     }
-
-    /**
-     * Method that returns the next connection the job should handle
-     *
-     * @param connectionTag: Tag of the connection that's just been handled
-     * @return: Next connection the alarm's job should handle
-     */
-    private String getNextConnectivityTag(String connectionTag) {
-
-        // List of the connections of the current alarm
-        List<Connection> currentAlarmConnections = mCurrentAlarm.getConnections();
-
-        /**
-         * For each connection, we check if the connection list of the alarm contains
-         * the connection that follows it, if it does we return that connection tag,
-         * if not we do a recursive call to this method giving it this time the tag
-         * of the following connectivity tag (that wasn't found in the connectivity list
-         * of the alarm)
-         */
-        switch (connectionTag) {
-
-            case Constants.WIFI_TAG:
-                if (currentAlarmConnections.contains(Connection.HOTSPOT))
-                    return Constants.HOTSPOT_TAG;
-                else
-                    return getNextConnectivityTag(Constants.HOTSPOT_TAG);
-
-            case Constants.HOTSPOT_TAG:
-                if (currentAlarmConnections.contains(Connection.BLUETOOTH))
-                    return Constants.BLUETOOTH_TAG;
-                else
-                    return getNextConnectivityTag(Constants.BLUETOOTH_TAG);
-
-            case Constants.BLUETOOTH_TAG:
-                if (currentAlarmConnections.contains(Connection.WIFI))
-                    return Constants.WIFI_TAG;
-                else
-                    return getNextConnectivityTag(Constants.WIFI_TAG);
-
-            default:
-                return mTag;
-        }
-    }
-
-    /**
-     * @return: Time in milliseconds of the next launch of the alarm on another day
-     */
-    private long getTimeOfNextDayAlarm() {
-
-        // Start time of the alarm as HH:mm
-        String startTime = DateUtils.getTimeFromLong(mCurrentAlarm.getStartTime());
-
-        // The minutes and hours of the start time of the alarm
-        int startTimeMinute = Integer.parseInt(startTime.split(":")[0]);
-        int startTimeHour = Integer.parseInt(startTime.split(":")[1]);
-
-        // Start time in milliseconds of the alarm on the next day
-        long startTimeOnTheNextDay = TimeUnit.MINUTES.toMillis(startTimeMinute) + TimeUnit.HOURS.toMillis(startTimeHour);
-
-        /**
-         * Days in milliseconds until the next alarm launch
-         * We deduct 1 from the result because the result is going to be summed with
-         * the start time on the following day, so one day (or part of it at least)
-         * has already been consumed
-         */
-        long daysUntilNextAlarm = TimeUnit.DAYS.toMillis(AlarmUtils.getNumberOfDaysUntilNextAlarm(mCurrentAlarm, true) - 1);
-
-        return startTimeOnTheNextDay + daysUntilNextAlarm;
-    }
 }
@@ -19,6 +19,6 @@ public class ConnectivityJobCreator implements JobCreator {
 
     @Override
     public Job create(String tag) {
-        return new ConnectivityJob(mContext, tag);
+        return new ConnectivityJob(mContext);
     }
 }
@@ -3,8 +3,6 @@ package io.mdevlab.unconnectify.jobs;
 import com.evernote.android.job.JobRequest;
 import com.evernote.android.job.util.support.PersistableBundleCompat;
 
-import io.mdevlab.unconnectify.alarm.AlarmManager;
-import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
 import io.mdevlab.unconnectify.utils.Constants;
 
 /**
@@ -14,29 +12,29 @@ import io.mdevlab.unconnectify.utils.Constants;
 public class ConnectivityJobManager {
 
     /**
-     * Method that build the job request of an alarm's job
+     * Method that build the job request of the single job of the alarms, see AlarmScheduler
+     * The job is set to run at an absolute time, the next fire time of the earliest alarm,
+     * and it replaces the job that was armed before
+     * The snapshot of the due alarms is kept in the extras of the job, the job toggles the radios
+     * from it, and the pending job can be compared with the next transition by another process
      *
-     * @param tag:           Tag of the connection the job is going to handle
-     * @param activate:      Determines whether to enable or disable the connection
-     * @param executionTime: Milliseconds left before executing the job
-     * @return: The built job request
+     * @param snapshot: Snapshot of the due alarms, with the absolute time in milliseconds at which the job runs
+     * @return: The id of the job
      */
-    public static void buildJobRequest(PreciseConnectivityAlarm alarm, String tag, boolean activate, long executionTime) {
-        if (executionTime <= 0)
-            return;
+    static int buildJobRequest(JobSnapshot snapshot) {
+
+        // Milliseconds left before executing the job, a fire time that has just passed runs right away
+        long executionTime = Math.max(1L, snapshot.fireAt - System.currentTimeMillis());
 
-        // Extras
         PersistableBundleCompat extras = new PersistableBundleCompat();
-        extras.putBoolean(Constants.ACTIVATE_TAG, activate);
+        snapshot.writeTo(extras);
 
-        int jobId = new JobRequest.Builder(tag)
+        return new JobRequest.Builder(Constants.SCHEDULER_TAG)
                 .setExact(executionTime)
                 .setExtras(extras)
                 .setPersisted(true)
+                .setUpdateCurrent(true)
                 .build()
                 .schedule();
-
-        // Set the job id to the alarm
-        AlarmManager.updateAlarmJobId(alarm.getAlarmId(), jobId);
     }
 }
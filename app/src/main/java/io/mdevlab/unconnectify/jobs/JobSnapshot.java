@@ -0,0 +1,118 @@
+package io.mdevlab.unconnectify.jobs;
+
+import com.evernote.android.job.util.support.PersistableBundleCompat;
+
+import java.util.Collection;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Constants;
+
+/**
+ * What the job needs to toggle the radios when it fires, carried in the extras of the job
+ * It's taken by AlarmScheduler when the job is armed:
+ * - The fire time of the job
+ * - The state of the radios desired by the alarms at that time (see RadioReconciler)
+ * - The end of the window during which that state holds, the next transition of the
+ * normalized schedule
+ * - A version stamp of the due alarms and the desired state
+ * <p>
+ * The job applies the snapshot before reading any alarm, so the radios are toggled without
+ * waiting for the database in a process started for the job. The alarms are read afterwards,
+ * and the radios are reconciled again only if the version of the snapshot doesn't match them
+ * <p>
+ * Created by mdevlab on 3/27/17.
+ */
+
+class JobSnapshot {
+
+    // Fire time of the job, in milliseconds
+    final long fireAt;
+
+    // Time until which the desired state holds, in milliseconds
+    final long windowEnd;
+
+    final RadioReconciler.DesiredState desiredState;
+
+    // Stamp of the due alarms and the desired state
+    final int version;
+
+    JobSnapshot(long fireAt, long windowEnd, RadioReconciler.DesiredState desiredState, int version) {
+        this.fireAt = fireAt;
+        this.windowEnd = windowEnd;
+        this.desiredState = desiredState;
+        this.version = version;
+    }
+
+    /**
+     * Method that takes the snapshot of the due alarms of a fire time
+     *
+     * @param fireAt:       Fire time of the job
+     * @param windowEnd:    End of the window during which the desired state holds
+     * @param dueAlarms:    Alarms whose transition is due at the fire time
+     * @param desiredState: State of the radios desired by the alarms at the fire time
+     * @return: The snapshot
+     */
+    static JobSnapshot take(long fireAt, long windowEnd, Collection<PreciseConnectivityAlarm> dueAlarms,
+                            RadioReconciler.DesiredState desiredState) {
+        return new JobSnapshot(fireAt, windowEnd, desiredState, versionOf(dueAlarms, desiredState));
+    }
+
+    /**
+     * Method that computes the version stamp of due alarms and of the state they lead to
+     * It doesn't depend on the order of the alarms
+     *
+     * @param dueAlarms:    Alarms whose transition is due
+     * @param desiredState: State of the radios desired by the alarms
+     * @return: The version
+     */
+    static int versionOf(Collection<PreciseConnectivityAlarm> dueAlarms, RadioReconciler.DesiredState desiredState) {
+        int alarmsHash = 0;
+        for (PreciseConnectivityAlarm alarm : dueAlarms) {
+            int hash = alarm.getAlarmId();
+            hash = 31 * hash + (int) (alarm.getNextFireAt() ^ (alarm.getNextFireAt() >>> 32));
+            hash = 31 * hash + (alarm.getCurrentState() ? 1 : 0);
+            hash = 31 * hash + alarm.getConnections().getMask();
+            alarmsHash += hash;
+        }
+        return 31 * (31 * alarmsHash + desiredState.on) + desiredState.off;
+    }
+
+    /**
+     * @param now: Current time in milliseconds
+     * @return: Whether the desired state of the snapshot holds now, the job can run
+     * a little early (see AlarmScheduler.DUE_MARGIN_MS)
+     */
+    boolean holdsAt(long now) {
+        return now >= fireAt - AlarmScheduler.DUE_MARGIN_MS && now < windowEnd;
+    }
+
+    /**
+     * Method that writes the snapshot to the extras of the job
+     *
+     * @param extras: Extras of the job
+     */
+    void writeTo(PersistableBundleCompat extras) {
+        extras.putLong(Constants.FIRE_AT_BUNDLE_KEY, fireAt);
+        extras.putLong(Constants.WINDOW_END_BUNDLE_KEY, windowEnd);
+        extras.putInt(Constants.DESIRED_ON_BUNDLE_KEY, desiredState.on);
+        extras.putInt(Constants.DESIRED_OFF_BUNDLE_KEY, desiredState.off);
+        extras.putInt(Constants.SNAPSHOT_VERSION_BUNDLE_KEY, version);
+    }
+
+    /**
+     * Method that reads the snapshot from the extras of the job
+     *
+     * @param extras: Extras of the job
+     * @return: The snapshot, null if the job doesn't have one (a job armed by an older version)
+     */
+    static JobSnapshot readFrom(PersistableBundleCompat extras) {
+        if (extras == null || !extras.containsKey(Constants.SNAPSHOT_VERSION_BUNDLE_KEY))
+            return null;
+
+        return new JobSnapshot(extras.getLong(Constants.FIRE_AT_BUNDLE_KEY, 0),
+                extras.getLong(Constants.WINDOW_END_BUNDLE_KEY, 0),
+                new RadioReconciler.DesiredState(extras.getInt(Constants.DESIRED_ON_BUNDLE_KEY, 0),
+                        extras.getInt(Constants.DESIRED_OFF_BUNDLE_KEY, 0)),
+                extras.getInt(Constants.SNAPSHOT_VERSION_BUNDLE_KEY, 0));
+    }
+}
@@ -0,0 +1,171 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Collection;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.connectivitymodels.Connectivity;
+import io.mdevlab.unconnectify.connectivitymodels.ConnectivityFactory;
+import io.mdevlab.unconnectify.data.AlarmRepository;
+import io.mdevlab.unconnectify.schedule.WeekTime;
+import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.ConnectionSet;
+
+/**
+ * This class decides the state of the radios from all the active alarms at once
+ * When transitions are due, the desired state of each connection they handle follows one rule:
+ * - OFF if any active alarm is running for the connection at the instant of the transitions
+ * (between its start and end time, on one of its days), whichever alarm was updated last
+ * - ON if none is running and one of the transitions re-enables the connection
+ * The connections the transitions don't handle are left as they are
+ * <p>
+ * The desired state is compared with the current state of the radios, and only the radios
+ * whose state differs are toggled, so overlapping alarms toggle a radio at most once
+ * <p>
+ * Created by mdevlab on 3/24/17.
+ */
+
+public class RadioReconciler {
+
+    private final Context mContext;
+    private final AlarmRepository mAlarmRepository;
+
+    public RadioReconciler(Context context) {
+        this(context, AlarmRepository.getInstance(context));
+    }
+
+    /**
+     * @param context
+     * @param alarmRepository: Repository of the active alarms the desired state is decided from
+     */
+    RadioReconciler(Context context, AlarmRepository alarmRepository) {
+        mContext = context;
+        mAlarmRepository = alarmRepository;
+    }
+
+    /**
+     * State of the radios desired by the alarms, the radios that are in neither mask are left as they are
+     */
+    static class DesiredState {
+
+        // Masks of the connections that must be on and off, as defined in the class ConnectionSet
+        final int on;
+        final int off;
+
+        DesiredState(int on, int off) {
+            this.on = on;
+            this.off = off;
+        }
+    }
+
+    /**
+     * Method that returns the state of the radios desired by all the active alarms
+     * when the transitions of the due alarms run
+     * The instant of the transitions is the latest fire time of the due alarms, or now
+     * if the job is late, so a transition due a few milliseconds ahead counts as started
+     *
+     * @param dueAlarms: The alarms whose transition is due
+     * @param now:       Current time in milliseconds
+     * @return: The desired state
+     */
+    DesiredState getDesiredState(Collection<PreciseConnectivityAlarm> dueAlarms, long now) {
+        int handled = 0;
+        int enabling = 0;
+        long instant = now;
+        for (PreciseConnectivityAlarm alarm : dueAlarms) {
+            handled |= alarm.getConnections().getMask();
+            if (alarm.getCurrentState())
+                enabling |= alarm.getConnections().getMask();
+            instant = Math.max(instant, alarm.getNextFireAt());
+        }
+        if (handled == 0)
+            return new DesiredState(0, 0);
+
+        TimeZone zone = TimeZone.getDefault();
+        int occupied = mAlarmRepository.getOccupiedConnections(WeekTime.minuteOfWeek(instant, zone), zone);
+        return new DesiredState(desiredOn(enabling, occupied), desiredOff(handled, occupied));
+    }
+
+    /**
+     * Method that toggles the radios whose state differs from the desired state
+     * It only talks to the radios, it doesn't read the alarms
+     *
+     * @param state: The desired state
+     * @return: Mask of the toggled connections, as defined in the class ConnectionSet
+     */
+    int apply(DesiredState state) {
+        if ((state.on | state.off) == 0)
+            return 0;
+
+        // Current state of the radios the alarms have a say on
+        int enabled = 0;
+        for (Connection connection : ConnectionSet.fromMask(state.on | state.off)) {
+            Connectivity connectivity = ConnectivityFactory.getConnectivity(connection, mContext);
+            if (connectivity != null && connectivity.isEnabled())
+                enabled |= ConnectionSet.maskOf(connection);
+        }
+
+        int toggles = toggles(state.on, state.off, enabled);
+        for (Connection connection : ConnectionSet.fromMask(toggles)) {
+            Connectivity connectivity = ConnectivityFactory.getConnectivity(connection, mContext);
+            if (connectivity == null)
+                continue;
+            if ((state.on & ConnectionSet.maskOf(connection)) != 0)
+                connectivity.enable();
+            else
+                connectivity.disable();
+        }
+        return toggles;
+    }
+
+    /**
+     * Method that returns the state to apply once the alarms are read, when the snapshot applied
+     * before was taken from other alarms (an alarm was edited after the job was armed)
+     * The radios the snapshot toggled that the alarms no longer have a say on are toggled back,
+     * the other radios follow the state desired by the alarms
+     *
+     * @param applied: State applied from the snapshot
+     * @param toggled: Mask of the connections the snapshot toggled
+     * @param desired: State desired by the alarms as they are now
+     * @return: The state to apply
+     */
+    @VisibleForTesting
+    static DesiredState correct(DesiredState applied, int toggled, DesiredState desired) {
+        int stale = toggled & ~(desired.on | desired.off);
+        return new DesiredState(desired.on | (stale & applied.off), desired.off | (stale & applied.on));
+    }
+
+    /**
+     * @param handled:  Mask of the connections handled by the due transitions
+     * @param occupied: Mask of the connections an active alarm is running for
+     * @return: Mask of the connections that must be off, OFF wins over ON
+     */
+    @VisibleForTesting
+    static int desiredOff(int handled, int occupied) {
+        return handled & occupied;
+    }
+
+    /**
+     * @param enabling: Mask of the connections re-enabled by the due transitions
+     * @param occupied: Mask of the connections an active alarm is running for
+     * @return: Mask of the connections that must be on
+     */
+    @VisibleForTesting
+    static int desiredOn(int enabling, int occupied) {
+        return enabling & ~occupied;
+    }
+
+    /**
+     * @param desiredOn:  Mask of the connections that must be on
+     * @param desiredOff: Mask of the connections that must be off
+     * @param enabled:    Mask of the connections currently on
+     * @return: Mask of the connections whose radio has to be toggled
+     */
+    @VisibleForTesting
+    static int toggles(int desiredOn, int desiredOff, int enabled) {
+        return (desiredOn & ~enabled) | (desiredOff & enabled);
+    }
+}
@@ -0,0 +1,68 @@
+package io.mdevlab.unconnectify.jobs;
+
+import android.os.Handler;
+
+/**
+ * Class that gathers the edits of the alarms into one reschedule
+ * Every edit marks the schedule dirty and pushes the reschedule back, so it only runs once
+ * the edits have settled for a while. It can also be run right away, when the user leaves the
+ * screen for instance, in which case it doesn't run again once the delay is over
+ * <p>
+ * Created by mdevlab on 3/26/17.
+ */
+
+class RescheduleDebouncer {
+
+    private final Handler mHandler;
+    private final long mSettleDelayMs;
+    private final Runnable mReschedule;
+
+    // Whether an edit wasn't followed by a reschedule yet, guarded by this
+    private boolean mDirty = false;
+
+    private final Runnable mSettled = new Runnable() {
+        @Override
+        public void run() {
+            runIfDirty();
+        }
+    };
+
+    /**
+     * @param handler:       Handler on which the delay is waited for
+     * @param settleDelayMs: Time without edit after which the reschedule runs
+     * @param reschedule:    The reschedule
+     */
+    RescheduleDebouncer(Handler handler, long settleDelayMs, Runnable reschedule) {
+        mHandler = handler;
+        mSettleDelayMs = settleDelayMs;
+        mReschedule = reschedule;
+    }
+
+    /**
+     * Method that marks the schedule dirty after an edit, the reschedule is pushed back
+     */
+    synchronized void markDirty() {
+        mDirty = true;
+        mHandler.removeCallbacks(mSettled);
+        mHandler.postDelayed(mSettled, mSettleDelayMs);
+    }
+
+    /**
+     * Method that runs the reschedule right away if the schedule is dirty
+     */
+    void flush() {
+        synchronized (this) {
+            mHandler.removeCallbacks(mSettled);
+        }
+        runIfDirty();
+    }
+
+    private void runIfDirty() {
+        synchronized (this) {
+            if (!mDirty)
+                return;
+            mDirty = false;
+        }
+        mReschedule.run();
+    }
+}
@@ -10,14 +10,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.support.v7.app.NotificationCompat;
 
-import java.util.List;
+import java.util.Set;
 
 import io.mdevlab.unconnectify.MainActivity;
 import io.mdevlab.unconnectify.R;
 import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
-import io.mdevlab.unconnectify.data.AlarmSqlHelper;
+import io.mdevlab.unconnectify.data.AlarmRepository;
 import io.mdevlab.unconnectify.utils.Connection;
-import io.mdevlab.unconnectify.utils.DateUtils;
+import io.mdevlab.unconnectify.utils.TimeFormatter;
 
 /**
  * This is tne main class for launching a notification
@@ -39,14 +39,13 @@ public class AlarmNotificationManager {
                 (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
         //Get Needed data
-        AlarmSqlHelper alarmSqlHelper = new AlarmSqlHelper(context);
-        PreciseConnectivityAlarm preciseConnectivityAlarm = alarmSqlHelper.readNextAlarm();
+        PreciseConnectivityAlarm preciseConnectivityAlarm = AlarmRepository.getInstance(context).readNextAlarm();
 
         NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(context);
         //force the verification of the returned Alarm
         if (preciseConnectivityAlarm != null) {
             //Set the text
-            String notifiactionText = buildNotificationString(preciseConnectivityAlarm);
+            String notifiactionText = buildNotificationString(context, preciseConnectivityAlarm);
 
             //Get the Notification Builder
 
@@ -91,14 +90,14 @@ public class AlarmNotificationManager {
     /**
      * This function return the built String from the next Alarm Object
      *
+     * @param context                  used to get the time formatter
      * @param preciseConnectivityAlarm the object from which we get the String
      * @return the built String
      * return example Next -Turning ON/OFF WIFI|BLUETOOTH|HOTSPOT at Monday 18:00
      */
-    private static String buildNotificationString(PreciseConnectivityAlarm preciseConnectivityAlarm) {
+    private static String buildNotificationString(Context context, PreciseConnectivityAlarm preciseConnectivityAlarm) {
 
-        List<Connection> connectionList = preciseConnectivityAlarm.getConnections();
-        long executionTime = preciseConnectivityAlarm.getExecuteTimeInMils();
+        Set<Connection> connectionList = preciseConnectivityAlarm.getConnections();
         Boolean currentStatus = preciseConnectivityAlarm.getCurrentState();
 
         //Build the string using String Builder to avoid Instansiation of a new String each time
@@ -113,8 +112,8 @@ public class AlarmNotificationManager {
             result.append(connection ).append(" | ");
         }
 
-        //Date  with the given format using timeinMillistoDate function from DateUtils
-        String returnedDate = DateUtils.timeinMillistoDate(preciseConnectivityAlarm.getStartTime() + executionTime, DateUtils.NOTIFICATION_DATE_FORMAT);
+        //Day and time from the labels of the shared TimeFormatter, no formatter is created
+        String returnedDate = TimeFormatter.getInstance(context).formatDayAndTime(preciseConnectivityAlarm.getNextFireAt());
 
         //set the final result
         result.append(" at ").append( returnedDate);
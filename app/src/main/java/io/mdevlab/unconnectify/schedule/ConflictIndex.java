@@ -0,0 +1,181 @@
+package io.mdevlab.unconnectify.schedule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+/**
+ * Index of the minutes of the week during which each connection is handled by an alarm
+ * An active alarm covers, for each of its days, the minutes from its start time (included)
+ * to its end time (excluded), wrapping past midnight and past the end of the week. An alarm
+ * without end covers its start minute only
+ * <p>
+ * For each connection the index keeps:
+ * - A bitmap of MINUTES_PER_WEEK bits, set for the minutes covered by at least one alarm
+ * - The number of alarms covering each minute, so an alarm is removed without rebuilding the bitmap
+ * - The list of its owners, the alarms handling the connection with the minutes they start at
+ * <p>
+ * Checking a minute is a probe of the bitmap. The owners are only used to remove an alarm,
+ * the index is changed alarm by alarm (see AlarmRepository), it isn't thread safe
+ * <p>
+ * Created by mdevlab on 3/23/17.
+ */
+
+public class ConflictIndex {
+
+    private static final int WORDS_PER_WEEK = (WeekTime.MINUTES_PER_WEEK + 63) >>> 6;
+
+    // Bitmap of the covered minutes of each connection, indexed by Connection.getValue()
+    private final long[][] mOccupied;
+
+    // Number of alarms covering each minute of each connection
+    private final char[][] mOwnerCounts;
+
+    // Alarms handling each connection
+    private final List<List<Owner>> mOwners;
+
+    // Time zone of the start times of the alarms
+    private final TimeZone mZone;
+
+    /**
+     * Minutes covered by an alarm
+     */
+    private static class Owner {
+
+        final int alarmId;
+
+        // Minutes of the week at which the alarm starts, one per day
+        final int[] starts;
+
+        // Number of minutes covered from each start
+        final int length;
+
+        Owner(int alarmId, int[] starts, int length) {
+            this.alarmId = alarmId;
+            this.starts = starts;
+            this.length = length;
+        }
+    }
+
+    public ConflictIndex(TimeZone zone) {
+        mZone = zone;
+        int connectionCount = Connection.values().length;
+        mOccupied = new long[connectionCount][WORDS_PER_WEEK];
+        mOwnerCounts = new char[connectionCount][WeekTime.MINUTES_PER_WEEK];
+        mOwners = new ArrayList<>(connectionCount);
+        for (int i = 0; i < connectionCount; i++)
+            mOwners.add(new ArrayList<Owner>());
+    }
+
+    /**
+     * Method that builds the index of a set of alarms, the inactive ones are left out
+     *
+     * @param alarms: The alarms
+     * @param zone:   Time zone of the start times of the alarms
+     * @return: The index
+     */
+    public static ConflictIndex build(Collection<PreciseConnectivityAlarm> alarms, TimeZone zone) {
+        ConflictIndex index = new ConflictIndex(zone);
+        for (PreciseConnectivityAlarm alarm : alarms)
+            index.add(alarm);
+        return index;
+    }
+
+    /**
+     * Method that adds the minutes covered by an alarm, an inactive alarm isn't added
+     * An alarm already in the index has to be removed first
+     *
+     * @param alarm: The alarm
+     */
+    public void add(PreciseConnectivityAlarm alarm) {
+        if (!alarm.isActive() || alarm.getDays().isEmpty() || alarm.getConnections().isEmpty())
+            return;
+
+        int startMinuteOfDay = WeekTime.minuteOfDay(alarm.getStartTime(), mZone);
+        int[] starts = new int[alarm.getDays().size()];
+        int i = 0;
+        for (int day : alarm.getDays())
+            starts[i++] = WeekTime.minuteOfWeek(day, startMinuteOfDay);
+
+        // An alarm without end covers its start minute, no alarm covers more than the whole week
+        long durationInMinutes = alarm.getDuration() / WeekTime.MILLIS_PER_MINUTE;
+        int length = (int) Math.max(1, Math.min(durationInMinutes, WeekTime.MINUTES_PER_WEEK));
+
+        Owner owner = new Owner(alarm.getAlarmId(), starts, length);
+        for (Connection connection : alarm.getConnections()) {
+            mOwners.get(connection.getValue()).add(owner);
+            for (int start : starts)
+                cover(connection.getValue(), start, length, 1);
+        }
+    }
+
+    /**
+     * Method that removes the minutes covered by an alarm, if it's in the index
+     *
+     * @param alarmId: Id of the alarm
+     */
+    public void remove(int alarmId) {
+        for (int connection = 0; connection < mOwners.size(); connection++) {
+            List<Owner> owners = mOwners.get(connection);
+            for (int i = 0; i < owners.size(); i++) {
+                Owner owner = owners.get(i);
+                if (owner.alarmId != alarmId)
+                    continue;
+
+                owners.remove(i);
+                for (int start : owner.starts)
+                    cover(connection, start, owner.length, -1);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Method that changes the number of alarms covering a range of minutes of a connection
+     * and updates its bitmap accordingly
+     *
+     * @param connection: Value of the connection
+     * @param start:      First minute of the week of the range
+     * @param length:     Number of minutes of the range, it wraps past the end of the week
+     * @param change:     1 when an alarm is added, -1 when it's removed
+     */
+    private void cover(int connection, int start, int length, int change) {
+        long[] occupied = mOccupied[connection];
+        char[] counts = mOwnerCounts[connection];
+        for (int i = 0; i < length; i++) {
+            int minute = (start + i) % WeekTime.MINUTES_PER_WEEK;
+            counts[minute] += change;
+            if (counts[minute] == 0)
+                occupied[minute >>> 6] &= ~(1L << minute);
+            else
+                occupied[minute >>> 6] |= 1L << minute;
+        }
+    }
+
+    /**
+     * @param connection:   The connection
+     * @param minuteOfWeek: The minute of the week
+     * @return: Whether at least one alarm handles the connection during the minute
+     */
+    public boolean isOccupied(Connection connection, int minuteOfWeek) {
+        return (mOccupied[connection.getValue()][minuteOfWeek >>> 6] & (1L << minuteOfWeek)) != 0;
+    }
+
+    /**
+     * @param minuteOfWeek: The minute of the week
+     * @return: Mask of the connections handled by at least one alarm during the minute,
+     * as defined in the class ConnectionSet
+     */
+    public int getOccupiedConnections(int minuteOfWeek) {
+        int mask = 0;
+        for (int connection = 0; connection < mOccupied.length; connection++) {
+            if ((mOccupied[connection][minuteOfWeek >>> 6] & (1L << minuteOfWeek)) != 0)
+                mask |= 1 << connection;
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,187 @@
+package io.mdevlab.unconnectify.schedule;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.DaySet;
+
+/**
+ * Minimal set of off-windows of each connection over one week, as computed by ScheduleNormalizer
+ * The windows of a connection don't overlap and don't touch, each one is a run of minutes
+ * during which at least one active alarm handles the connection. A window starts with a
+ * transition disabling the connection and, if an alarm with an end time ends with it, ends
+ * with a transition re-enabling it
+ * <p>
+ * The schedule also keeps the report of the normalization: the number of job launches and
+ * radio toggles per week of the alarms as they are stored, and of the windows
+ * <p>
+ * Created by mdevlab on 3/25/17.
+ */
+
+public class NormalizedSchedule {
+
+    // Windows of each connection, indexed by Connection.getValue(): first minute of the week,
+    // number of minutes and whether the connection is re-enabled at the end
+    private final int[][] mStarts;
+    private final int[][] mLengths;
+    private final boolean[][] mEnablesAtEnd;
+
+    // Transitions of each connection, sorted: the minute of the week shifted left by one,
+    // with the lowest bit set if the transition enables the connection
+    private final int[][] mTransitions;
+
+    private final int mJobsBefore;
+    private final int mJobsAfter;
+    private final int mTogglesBefore;
+    private final int mTogglesAfter;
+
+    NormalizedSchedule(int[][] starts, int[][] lengths, boolean[][] enablesAtEnd,
+                       int jobsBefore, int jobsAfter, int togglesBefore) {
+        mStarts = starts;
+        mLengths = lengths;
+        mEnablesAtEnd = enablesAtEnd;
+        mJobsBefore = jobsBefore;
+        mJobsAfter = jobsAfter;
+        mTogglesBefore = togglesBefore;
+
+        int toggles = 0;
+        mTransitions = new int[starts.length][];
+        for (int connection = 0; connection < starts.length; connection++) {
+            int count = starts[connection].length;
+            for (boolean enables : enablesAtEnd[connection])
+                count += enables ? 1 : 0;
+
+            int[] transitions = new int[count];
+            int i = 0;
+            for (int window = 0; window < starts[connection].length; window++) {
+                if (lengths[connection][window] == WeekTime.MINUTES_PER_WEEK)
+                    continue;
+                transitions[i++] = starts[connection][window] << 1;
+                if (enablesAtEnd[connection][window]) {
+                    int end = (starts[connection][window] + lengths[connection][window]) % WeekTime.MINUTES_PER_WEEK;
+                    transitions[i++] = (end << 1) | 1;
+                }
+            }
+            mTransitions[connection] = Arrays.copyOf(transitions, i);
+            Arrays.sort(mTransitions[connection]);
+            toggles += i;
+        }
+        mTogglesAfter = toggles;
+    }
+
+    /**
+     * @param connection: The connection
+     * @return: The number of off-windows of the connection over the week
+     */
+    public int getWindowCount(Connection connection) {
+        return mStarts[connection.getValue()].length;
+    }
+
+    public int getWindowStart(Connection connection, int window) {
+        return mStarts[connection.getValue()][window];
+    }
+
+    public int getWindowLength(Connection connection, int window) {
+        return mLengths[connection.getValue()][window];
+    }
+
+    public boolean enablesAtEnd(Connection connection, int window) {
+        return mEnablesAtEnd[connection.getValue()][window];
+    }
+
+    /**
+     * @param connection:   The connection
+     * @param minuteOfWeek: The minute of the week
+     * @param enabling:     Whether the transition enables the connection
+     * @return: Whether the normalized schedule has this transition, a transition of an alarm
+     * that doesn't change the state of the connection (inside a window) isn't one of them
+     */
+    public boolean hasTransition(Connection connection, int minuteOfWeek, boolean enabling) {
+        return Arrays.binarySearch(mTransitions[connection.getValue()], (minuteOfWeek << 1) | (enabling ? 1 : 0)) >= 0;
+    }
+
+    /**
+     * @param minuteOfWeek: The minute of the week
+     * @return: The number of minutes from the minute to the next transition of any connection,
+     * a week if the minute has the only transition, -1 if there's no transition
+     */
+    public int getMinutesToNextTransition(int minuteOfWeek) {
+        int minutes = -1;
+        for (int[] transitions : mTransitions) {
+            if (transitions.length == 0)
+                continue;
+
+            // First transition after the minute, whatever it enables, wrapping to the first one of the week
+            int i = Arrays.binarySearch(transitions, (minuteOfWeek << 1) | 1);
+            i = i >= 0 ? i + 1 : -i - 1;
+            int next = transitions[i < transitions.length ? i : 0] >> 1;
+
+            int distance = (next - minuteOfWeek + WeekTime.MINUTES_PER_WEEK) % WeekTime.MINUTES_PER_WEEK;
+            if (distance == 0)
+                distance = WeekTime.MINUTES_PER_WEEK;
+            if (minutes == -1 || distance < minutes)
+                minutes = distance;
+        }
+        return minutes;
+    }
+
+    /**
+     * Method that returns the time of the next transition of any connection, found by a binary
+     * search in the sorted transitions of each connection instead of going through the alarms
+     *
+     * @param fromMillis: Time from which the next transition is looked for
+     * @param zone:       Time zone of the wall time, the one the schedule was normalized in
+     * @return: The time of the first transition after the minute of fromMillis, -1 if there's no transition
+     */
+    public long getNextTransitionTime(long fromMillis, TimeZone zone) {
+        int minuteOfWeek = WeekTime.minuteOfWeek(fromMillis, zone);
+        int minutes = getMinutesToNextTransition(minuteOfWeek);
+        if (minutes == -1)
+            return -1;
+
+        // The wall time of the transition is converted on its own day, a change of offset in between is accounted for
+        int next = (minuteOfWeek + minutes) % WeekTime.MINUTES_PER_WEEK;
+        int day = next / WeekTime.MINUTES_PER_DAY + Calendar.SUNDAY;
+        return WeekTime.nextOccurrence(fromMillis, next % WeekTime.MINUTES_PER_DAY, DaySet.maskOf(day), zone);
+    }
+
+    /**
+     * @return: The number of job launches per week of the alarms as they are stored,
+     * one per distinct minute with a transition
+     */
+    public int getJobsBefore() {
+        return mJobsBefore;
+    }
+
+    /**
+     * @return: The number of job launches per week of the normalized windows
+     */
+    public int getJobsAfter() {
+        return mJobsAfter;
+    }
+
+    /**
+     * @return: The number of radio toggles per week of the alarms as they are stored,
+     * each transition toggling each connection of its alarm
+     */
+    public int getTogglesBefore() {
+        return mTogglesBefore;
+    }
+
+    /**
+     * @return: The number of radio toggles per week of the normalized windows
+     */
+    public int getTogglesAfter() {
+        return mTogglesAfter;
+    }
+
+    /**
+     * @return: The report of the normalization, for the logs
+     */
+    public String getReport() {
+        return "Normalized schedule: " + mJobsAfter + " job launches instead of " + mJobsBefore
+                + " and " + mTogglesAfter + " radio toggles instead of " + mTogglesBefore + " per week";
+    }
+}
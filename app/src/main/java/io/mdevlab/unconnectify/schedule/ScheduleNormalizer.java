@@ -0,0 +1,147 @@
+package io.mdevlab.unconnectify.schedule;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+/**
+ * This class merges the overlapping and adjacent alarms into the minimal set of off-windows
+ * of each connection, 22:00-07:00 and 23:00-06:00 on the same days and connections become
+ * one window, so do 08:00-10:00 and 10:00-12:00
+ * <p>
+ * An alarm covers, for each of its days, the minutes from its start time to its end time for
+ * each of its connections, the same minutes as in ConflictIndex. The windows are the runs of
+ * covered minutes, wrapping past the end of the week. A window re-enables its connection at its
+ * end if an alarm with an end time ends there, the end of an alarm without end doesn't
+ * <p>
+ * The alarms themselves are left as they are, the windows only decide when the job has to run
+ * (see AlarmScheduler)
+ * <p>
+ * Created by mdevlab on 3/25/17.
+ */
+
+public final class ScheduleNormalizer {
+
+    private ScheduleNormalizer() {
+    }
+
+    /**
+     * Method that normalizes the schedule of a set of alarms, the inactive ones are left out
+     *
+     * @param alarms: The alarms
+     * @param zone:   Time zone of the start times of the alarms
+     * @return: The windows of each connection, with the report of the normalization
+     */
+    public static NormalizedSchedule normalize(Collection<PreciseConnectivityAlarm> alarms, TimeZone zone) {
+        int connectionCount = Connection.values().length;
+        int minutes = WeekTime.MINUTES_PER_WEEK;
+
+        // Changes of the number of alarms covering each minute, and the minutes an alarm with an end ends at
+        int[][] coverChanges = new int[connectionCount][minutes + 1];
+        boolean[][] alarmEnds = new boolean[connectionCount][minutes];
+
+        // Minutes with a transition of an alarm, and the toggles of the transitions
+        boolean[] transitionMinutes = new boolean[minutes];
+        int togglesBefore = 0;
+
+        for (PreciseConnectivityAlarm alarm : alarms) {
+            if (!alarm.isActive())
+                continue;
+
+            int startMinuteOfDay = WeekTime.minuteOfDay(alarm.getStartTime(), zone);
+            long durationInMinutes = alarm.getDuration() / WeekTime.MILLIS_PER_MINUTE;
+            boolean hasEnd = alarm.getDuration() > 1;
+            int length = hasEnd ? (int) Math.max(1, Math.min(durationInMinutes, minutes)) : 1;
+            int connections = alarm.getConnections().size();
+
+            for (int day : alarm.getDays()) {
+                int start = WeekTime.minuteOfWeek(day, startMinuteOfDay);
+                int end = (start + length) % minutes;
+
+                transitionMinutes[start] = true;
+                togglesBefore += connections;
+                if (hasEnd) {
+                    transitionMinutes[end] = true;
+                    togglesBefore += connections;
+                }
+
+                for (Connection connection : alarm.getConnections()) {
+                    int[] changes = coverChanges[connection.getValue()];
+                    changes[start]++;
+                    if (start + length <= minutes) {
+                        changes[start + length]--;
+                    } else {
+                        changes[minutes]--;
+                        changes[0]++;
+                        changes[start + length - minutes]--;
+                    }
+                    if (hasEnd)
+                        alarmEnds[connection.getValue()][end] = true;
+                }
+            }
+        }
+
+        int[][] starts = new int[connectionCount][];
+        int[][] lengths = new int[connectionCount][];
+        boolean[][] enablesAtEnd = new boolean[connectionCount][];
+        boolean[] windowTransitionMinutes = new boolean[minutes];
+
+        for (int connection = 0; connection < connectionCount; connection++) {
+            boolean[] covered = new boolean[minutes];
+            int coveringAlarms = 0;
+            int firstFree = -1;
+            for (int minute = 0; minute < minutes; minute++) {
+                coveringAlarms += coverChanges[connection][minute];
+                covered[minute] = coveringAlarms > 0;
+                if (!covered[minute] && firstFree == -1)
+                    firstFree = minute;
+            }
+
+            // Whole week covered: one window without transition
+            if (firstFree == -1) {
+                starts[connection] = new int[]{0};
+                lengths[connection] = new int[]{minutes};
+                enablesAtEnd[connection] = new boolean[]{false};
+                continue;
+            }
+
+            // Runs of covered minutes, from a free minute so a run wrapping past the end of the week is one run
+            int[] windowStarts = new int[minutes / 2];
+            int[] windowLengths = new int[minutes / 2];
+            boolean[] windowEnables = new boolean[minutes / 2];
+            int windowCount = 0;
+            int runStart = -1;
+            for (int i = 1; i <= minutes; i++) {
+                int minute = (firstFree + i) % minutes;
+                if (covered[minute] && runStart == -1) {
+                    runStart = minute;
+                } else if (!covered[minute] && runStart != -1) {
+                    windowStarts[windowCount] = runStart;
+                    windowLengths[windowCount] = (minute - runStart + minutes) % minutes;
+                    windowEnables[windowCount] = alarmEnds[connection][minute];
+                    windowTransitionMinutes[runStart] = true;
+                    if (windowEnables[windowCount])
+                        windowTransitionMinutes[minute] = true;
+                    windowCount++;
+                    runStart = -1;
+                }
+            }
+            starts[connection] = Arrays.copyOf(windowStarts, windowCount);
+            lengths[connection] = Arrays.copyOf(windowLengths, windowCount);
+            enablesAtEnd[connection] = Arrays.copyOf(windowEnables, windowCount);
+        }
+
+        return new NormalizedSchedule(starts, lengths, enablesAtEnd,
+                count(transitionMinutes), count(windowTransitionMinutes), togglesBefore);
+    }
+
+    private static int count(boolean[] values) {
+        int count = 0;
+        for (boolean value : values)
+            count += value ? 1 : 0;
+        return count;
+    }
+}
@@ -0,0 +1,163 @@
+package io.mdevlab.unconnectify.schedule;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.utils.DaySet;
+
+/**
+ * Calendar arithmetic on plain integers
+ * Times are epoch milliseconds, converted to and from local wall time with the offset of an
+ * explicit time zone, so the results follow the daylight saving changes of the zone:
+ * - A wall time skipped by a change (spring forward) is moved forward by the length of the gap
+ * - A wall time repeated by a change (fall back) is its first occurrence
+ * <p>
+ * Nothing is allocated, no Calendar and no formatting, so these methods are safe to call on
+ * the path of a firing job
+ * <p>
+ * Created by mdevlab on 3/21/17.
+ */
+
+public final class WeekTime {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    public static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    public static final long MILLIS_PER_DAY = MINUTES_PER_DAY * MILLIS_PER_MINUTE;
+
+    // Half a day, the offsets around a wall time are looked for within this distance
+    private static final long HALF_DAY = MILLIS_PER_DAY / 2;
+
+    // 1970-01-01, the epoch day 0, was a thursday
+    private static final int EPOCH_DAY_OF_WEEK = Calendar.THURSDAY;
+
+    private WeekTime() {
+    }
+
+    /**
+     * @param epochMillis: A time
+     * @param zone:        Time zone of the wall time
+     * @return: The minute of the day of the time, from 0 to MINUTES_PER_DAY - 1
+     */
+    public static int minuteOfDay(long epochMillis, TimeZone zone) {
+        return (int) (floorMod(toLocal(epochMillis, zone), MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+    }
+
+    /**
+     * @param epochMillis: A time
+     * @param zone:        Time zone of the wall time
+     * @return: The day of the week of the time, as defined in the class Calendar
+     */
+    public static int dayOfWeek(long epochMillis, TimeZone zone) {
+        return dayOfWeekOfEpochDay(floorDiv(toLocal(epochMillis, zone), MILLIS_PER_DAY));
+    }
+
+    /**
+     * @param epochMillis: A time
+     * @param zone:        Time zone of the wall time
+     * @return: The minute of the week of the time, the week starting on sunday at 00:00
+     */
+    public static int minuteOfWeek(long epochMillis, TimeZone zone) {
+        return minuteOfWeek(dayOfWeek(epochMillis, zone), minuteOfDay(epochMillis, zone));
+    }
+
+    /**
+     * @param day:         Day as defined in the class Calendar
+     * @param minuteOfDay: Minute of the day, from 0 to MINUTES_PER_DAY - 1
+     * @return: The minute of the week, the week starting on sunday at 00:00
+     */
+    public static int minuteOfWeek(int day, int minuteOfDay) {
+        return (day - Calendar.SUNDAY) * MINUTES_PER_DAY + minuteOfDay;
+    }
+
+    /**
+     * Method that returns the time of a minute of the day on the same local day as another time
+     *
+     * @param epochMillis: A time
+     * @param minuteOfDay: The minute of the day
+     * @param zone:        Time zone of the wall time
+     * @return: The time of the minute of the day, on the local day of epochMillis
+     */
+    public static long atMinuteOfDay(long epochMillis, int minuteOfDay, TimeZone zone) {
+        long localDay = floorDiv(toLocal(epochMillis, zone), MILLIS_PER_DAY);
+        return toEpochMillis(localDay * MILLIS_PER_DAY + minuteOfDay * MILLIS_PER_MINUTE, zone);
+    }
+
+    /**
+     * Method that returns the next time a minute of the day happens on one of the given days
+     *
+     * @param fromMillis:  Time from which the next occurrence is looked for
+     * @param minuteOfDay: The minute of the day
+     * @param daysMask:    Days of the week, as a mask of DaySet
+     * @param zone:        Time zone of the wall time
+     * @return: The first occurrence strictly after fromMillis, -1 if the mask has no day
+     */
+    public static long nextOccurrence(long fromMillis, int minuteOfDay, int daysMask, TimeZone zone) {
+        if ((daysMask & DaySet.ALL_DAYS) == 0)
+            return -1;
+
+        long localDay = floorDiv(toLocal(fromMillis, zone), MILLIS_PER_DAY);
+
+        // The same day of the next week is the furthest an occurrence can be
+        for (int i = 0; i <= 7; i++) {
+            if ((daysMask & (1 << dayOfWeekOfEpochDay(localDay + i))) == 0)
+                continue;
+
+            long occurrence = toEpochMillis((localDay + i) * MILLIS_PER_DAY + minuteOfDay * MILLIS_PER_MINUTE, zone);
+            if (occurrence > fromMillis)
+                return occurrence;
+        }
+        return -1;
+    }
+
+    /**
+     * @param epochMillis: A time
+     * @param zone:        Time zone of the wall time
+     * @return: The wall time of the time, as milliseconds since 1970-01-01 00:00 local
+     */
+    private static long toLocal(long epochMillis, TimeZone zone) {
+        return epochMillis + zone.getOffset(epochMillis);
+    }
+
+    /**
+     * Method that converts a wall time to a time
+     * The offsets in effect half a day before and after the wall time are tried, the earliest
+     * time they give back the wall time from is kept. If none does, the wall time is in a gap
+     * and the offset from before the gap moves it forward
+     *
+     * @param localMillis: Milliseconds since 1970-01-01 00:00 local
+     * @param zone:        Time zone of the wall time
+     * @return: The time
+     */
+    private static long toEpochMillis(long localMillis, TimeZone zone) {
+        long guess = localMillis - zone.getRawOffset();
+        int offsetBefore = zone.getOffset(guess - HALF_DAY);
+        int offsetAfter = zone.getOffset(guess + HALF_DAY);
+
+        long epochBefore = localMillis - offsetBefore;
+        if (zone.getOffset(epochBefore) == offsetBefore)
+            return epochBefore;
+
+        long epochAfter = localMillis - offsetAfter;
+        if (zone.getOffset(epochAfter) == offsetAfter)
+            return epochAfter;
+
+        return epochBefore;
+    }
+
+    private static int dayOfWeekOfEpochDay(long epochDay) {
+        return (int) floorMod(epochDay + EPOCH_DAY_OF_WEEK - Calendar.SUNDAY, 7) + Calendar.SUNDAY;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0)))
+            quotient--;
+        return quotient;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
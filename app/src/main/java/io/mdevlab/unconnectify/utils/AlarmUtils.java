@@ -3,11 +3,12 @@ package io.mdevlab.unconnectify.utils;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.schedule.WeekTime;
 
 /**
  * Created by mdevlab on 2/11/17.
@@ -106,87 +107,90 @@ public class AlarmUtils {
 
     /**
      * Method that returns the time left in miliseconds until the next alarm trigger
+     * The times are computed on the minute of the day of the start time of the alarm, in the
+     * current time zone, so the result stays right across daylight saving changes
      *
      * @param alarm
+     * @param isAlarmDayBeingUpdated: If true, the next trigger is the next start of the alarm
+     *                                even if the alarm is running at the moment
      * @return
      */
     public static long getAlarmExecutionTime(PreciseConnectivityAlarm alarm, boolean isAlarmDayBeingUpdated) {
-
-        if (isAlarmDayBeingUpdated)
-            return TimeUnit.DAYS.toMillis(getNumberOfDaysUntilNextAlarm(alarm)) - (System.currentTimeMillis() - alarm.getStartTime());
-
-        // The default value of the execution time
-        long executionTime = alarm.getStartTime() - System.currentTimeMillis();
-
-        // If the execution time is inferior to the current system time,
-        if (executionTime < 0) {
-
-            /**
-             * If execution time + Duration > Current time
-             * It means the second phase of the alarm needs to be handled
-             * The second phase being to re-enable the connections
-             * The second phase is triggered at the end time of the alarm
-             */
-            if (executionTime + alarm.getDuration() > 0) {
-                executionTime += alarm.getDuration();
-            }
-
-            /**
-             * In this case the alarm will be triggered on another day
-             * So we get the next day the alarm is supposed to be triggered on,
-             * then add to it the execution time
-             *
-             * This is calculated using the formula below:
-             * executionTime = (Number of days until next alarm trigger).toMiliseconds - (Current time - start time).toMiliseconds
-             *
-             * Example:
-             * - Start time is 7:41 pm
-             * - Current time is 9:41 pm
-             * - Today is Sunday, next alarm trigger is Tuesday
-             * So:
-             * - Number of days until next alarm trigger = 2 days = 48 hours
-             * - Current time - start time = 2 hours
-             * So basically the next alarm is in 46 hours, convert this to miliseconds and this
-             * gives us the time left until the next alarm trigger, which is the alarm's executionTime
-             */
-            else {
-                executionTime = TimeUnit.DAYS.toMillis(getNumberOfDaysUntilNextAlarm(alarm)) - (System.currentTimeMillis() - alarm.getStartTime());
-            }
-        }
-
-        return executionTime;
-    }
-
-    public static int getNumberOfDaysUntilNextAlarm(PreciseConnectivityAlarm alarm) {
-        return getNumberOfDaysUntilNextAlarm(alarm, false);
+        return getAlarmExecutionTime(alarm, isAlarmDayBeingUpdated, System.currentTimeMillis());
     }
 
     /**
-     * Method that returns the number of days until the next day the
-     * alarm is supposed to be launched on
+     * Method that returns the time left in miliseconds until the next alarm trigger, from a given time
      *
+     * @param alarm
+     * @param isAlarmDayBeingUpdated: If true, the next trigger is the next start of the alarm
+     *                                even if the alarm is running at the moment
+     * @param now:                    Time from which the next trigger is computed
      * @return
      */
-    public static int getNumberOfDaysUntilNextAlarm(PreciseConnectivityAlarm alarm, boolean skipCurrentDay) {
+    public static long getAlarmExecutionTime(PreciseConnectivityAlarm alarm, boolean isAlarmDayBeingUpdated, long now) {
+        TimeZone zone = TimeZone.getDefault();
+
         /**
-         * The minimum number of days is set to the maximum value it can take,
-         * which is 7, one week, which is also the maximum periodicity of an
-         * active alarm
+         * If the alarm started and isn't over yet, the second phase of the alarm
+         * needs to be handled
+         * The second phase being to re-enable the connections
+         * The second phase is triggered at the end time of the alarm
          */
-        int minimumDays = 7;
+        if (!isAlarmDayBeingUpdated) {
+            long runningStart = getRunningStartTime(alarm, now);
+            if (runningStart != -1)
+                return runningStart + alarm.getDuration() - now;
+        }
 
-        // The value of the current day of the week
-        int today = Calendar.getInstance().get(Calendar.DAY_OF_WEEK);
+        // Else the alarm is triggered at its next start, which can be later today
+        return getNextStartTime(alarm, now - 1, zone) - now;
+    }
+
+    /**
+     * Method that tells whether an alarm is running: it started on one of its days, today or
+     * the day before for an alarm going past midnight, and its end time hasn't come yet
+     * The next trigger of a running alarm is its end time, which re-enables its connections
+     *
+     * @param alarm: The alarm
+     * @param now:   Current time in milliseconds
+     * @return: Whether the alarm is running
+     */
+    public static boolean isAlarmRunning(PreciseConnectivityAlarm alarm, long now) {
+        return getRunningStartTime(alarm, now) != -1;
+    }
 
-        int differenceBetweenTwoDays;
-        for (int day : alarm.getDays()) {
-            // We first get the difference between the 2 days
-            differenceBetweenTwoDays = DateUtils.differenceBetweenTwoDays(today, day, alarm, skipCurrentDay);
+    /**
+     * Method that returns the start of the occurrence of an alarm running at a given time
+     * The occurrence is the first start after now minus the duration of the alarm, so the one
+     * of 23:00-07:00 that started the day before is found at 01:00
+     *
+     * @param alarm: The alarm
+     * @param now:   Current time in milliseconds
+     * @return: The start time of the running occurrence, -1 if the alarm isn't running
+     */
+    public static long getRunningStartTime(PreciseConnectivityAlarm alarm, long now) {
+        TimeZone zone = TimeZone.getDefault();
+        long start = WeekTime.nextOccurrence(now - alarm.getDuration(),
+                WeekTime.minuteOfDay(alarm.getStartTime(), zone),
+                alarm.getDaysMask(),
+                zone);
+        return start != -1 && start < now ? start : -1;
+    }
 
-            // A new minimum is assigned to 'minimumDays' if the difference is smaller its value
-            if (differenceBetweenTwoDays < minimumDays)
-                minimumDays = differenceBetweenTwoDays;
-        }
-        return minimumDays;
+    /**
+     * Method that returns the next time an alarm starts, on one of its days
+     *
+     * @param alarm:      The alarm
+     * @param fromMillis: The start is looked for strictly after this time
+     * @param zone:       Time zone of the start time of the alarm
+     * @return: The time of the next start, one week after fromMillis if the alarm has no day
+     */
+    public static long getNextStartTime(PreciseConnectivityAlarm alarm, long fromMillis, TimeZone zone) {
+        long nextStart = WeekTime.nextOccurrence(fromMillis,
+                WeekTime.minuteOfDay(alarm.getStartTime(), zone),
+                alarm.getDaysMask(),
+                zone);
+        return nextStart == -1 ? fromMillis + TimeUnit.DAYS.toMillis(7) : nextStart;
     }
 }
@@ -0,0 +1,138 @@
+package io.mdevlab.unconnectify.utils;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact set of connections
+ * Each connection is stored as one bit of an int: the bit (1 << connection.getValue())
+ * <p>
+ * The mask is what gets persisted in the alarm table
+ * <p>
+ * Created by mdevlab on 3/14/17.
+ */
+
+public class ConnectionSet extends AbstractSet<Connection> {
+
+    // Mask containing every connection
+    public static final int ALL_CONNECTIONS = maskOf(Connection.WIFI)
+            | maskOf(Connection.CELLULAR_DATA)
+            | maskOf(Connection.HOTSPOT)
+            | maskOf(Connection.BLUETOOTH);
+
+    private int mMask;
+
+    /**
+     * Empty constructor, the set doesn't contain any connection
+     */
+    public ConnectionSet() {
+    }
+
+    /**
+     * Constructor copying a collection of connections
+     *
+     * @param connections: Connections to copy
+     */
+    public ConnectionSet(Collection<Connection> connections) {
+        if (connections instanceof ConnectionSet)
+            mMask = ((ConnectionSet) connections).mMask;
+        else if (connections != null)
+            addAll(connections);
+    }
+
+    /**
+     * @param mask: Mask as returned by getMask()
+     * @return: The set of connections of the mask
+     */
+    public static ConnectionSet fromMask(int mask) {
+        ConnectionSet connections = new ConnectionSet();
+        connections.mMask = mask & ALL_CONNECTIONS;
+        return connections;
+    }
+
+    /**
+     * @param connection: A connection
+     * @return: The bit of the connection in a mask
+     */
+    public static int maskOf(Connection connection) {
+        return 1 << connection.getValue();
+    }
+
+    public int getMask() {
+        return mMask;
+    }
+
+    public void setMask(int mask) {
+        mMask = mask & ALL_CONNECTIONS;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Connection && (mMask & maskOf((Connection) o)) != 0;
+    }
+
+    @Override
+    public boolean add(Connection connection) {
+        int oldMask = mMask;
+        mMask |= maskOf(connection);
+        return oldMask != mMask;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o))
+            return false;
+        mMask &= ~maskOf((Connection) o);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        mMask = 0;
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(mMask);
+    }
+
+    /**
+     * The connections are iterated in the order of their values: Wifi, Cellular data,
+     * Hotspot then Bluetooth
+     */
+    @Override
+    public Iterator<Connection> iterator() {
+        return new Iterator<Connection>() {
+
+            // Remaining connections to iterate on
+            private int remaining = mMask;
+
+            // Last returned connection, null if none
+            private Connection last = null;
+
+            @Override
+            public boolean hasNext() {
+                return remaining != 0;
+            }
+
+            @Override
+            public Connection next() {
+                if (remaining == 0)
+                    throw new NoSuchElementException();
+                last = Connection.fromInt(Integer.numberOfTrailingZeros(remaining));
+                remaining &= remaining - 1;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                mMask &= ~maskOf(last);
+                last = null;
+            }
+        };
+    }
+}
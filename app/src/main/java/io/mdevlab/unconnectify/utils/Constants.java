@@ -10,9 +10,16 @@ public class Constants {
     public static final String CELLULAR_DATA_TAG = "cellular data";
     public static final String HOTSPOT_TAG = "hotspot";
     public static final String BLUETOOTH_TAG = "bluetooth";
-    public static final String ACTIVATE_TAG = "activate";
+    public static final String SCHEDULER_TAG = "scheduler";
+
+    public static final String LEGACY_JOBS_CANCELLED = "legacy jobs cancelled";
 
     public static final String END_TIME_BUNDLE_KEY = "isEndTime";
+    public static final String FIRE_AT_BUNDLE_KEY = "fireAt";
+    public static final String WINDOW_END_BUNDLE_KEY = "windowEnd";
+    public static final String DESIRED_ON_BUNDLE_KEY = "desiredOn";
+    public static final String DESIRED_OFF_BUNDLE_KEY = "desiredOff";
+    public static final String SNAPSHOT_VERSION_BUNDLE_KEY = "snapshotVersion";
     public static final String ALARM_POSITION = "alarm position";
 
     public static final String FEATURE_DISCOVERY_CREATE_ALARM = "feature discovery create alarm";
@@ -5,8 +5,9 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
-import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.schedule.WeekTime;
 
 /**
  * This class is the class helper for all date conversion and transformations
@@ -18,9 +19,6 @@ import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
  */
 public class DateUtils {
 
-    //This Pattern is used to specify the displaying of the Time for a specific notification
-    public static final String NOTIFICATION_DATE_FORMAT = "EEE HH:mm";
-
     /**
      * Return date in specified format.
      *
@@ -37,12 +35,20 @@ public class DateUtils {
 
 
     /**
+     * Method that returns the time in the fixed format HH:mm, for logs
+     * The texts shown to the user are formatted by TimeFormatter
+     *
      * @param timeInMillis
      * @return: The time in the format HH:mm from the long passed on to it as
      * a parameter
      */
     public static String getTimeFromLong(long timeInMillis) {
-        return new SimpleDateFormat("HH:mm").format(timeInMillis);
+        int minuteOfDay = WeekTime.minuteOfDay(timeInMillis, TimeZone.getDefault());
+        int hours = minuteOfDay / 60;
+        int minutes = minuteOfDay % 60;
+        return new String(new char[]{
+                (char) ('0' + hours / 10), (char) ('0' + hours % 10), ':',
+                (char) ('0' + minutes / 10), (char) ('0' + minutes % 10)});
     }
 
     /**
@@ -68,46 +74,6 @@ public class DateUtils {
         return date.getTime();
     }
 
-    /**
-     * Method that returns the number of days between two days seperated at
-     * most by a week. Example: Number of days between monday and sunday of the
-     * same week, number of days between saturday and tuesday of the following
-     * week.
-     *
-     * @param dayOne: Day superior in time to dayTwo
-     * @param dayTwo: Day the precedes dayOne
-     * @return: Number of days separating dayOne and dayTwo
-     */
-    public static int differenceBetweenTwoDays(int dayOne, int dayTwo, PreciseConnectivityAlarm alarm, boolean skipCurrentDay) {
-        int theDifference = dayTwo - dayOne;
-
-        /**
-         * Let's take the example of tuesday to monday of the following week.
-         * The method call would be smth like this differenceBetweenTwoDays(tuesday, monday)
-         * Using the Calendar class, Tuesday is equal to 3, Monday is equal to 2
-         * so theDifference = -1. -1 modulo 7 is equal the same as 6 modulo 7.
-         * There are 6 days separating tuesday of week 1 from monday of week 2, so
-         * when the result is negative 7 is simply added to it.
-         */
-        if (theDifference == 0) {
-
-            if (skipCurrentDay)
-                return 7;
-
-            String startTime = getTimeFromLong(alarm.getStartTime());
-            int startTimeHour = Integer.parseInt(startTime.split(":")[0]);
-            int startTimeMinutes = Integer.parseInt(startTime.split(":")[1]);
-
-            String currentTime = getTimeFromLong(System.currentTimeMillis());
-            int currentTimeHour = Integer.parseInt(currentTime.split(":")[0]);
-            int currentTimeMinutes = Integer.parseInt(currentTime.split(":")[1]);
-
-            if (startTimeHour < currentTimeHour || (startTimeHour == currentTimeHour && startTimeMinutes < currentTimeMinutes))
-                return 7;
-        }
-        return theDifference;
-    }
-
     /**
      * Method that returns the current day of the week (Monday, Tuesday, ...)
      * This method uses the predefined days of the week defined in the class Calendar
@@ -0,0 +1,141 @@
+package io.mdevlab.unconnectify.utils;
+
+import java.util.AbstractSet;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact set of days of the week
+ * The days are the values defined in the class Calendar (Calendar.SUNDAY to Calendar.SATURDAY),
+ * each one of them is stored as one bit of an int: the bit (1 << day)
+ * <p>
+ * The mask is what gets persisted in the alarm table
+ * <p>
+ * Created by mdevlab on 3/14/17.
+ */
+
+public class DaySet extends AbstractSet<Integer> {
+
+    // Mask containing every day of the week
+    public static final int ALL_DAYS = (1 << (Calendar.SATURDAY + 1)) - (1 << Calendar.SUNDAY);
+
+    private int mMask;
+
+    /**
+     * Empty constructor, the set doesn't contain any day
+     */
+    public DaySet() {
+    }
+
+    /**
+     * Constructor copying a collection of days
+     *
+     * @param days: Days as defined in the class Calendar
+     */
+    public DaySet(Collection<Integer> days) {
+        if (days instanceof DaySet)
+            mMask = ((DaySet) days).mMask;
+        else if (days != null)
+            addAll(days);
+    }
+
+    /**
+     * @param mask: Mask as returned by getMask()
+     * @return: The set of days of the mask
+     */
+    public static DaySet fromMask(int mask) {
+        DaySet days = new DaySet();
+        days.mMask = mask & ALL_DAYS;
+        return days;
+    }
+
+    /**
+     * @param day: Day as defined in the class Calendar
+     * @return: The bit of the day in a mask
+     */
+    public static int maskOf(int day) {
+        if (day < Calendar.SUNDAY || day > Calendar.SATURDAY)
+            throw new IllegalArgumentException("Invalid day of week: " + day);
+        return 1 << day;
+    }
+
+    public int getMask() {
+        return mMask;
+    }
+
+    public void setMask(int mask) {
+        mMask = mask & ALL_DAYS;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Integer))
+            return false;
+        int day = (Integer) o;
+        return day >= Calendar.SUNDAY && day <= Calendar.SATURDAY && (mMask & (1 << day)) != 0;
+    }
+
+    @Override
+    public boolean add(Integer day) {
+        int oldMask = mMask;
+        mMask |= maskOf(day);
+        return oldMask != mMask;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o))
+            return false;
+        mMask &= ~(1 << (Integer) o);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        mMask = 0;
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(mMask);
+    }
+
+    /**
+     * The days are iterated in the order of the week, from sunday to saturday
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+
+            // Remaining days to iterate on
+            private int remaining = mMask;
+
+            // Last returned day, 0 if none
+            private int last = 0;
+
+            @Override
+            public boolean hasNext() {
+                return remaining != 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (remaining == 0)
+                    throw new NoSuchElementException();
+                last = Integer.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == 0)
+                    throw new IllegalStateException();
+                mMask &= ~(1 << last);
+                last = 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package io.mdevlab.unconnectify.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.annotation.VisibleForTesting;
+
+import java.text.DateFormat;
+import java.text.DateFormatSymbols;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.schedule.WeekTime;
+
+/**
+ * This class formats the times and days shown in the alarm list and in the notification
+ * The label of every minute of the day is formatted once, with the time format of the device
+ * (locale and 24h setting), then kept in a table of MINUTES_PER_DAY entries. The short names
+ * of the days are kept the same way, so showing a time or a day creates no formatter
+ * <p>
+ * The tables are dropped when the locale, the 24h setting or the time zone change
+ * (the 24h setting change is broadcast as a time change), and filled again on next use
+ * <p>
+ * Created by mdevlab on 3/22/17.
+ */
+
+public class TimeFormatter {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static TimeFormatter sInstance;
+
+    private final Context mContext;
+
+    // Set by the receiver when the tables have to be rebuilt
+    private volatile boolean mStale = true;
+
+    private Locale mLocale;
+    private TimeZone mZone;
+    private DateFormat mTimeFormat;
+
+    // Label of each minute of the day, filled on first use of the minute
+    private String[] mTimeLabels;
+
+    // Short name of each day, indexed by the days defined in the class Calendar
+    private String[] mDayLabels;
+
+    public static synchronized TimeFormatter getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new TimeFormatter(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private TimeFormatter(Context context) {
+        mContext = context;
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mStale = true;
+            }
+        }, filter);
+    }
+
+    /**
+     * @param epochMillis: A time
+     * @return: The time of the day of epochMillis, in the time format of the device
+     */
+    public synchronized String formatTime(long epochMillis) {
+        refreshIfStale();
+        return getTimeLabel(WeekTime.minuteOfDay(epochMillis, mZone));
+    }
+
+    /**
+     * @param minuteOfDay: Minute of the day, from 0 to MINUTES_PER_DAY - 1
+     * @return: The minute, in the time format of the device
+     */
+    public synchronized String formatMinuteOfDay(int minuteOfDay) {
+        refreshIfStale();
+        return getTimeLabel(minuteOfDay);
+    }
+
+    /**
+     * @param day: Day as defined in the class Calendar
+     * @return: The short name of the day, in the language of the device
+     */
+    public synchronized String formatDay(int day) {
+        refreshIfStale();
+        return mDayLabels[day];
+    }
+
+    /**
+     * @param epochMillis: A time
+     * @return: The short name of the day followed by the time of epochMillis, Mon 18:00 for instance
+     */
+    public synchronized String formatDayAndTime(long epochMillis) {
+        refreshIfStale();
+        return mDayLabels[WeekTime.dayOfWeek(epochMillis, mZone)] + " "
+                + getTimeLabel(WeekTime.minuteOfDay(epochMillis, mZone));
+    }
+
+    private String getTimeLabel(int minuteOfDay) {
+        String label = mTimeLabels[minuteOfDay];
+        if (label == null) {
+            label = formatTimeLabel(mTimeFormat, minuteOfDay);
+            mTimeLabels[minuteOfDay] = label;
+        }
+        return label;
+    }
+
+    /**
+     * Method that drops the tables if the locale, the 24h setting or the time zone changed
+     * Locale.getDefault() is compared as well since the application can change it itself
+     */
+    private void refreshIfStale() {
+        if (!mStale && mLocale == Locale.getDefault())
+            return;
+
+        mStale = false;
+        mLocale = Locale.getDefault();
+        mZone = TimeZone.getDefault();
+        mTimeFormat = buildTimeFormat(android.text.format.DateFormat.getTimeFormat(mContext));
+        mTimeLabels = new String[WeekTime.MINUTES_PER_DAY];
+        mDayLabels = buildDayLabels(mLocale);
+    }
+
+    /**
+     * @param timeFormat: The time format of the device
+     * @return: The same format, reading the minutes of the day as times of 1970-01-01 in UTC
+     */
+    @VisibleForTesting
+    static DateFormat buildTimeFormat(DateFormat timeFormat) {
+        timeFormat.setTimeZone(UTC);
+        return timeFormat;
+    }
+
+    @VisibleForTesting
+    static String formatTimeLabel(DateFormat timeFormat, int minuteOfDay) {
+        return timeFormat.format(new Date(minuteOfDay * WeekTime.MILLIS_PER_MINUTE));
+    }
+
+    /**
+     * @param locale: The locale of the device
+     * @return: The short names of the days, indexed by the days defined in the class Calendar
+     */
+    @VisibleForTesting
+    static String[] buildDayLabels(Locale locale) {
+        return DateFormatSymbols.getInstance(locale).getShortWeekdays();
+    }
+}
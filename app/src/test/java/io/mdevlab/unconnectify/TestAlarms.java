@@ -0,0 +1,51 @@
+package io.mdevlab.unconnectify;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+/**
+ * Alarms shared by the local unit tests
+ * The start times are set today in the default time zone, only their time of the day matters
+ */
+public final class TestAlarms {
+
+    private TestAlarms() {
+    }
+
+    /**
+     * @return: An active alarm with the given id, start time, duration, connection and days
+     */
+    public static PreciseConnectivityAlarm buildAlarm(int alarmId, int hour, int minute, long duration, Connection connection, Integer... days) {
+        return buildAlarm(alarmId, hour, minute, duration, Collections.singletonList(connection), days);
+    }
+
+    /**
+     * @return: An active alarm with the given id, start time, duration, connections and days
+     */
+    public static PreciseConnectivityAlarm buildAlarm(int alarmId, int hour, int minute, long duration, Collection<Connection> connections, Integer... days) {
+        Calendar startTime = Calendar.getInstance();
+        startTime.set(Calendar.HOUR_OF_DAY, hour);
+        startTime.set(Calendar.MINUTE, minute);
+        startTime.set(Calendar.SECOND, 0);
+        startTime.set(Calendar.MILLISECOND, 0);
+
+        List<Integer> dayList = new ArrayList<>();
+        Collections.addAll(dayList, days);
+
+        PreciseConnectivityAlarm alarm = new PreciseConnectivityAlarm(startTime.getTimeInMillis(), duration, dayList, connections);
+        alarm.setAlarmId(alarmId);
+        return alarm;
+    }
+
+    public static List<PreciseConnectivityAlarm> listOf(PreciseConnectivityAlarm... alarms) {
+        List<PreciseConnectivityAlarm> list = new ArrayList<>();
+        Collections.addAll(list, alarms);
+        return list;
+    }
+}
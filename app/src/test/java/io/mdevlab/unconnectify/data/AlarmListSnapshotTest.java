@@ -0,0 +1,139 @@
+package io.mdevlab.unconnectify.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static io.mdevlab.unconnectify.TestAlarms.buildAlarm;
+import static io.mdevlab.unconnectify.TestAlarms.listOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of AlarmListSnapshot, which will execute on the development machine (host).
+ */
+public class AlarmListSnapshotTest {
+
+    private static final long HOUR = 3600000L;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("alarms", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writtenAlarms_readBackInOrder() throws Exception {
+        PreciseConnectivityAlarm morning = buildAlarm(3, 8, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY, Calendar.FRIDAY);
+        PreciseConnectivityAlarm night = buildAlarm(1, 22, 0, 9 * HOUR, Connection.BLUETOOTH, Calendar.SUNDAY);
+        night.setActive(false);
+        List<PreciseConnectivityAlarm> alarms = listOf(morning, night);
+
+        assertTrue(AlarmListSnapshot.write(mFile, AlarmListSnapshot.encode(alarms)));
+        AlarmListSnapshot snapshot = AlarmListSnapshot.read(mFile);
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.getAlarmCount());
+
+        List<PreciseConnectivityAlarm> readAlarms = snapshot.getAlarms();
+        for (int i = 0; i < alarms.size(); i++) {
+            assertEquals(alarms.get(i).getAlarmId(), readAlarms.get(i).getAlarmId());
+            assertEquals(alarms.get(i).getStartTime(), readAlarms.get(i).getStartTime());
+            assertEquals(alarms.get(i).getDuration(), readAlarms.get(i).getDuration());
+            assertEquals(alarms.get(i).getDaysMask(), readAlarms.get(i).getDaysMask());
+            assertEquals(alarms.get(i).getConnectionsMask(), readAlarms.get(i).getConnectionsMask());
+            assertEquals(alarms.get(i).isActive(), readAlarms.get(i).isActive());
+        }
+        assertTrue(snapshot.isSnapshotOf(alarms));
+
+        // Another order or another state isn't the list of the snapshot anymore
+        assertFalse(snapshot.isSnapshotOf(listOf(night, morning)));
+        night.setActive(true);
+        assertFalse(snapshot.isSnapshotOf(alarms));
+    }
+
+    @Test
+    public void emptyList_readBack() throws Exception {
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>();
+        assertTrue(AlarmListSnapshot.write(mFile, AlarmListSnapshot.encode(alarms)));
+
+        AlarmListSnapshot snapshot = AlarmListSnapshot.read(mFile);
+        assertNotNull(snapshot);
+        assertEquals(0, snapshot.getAlarms().size());
+        assertTrue(snapshot.isSnapshotOf(alarms));
+    }
+
+    @Test
+    public void corruptRecord_snapshotDeleted() throws Exception {
+        AlarmListSnapshot.write(mFile, AlarmListSnapshot.encode(listOf(buildAlarm(1, 8, 0, HOUR, Connection.WIFI, Calendar.MONDAY))));
+
+        // Flip a byte of the duration, the checksum doesn't match anymore
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        long position = AlarmListSnapshot.HEADER_SIZE + 12 + 7;
+        file.seek(position);
+        int value = file.read();
+        file.seek(position);
+        file.write(value ^ 0xFF);
+        file.close();
+
+        assertNull(AlarmListSnapshot.read(mFile));
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void truncatedSnapshot_snapshotDeleted() throws Exception {
+        AlarmListSnapshot.write(mFile, AlarmListSnapshot.encode(listOf(buildAlarm(1, 8, 0, HOUR, Connection.WIFI, Calendar.MONDAY))));
+        truncate(AlarmListSnapshot.HEADER_SIZE + AlarmListSnapshot.RECORD_SIZE - 1);
+        assertNull(AlarmListSnapshot.read(mFile));
+        assertFalse(mFile.exists());
+
+        // Not even a header
+        AlarmListSnapshot.write(mFile, AlarmListSnapshot.encode(new ArrayList<PreciseConnectivityAlarm>()));
+        truncate(AlarmListSnapshot.HEADER_SIZE - 4);
+        assertNull(AlarmListSnapshot.read(mFile));
+    }
+
+    @Test
+    public void missingSnapshot() throws Exception {
+        mFile.delete();
+        assertNull(AlarmListSnapshot.read(mFile));
+    }
+
+    @Test
+    public void fiveHundredAlarms_readBack() throws Exception {
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>();
+        for (int i = 0; i < 500; i++)
+            alarms.add(buildAlarm(i + 1, i % 24, 0, HOUR, Connection.WIFI, Calendar.MONDAY));
+        AlarmListSnapshot.write(mFile, AlarmListSnapshot.encode(alarms));
+
+        AlarmListSnapshot snapshot = AlarmListSnapshot.read(mFile);
+        assertNotNull(snapshot);
+        assertEquals(AlarmListSnapshot.HEADER_SIZE + 500 * AlarmListSnapshot.RECORD_SIZE, mFile.length());
+        assertEquals(500, snapshot.getAlarms().size());
+        assertTrue(snapshot.isSnapshotOf(alarms));
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(length);
+        file.close();
+    }
+}
@@ -0,0 +1,26 @@
+package io.mdevlab.unconnectify.jobs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test of the job changes of AlarmScheduler, which will execute on the development machine (host).
+ * The calls to the JobManager made by an editing session are counted by AlarmSchedulerRescheduleTest
+ */
+public class AlarmSchedulerTest {
+
+    private static final long FIRE_AT = 1490000000000L;
+
+    @Test
+    public void getJobChange() throws Exception {
+        assertEquals(AlarmScheduler.KEEP_JOB, AlarmScheduler.getJobChange(FIRE_AT, 1, FIRE_AT, 1));
+        assertEquals(AlarmScheduler.ARM_JOB, AlarmScheduler.getJobChange(FIRE_AT, 1, FIRE_AT + 60000, 1));
+        assertEquals(AlarmScheduler.ARM_JOB, AlarmScheduler.getJobChange(0, 0, FIRE_AT, 1));
+        assertEquals(AlarmScheduler.CANCEL_JOB, AlarmScheduler.getJobChange(FIRE_AT, 1, 0, 0));
+        assertEquals(AlarmScheduler.KEEP_JOB, AlarmScheduler.getJobChange(0, 0, 0, 0));
+
+        // Same fire time, the snapshot of the due alarms changed
+        assertEquals(AlarmScheduler.ARM_JOB, AlarmScheduler.getJobChange(FIRE_AT, 1, FIRE_AT, 2));
+    }
+}
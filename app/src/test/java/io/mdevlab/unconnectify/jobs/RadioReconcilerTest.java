@@ -0,0 +1,165 @@
+package io.mdevlab.unconnectify.jobs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.schedule.ConflictIndex;
+import io.mdevlab.unconnectify.schedule.WeekTime;
+import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.ConnectionSet;
+
+import static io.mdevlab.unconnectify.TestAlarms.buildAlarm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the rule of RadioReconciler, which will execute on the development machine (host).
+ * It replays a day of overlapping alarms, running every transition on its own as the job
+ * used to and reconciling the due transitions, and compares the radio toggles of both ways
+ * as well as the minutes a radio is on while an alarm is running for it
+ */
+public class RadioReconcilerTest {
+
+    private static final int WIFI = ConnectionSet.maskOf(Connection.WIFI);
+    private static final int BLUETOOTH = ConnectionSet.maskOf(Connection.BLUETOOTH);
+    private static final long HOUR = 3600000L;
+
+    // Marks the minutes at which the state of the radios is set
+    private static final int STATE_SET = 0x100;
+
+    @Test
+    public void rule_offWinsOverOn() throws Exception {
+        // Wifi is re-enabled by a transition while another alarm is running for it
+        int desiredOn = RadioReconciler.desiredOn(WIFI | BLUETOOTH, WIFI);
+        int desiredOff = RadioReconciler.desiredOff(WIFI | BLUETOOTH, WIFI);
+
+        assertEquals(BLUETOOTH, desiredOn);
+        assertEquals(WIFI, desiredOff);
+    }
+
+    @Test
+    public void rule_onlyTogglesTheRadiosInTheWrongState() throws Exception {
+        // Wifi must be off and is on, bluetooth must be on and is already on
+        assertEquals(WIFI, RadioReconciler.toggles(BLUETOOTH, WIFI, WIFI | BLUETOOTH));
+        assertEquals(0, RadioReconciler.toggles(BLUETOOTH, WIFI, BLUETOOTH));
+    }
+
+    @Test
+    public void correct_undoesTheStaleTogglesOfTheSnapshot() throws Exception {
+        // The snapshot turned wifi and bluetooth off, the alarm handling wifi was deleted since
+        RadioReconciler.DesiredState applied = new RadioReconciler.DesiredState(0, WIFI | BLUETOOTH);
+        RadioReconciler.DesiredState desired = new RadioReconciler.DesiredState(0, BLUETOOTH);
+        RadioReconciler.DesiredState corrected = RadioReconciler.correct(applied, WIFI | BLUETOOTH, desired);
+        assertEquals(WIFI, corrected.on);
+        assertEquals(BLUETOOTH, corrected.off);
+
+        // Wifi was already off before the snapshot, it's left off
+        corrected = RadioReconciler.correct(applied, BLUETOOTH, desired);
+        assertEquals(0, corrected.on);
+        assertEquals(BLUETOOTH, corrected.off);
+
+        // The snapshot turned wifi on, an alarm now running for it was created since
+        applied = new RadioReconciler.DesiredState(WIFI, 0);
+        desired = new RadioReconciler.DesiredState(0, WIFI);
+        corrected = RadioReconciler.correct(applied, WIFI, desired);
+        assertEquals(0, corrected.on);
+        assertEquals(WIFI, corrected.off);
+    }
+
+    @Test
+    public void overlappingAlarms_perTransitionVersusReconciled() throws Exception {
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>();
+
+        // Back to back alarms on wifi, and two alarms overlapping on wifi and bluetooth
+        alarms.add(buildAlarm(1, 8, 0, 2 * HOUR, ConnectionSet.fromMask(WIFI), Calendar.WEDNESDAY));
+        alarms.add(buildAlarm(2, 10, 0, 2 * HOUR, ConnectionSet.fromMask(WIFI), Calendar.WEDNESDAY));
+        alarms.add(buildAlarm(3, 14, 0, 2 * HOUR, ConnectionSet.fromMask(WIFI | BLUETOOTH), Calendar.WEDNESDAY));
+        alarms.add(buildAlarm(4, 15, 0, 2 * HOUR, ConnectionSet.fromMask(WIFI | BLUETOOTH), Calendar.WEDNESDAY));
+        alarms.add(buildAlarm(5, 15, 30, HOUR / 2, ConnectionSet.fromMask(BLUETOOTH), Calendar.WEDNESDAY));
+        TimeZone zone = TimeZone.getDefault();
+        ConflictIndex index = ConflictIndex.build(alarms, zone);
+
+        // Transitions of the day by minute, in the order of the alarms: the mask of the
+        // connections they handle and whether they enable them
+        TreeMap<Integer, List<int[]>> transitions = new TreeMap<>();
+        for (PreciseConnectivityAlarm alarm : alarms) {
+            int start = WeekTime.minuteOfWeek(Calendar.WEDNESDAY, WeekTime.minuteOfDay(alarm.getStartTime(), zone));
+            int end = start + (int) (alarm.getDuration() / WeekTime.MILLIS_PER_MINUTE);
+            transitionsAt(transitions, start).add(new int[]{alarm.getConnections().getMask(), 0});
+            transitionsAt(transitions, end).add(new int[]{alarm.getConnections().getMask(), 1});
+        }
+
+        // Before: every transition runs on its own
+        int enabled = WIFI | BLUETOOTH;
+        int perTransitionToggles = 0;
+        int[] perTransitionStates = new int[WeekTime.MINUTES_PER_WEEK];
+        for (Map.Entry<Integer, List<int[]>> entry : transitions.entrySet()) {
+            for (int[] transition : entry.getValue()) {
+                int toggles = transition[1] == 1 ? transition[0] & ~enabled : transition[0] & enabled;
+                perTransitionToggles += Integer.bitCount(toggles);
+                enabled ^= toggles;
+            }
+            perTransitionStates[entry.getKey()] = enabled | STATE_SET;
+        }
+        int perTransitionWrongMinutes = wrongMinutes(perTransitionStates, index);
+
+        // After: the due transitions are reconciled with all the alarms
+        enabled = WIFI | BLUETOOTH;
+        int reconciledToggles = 0;
+        int[] reconciledStates = new int[WeekTime.MINUTES_PER_WEEK];
+        for (Map.Entry<Integer, List<int[]>> entry : transitions.entrySet()) {
+            int handled = 0;
+            int enabling = 0;
+            for (int[] transition : entry.getValue()) {
+                handled |= transition[0];
+                if (transition[1] == 1)
+                    enabling |= transition[0];
+            }
+            int occupied = index.getOccupiedConnections(entry.getKey());
+            int toggles = RadioReconciler.toggles(RadioReconciler.desiredOn(enabling, occupied),
+                    RadioReconciler.desiredOff(handled, occupied), enabled);
+            reconciledToggles += Integer.bitCount(toggles);
+            enabled ^= toggles;
+            reconciledStates[entry.getKey()] = enabled | STATE_SET;
+        }
+        int reconciledWrongMinutes = wrongMinutes(reconciledStates, index);
+
+        // Wifi: off at 08:00, on at 12:00, off at 14:00, on at 17:00. Bluetooth: off at 14:00, on at 17:00
+        assertEquals(6, reconciledToggles);
+        assertEquals(0, reconciledWrongMinutes);
+        assertTrue(perTransitionToggles > reconciledToggles);
+        assertTrue(perTransitionWrongMinutes > 0);
+    }
+
+    private List<int[]> transitionsAt(TreeMap<Integer, List<int[]>> transitions, int minute) {
+        List<int[]> transitionsOfMinute = transitions.get(minute);
+        if (transitionsOfMinute == null) {
+            transitionsOfMinute = new ArrayList<>();
+            transitions.put(minute, transitionsOfMinute);
+        }
+        return transitionsOfMinute;
+    }
+
+    /**
+     * @param states: State of the radios set at each minute with a transition, with the bit STATE_SET
+     * @return: The number of minutes a radio is on while an alarm is running for it
+     */
+    private int wrongMinutes(int[] states, ConflictIndex index) {
+        int wrongMinutes = 0;
+        int enabled = WIFI | BLUETOOTH;
+        for (int minute = 0; minute < WeekTime.MINUTES_PER_WEEK; minute++) {
+            if (states[minute] != 0)
+                enabled = states[minute] & ~STATE_SET;
+            if ((enabled & index.getOccupiedConnections(minute)) != 0)
+                wrongMinutes++;
+        }
+        return wrongMinutes;
+    }
+}
@@ -0,0 +1,153 @@
+package io.mdevlab.unconnectify.schedule;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+import io.mdevlab.unconnectify.utils.ConnectionSet;
+
+import static io.mdevlab.unconnectify.TestAlarms.buildAlarm;
+import static io.mdevlab.unconnectify.TestAlarms.listOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of ConflictIndex, which will execute on the development machine (host).
+ * The minutes covered by the index are also checked against a scan of every alarm over 1k alarms
+ */
+public class ConflictIndexTest {
+
+    private static final long HOUR = 3600000L;
+    private static final int RANDOM_ALARMS = 1000;
+    private static final int RANDOM_CHECKS = 10000;
+
+    @Test
+    public void isOccupied_overlappingAlarmsOnTheSameDay() throws Exception {
+        PreciseConnectivityAlarm morning = buildAlarm(1, 8, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm lateMorning = buildAlarm(2, 9, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm tuesday = buildAlarm(3, 9, 0, 2 * HOUR, Connection.WIFI, Calendar.TUESDAY);
+        PreciseConnectivityAlarm bluetooth = buildAlarm(4, 9, 0, 2 * HOUR, Connection.BLUETOOTH, Calendar.MONDAY);
+        ConflictIndex index = ConflictIndex.build(listOf(morning, lateMorning, tuesday, bluetooth), TimeZone.getDefault());
+
+        // The wifi is handled from the start of the morning alarm (08:00) to the end of the late morning alarm (11:00)
+        assertFalse(index.isOccupied(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 8 * 60 - 1)));
+        assertTrue(index.isOccupied(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 8 * 60)));
+        assertTrue(index.isOccupied(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 11 * 60 - 1)));
+        assertFalse(index.isOccupied(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 11 * 60)));
+
+        // The wifi and the bluetooth are both handled at 10:00
+        int mondayAtTen = WeekTime.minuteOfWeek(Calendar.MONDAY, 10 * 60);
+        assertEquals(ConnectionSet.maskOf(Connection.WIFI) | ConnectionSet.maskOf(Connection.BLUETOOTH),
+                index.getOccupiedConnections(mondayAtTen));
+
+        // Only the wifi is handled on tuesdays
+        assertEquals(ConnectionSet.maskOf(Connection.WIFI),
+                index.getOccupiedConnections(WeekTime.minuteOfWeek(Calendar.TUESDAY, 10 * 60)));
+    }
+
+    @Test
+    public void isOccupied_acrossMidnightAndEndOfWeek() throws Exception {
+        PreciseConnectivityAlarm saturdayNight = buildAlarm(1, 23, 0, 3 * HOUR, Connection.HOTSPOT, Calendar.SATURDAY);
+        PreciseConnectivityAlarm mondayNight = buildAlarm(2, 23, 30, HOUR, Connection.HOTSPOT, Calendar.MONDAY);
+        ConflictIndex index = ConflictIndex.build(listOf(saturdayNight, mondayNight), TimeZone.getDefault());
+
+        // The saturday alarm runs until sunday 02:00, past the end of the week
+        assertTrue(index.isOccupied(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.SATURDAY, 23 * 60 + 59)));
+        assertTrue(index.isOccupied(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.SUNDAY, 0)));
+        assertTrue(index.isOccupied(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.SUNDAY, 90)));
+        assertFalse(index.isOccupied(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.SUNDAY, 120)));
+
+        // The monday alarm runs until tuesday 00:30
+        assertTrue(index.isOccupied(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.TUESDAY, 15)));
+        assertFalse(index.isOccupied(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.TUESDAY, 30)));
+    }
+
+    @Test
+    public void isOccupied_inTheTimeZoneOfTheIndex() throws Exception {
+        PreciseConnectivityAlarm morning = buildAlarm(1, 8, 0, HOUR, Connection.WIFI, Calendar.MONDAY);
+
+        // Two hours east of the zone the alarm was set in, it starts at 10:00
+        int offset = TimeZone.getDefault().getOffset(morning.getStartTime());
+        ConflictIndex index = ConflictIndex.build(listOf(morning), new SimpleTimeZone(offset + 2 * (int) HOUR, "East"));
+
+        assertFalse(index.isOccupied(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 8 * 60)));
+        assertTrue(index.isOccupied(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 10 * 60)));
+    }
+
+    @Test
+    public void removeAndAdd_keepTheBitmapUpToDate() throws Exception {
+        PreciseConnectivityAlarm first = buildAlarm(1, 8, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm second = buildAlarm(2, 9, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        ConflictIndex index = ConflictIndex.build(listOf(first, second), TimeZone.getDefault());
+        int mondayAtNine = WeekTime.minuteOfWeek(Calendar.MONDAY, 9 * 60);
+        int mondayAtTen = WeekTime.minuteOfWeek(Calendar.MONDAY, 10 * 60);
+
+        // Removing the second alarm leaves the minutes of the first one
+        index.remove(second.getAlarmId());
+        assertTrue(index.isOccupied(Connection.WIFI, mondayAtNine));
+        assertFalse(index.isOccupied(Connection.WIFI, mondayAtTen));
+
+        // An inactive alarm isn't added
+        second.setActive(false);
+        index.add(second);
+        assertFalse(index.isOccupied(Connection.WIFI, mondayAtTen));
+
+        second.setActive(true);
+        index.add(second);
+        assertTrue(index.isOccupied(Connection.WIFI, mondayAtTen));
+
+        // The minutes covered by both alarms stay covered until both are removed
+        index.remove(first.getAlarmId());
+        assertTrue(index.isOccupied(Connection.WIFI, mondayAtNine));
+        index.remove(second.getAlarmId());
+        assertFalse(index.isOccupied(Connection.WIFI, mondayAtNine));
+    }
+
+    @Test
+    public void occupiedConnections_matchAScanOfTheAlarms() throws Exception {
+        Random random = new Random(42);
+        Connection[] connections = {Connection.WIFI, Connection.HOTSPOT, Connection.BLUETOOTH};
+        List<PreciseConnectivityAlarm> alarms = new ArrayList<>(RANDOM_ALARMS);
+        for (int i = 0; i < RANDOM_ALARMS; i++) {
+            alarms.add(buildAlarm(i, random.nextInt(24), random.nextInt(60), random.nextInt(60) * 60000L + 60000L,
+                    connections[random.nextInt(connections.length)], Calendar.SUNDAY + random.nextInt(7)));
+        }
+        ConflictIndex index = ConflictIndex.build(alarms, TimeZone.getDefault());
+
+        for (int i = 0; i < RANDOM_CHECKS; i++) {
+            int minute = random.nextInt(WeekTime.MINUTES_PER_WEEK);
+
+            int scanMask = 0;
+            for (PreciseConnectivityAlarm alarm : alarms) {
+                if (covers(alarm, minute))
+                    scanMask |= alarm.getConnectionsMask();
+            }
+            assertEquals(scanMask, index.getOccupiedConnections(minute));
+        }
+    }
+
+    /**
+     * @return: Whether the alarm handles its connections during the minute, computed with a Calendar
+     */
+    private boolean covers(PreciseConnectivityAlarm alarm, int minuteOfWeek) {
+        Calendar startTime = Calendar.getInstance();
+        startTime.setTimeInMillis(alarm.getStartTime());
+        int startMinuteOfDay = startTime.get(Calendar.HOUR_OF_DAY) * 60 + startTime.get(Calendar.MINUTE);
+        long length = Math.max(1, alarm.getDuration() / 60000L);
+
+        for (int day : alarm.getDays()) {
+            int start = WeekTime.minuteOfWeek(day, startMinuteOfDay);
+            if ((minuteOfWeek - start + WeekTime.MINUTES_PER_WEEK) % WeekTime.MINUTES_PER_WEEK < length)
+                return true;
+        }
+        return false;
+    }
+}
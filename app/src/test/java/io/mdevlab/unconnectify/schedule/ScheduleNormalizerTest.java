@@ -0,0 +1,161 @@
+package io.mdevlab.unconnectify.schedule;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+import io.mdevlab.unconnectify.utils.Connection;
+
+import static io.mdevlab.unconnectify.TestAlarms.buildAlarm;
+import static io.mdevlab.unconnectify.TestAlarms.listOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of ScheduleNormalizer, which will execute on the development machine (host).
+ */
+public class ScheduleNormalizerTest {
+
+    private static final long HOUR = 3600000L;
+
+    @Test
+    public void overlappingNightAlarms_mergedIntoOneWindow() throws Exception {
+        Integer[] weekDays = {Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY, Calendar.THURSDAY, Calendar.FRIDAY};
+        PreciseConnectivityAlarm night = buildAlarm(1, 22, 0, 9 * HOUR, Connection.WIFI, weekDays);
+        PreciseConnectivityAlarm shorterNight = buildAlarm(2, 23, 0, 7 * HOUR, Connection.WIFI, weekDays);
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(night, shorterNight), TimeZone.getDefault());
+
+        // One window per night, from 22:00 to 07:00, re-enabling wifi at its end
+        assertEquals(5, schedule.getWindowCount(Connection.WIFI));
+        assertEquals(WeekTime.minuteOfWeek(Calendar.MONDAY, 22 * 60), schedule.getWindowStart(Connection.WIFI, 0));
+        assertEquals(9 * 60, schedule.getWindowLength(Connection.WIFI, 0));
+        assertTrue(schedule.enablesAtEnd(Connection.WIFI, 0));
+
+        // The transitions of the shorter alarm are inside the windows
+        assertTrue(schedule.hasTransition(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 22 * 60), false));
+        assertTrue(schedule.hasTransition(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.TUESDAY, 7 * 60), true));
+        assertFalse(schedule.hasTransition(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.MONDAY, 23 * 60), false));
+        assertFalse(schedule.hasTransition(Connection.WIFI, WeekTime.minuteOfWeek(Calendar.TUESDAY, 6 * 60), true));
+
+        // 22:00, 23:00, 06:00 and 07:00 every night before, 22:00 and 07:00 after
+        assertEquals(20, schedule.getJobsBefore());
+        assertEquals(10, schedule.getJobsAfter());
+        assertEquals(20, schedule.getTogglesBefore());
+        assertEquals(10, schedule.getTogglesAfter());
+    }
+
+    @Test
+    public void adjacentAlarms_mergedOnTheSameConnectionOnly() throws Exception {
+        PreciseConnectivityAlarm morning = buildAlarm(1, 8, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm lateMorning = buildAlarm(2, 10, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm bluetooth = buildAlarm(3, 10, 0, 2 * HOUR, Connection.BLUETOOTH, Calendar.MONDAY);
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(morning, lateMorning, bluetooth), TimeZone.getDefault());
+
+        // Wifi is off from 08:00 to 12:00 without being toggled at 10:00
+        int mondayAtTen = WeekTime.minuteOfWeek(Calendar.MONDAY, 10 * 60);
+        assertEquals(1, schedule.getWindowCount(Connection.WIFI));
+        assertEquals(WeekTime.minuteOfWeek(Calendar.MONDAY, 8 * 60), schedule.getWindowStart(Connection.WIFI, 0));
+        assertEquals(4 * 60, schedule.getWindowLength(Connection.WIFI, 0));
+        assertFalse(schedule.hasTransition(Connection.WIFI, mondayAtTen, true));
+        assertFalse(schedule.hasTransition(Connection.WIFI, mondayAtTen, false));
+
+        // Bluetooth keeps its own window
+        assertEquals(1, schedule.getWindowCount(Connection.BLUETOOTH));
+        assertTrue(schedule.hasTransition(Connection.BLUETOOTH, mondayAtTen, false));
+        assertEquals(0, schedule.getWindowCount(Connection.HOTSPOT));
+    }
+
+    @Test
+    public void minutesToNextTransition() throws Exception {
+        PreciseConnectivityAlarm morning = buildAlarm(1, 8, 0, 2 * HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm bluetooth = buildAlarm(2, 9, 0, 2 * HOUR, Connection.BLUETOOTH, Calendar.MONDAY);
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(morning, bluetooth), TimeZone.getDefault());
+
+        // From monday 08:00, bluetooth is disabled next at 09:00
+        assertEquals(60, schedule.getMinutesToNextTransition(WeekTime.minuteOfWeek(Calendar.MONDAY, 8 * 60)));
+
+        // From monday 11:00, wifi is disabled next on the monday after
+        int mondayAtEleven = WeekTime.minuteOfWeek(Calendar.MONDAY, 11 * 60);
+        assertEquals(WeekTime.MINUTES_PER_WEEK - 3 * 60, schedule.getMinutesToNextTransition(mondayAtEleven));
+
+        assertEquals(-1, ScheduleNormalizer.normalize(new ArrayList<PreciseConnectivityAlarm>(), TimeZone.getDefault()).getMinutesToNextTransition(0));
+    }
+
+    @Test
+    public void nextTransitionTime_skipsTransitionsInsideWindows() throws Exception {
+        PreciseConnectivityAlarm night = buildAlarm(1, 22, 0, 9 * HOUR, Connection.WIFI, Calendar.TUESDAY);
+        PreciseConnectivityAlarm shorterNight = buildAlarm(2, 23, 0, 7 * HOUR, Connection.WIFI, Calendar.TUESDAY);
+        TimeZone zone = TimeZone.getDefault();
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(night, shorterNight), zone);
+
+        assertEquals(at(Calendar.TUESDAY, 22, 0), schedule.getNextTransitionTime(at(Calendar.TUESDAY, 21, 0), zone));
+
+        // From the start of the window, 23:00 and 06:00 don't change the state of wifi
+        assertEquals(at(Calendar.WEDNESDAY, 7, 0), schedule.getNextTransitionTime(at(Calendar.TUESDAY, 22, 0), zone));
+
+        // Within the minute of the last transition of the week, the next one is on the tuesday after
+        assertEquals(at(Calendar.TUESDAY, 22, 0) + 7 * 24 * HOUR,
+                schedule.getNextTransitionTime(at(Calendar.WEDNESDAY, 7, 0) + 30000, zone));
+
+        assertEquals(-1, ScheduleNormalizer.normalize(new ArrayList<PreciseConnectivityAlarm>(), zone)
+                .getNextTransitionTime(at(Calendar.TUESDAY, 21, 0), zone));
+    }
+
+    @Test
+    public void windowAcrossTheEndOfTheWeek() throws Exception {
+        PreciseConnectivityAlarm saturdayNight = buildAlarm(1, 23, 0, 3 * HOUR, Connection.HOTSPOT, Calendar.SATURDAY);
+        PreciseConnectivityAlarm sundayNight = buildAlarm(2, 1, 0, 2 * HOUR, Connection.HOTSPOT, Calendar.SUNDAY);
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(saturdayNight, sundayNight), TimeZone.getDefault());
+
+        // Saturday 23:00 to sunday 03:00, one window wrapping past the end of the week
+        assertEquals(1, schedule.getWindowCount(Connection.HOTSPOT));
+        assertEquals(WeekTime.minuteOfWeek(Calendar.SATURDAY, 23 * 60), schedule.getWindowStart(Connection.HOTSPOT, 0));
+        assertEquals(4 * 60, schedule.getWindowLength(Connection.HOTSPOT, 0));
+        assertTrue(schedule.hasTransition(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.SUNDAY, 3 * 60), true));
+        assertFalse(schedule.hasTransition(Connection.HOTSPOT, WeekTime.minuteOfWeek(Calendar.SUNDAY, 2 * 60), true));
+    }
+
+    @Test
+    public void alarmWithoutEnd_windowDoesNotReEnable() throws Exception {
+        PreciseConnectivityAlarm morning = buildAlarm(1, 8, 0, HOUR, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm withoutEnd = buildAlarm(2, 9, 0, 1, Connection.WIFI, Calendar.MONDAY);
+        PreciseConnectivityAlarm inactive = buildAlarm(3, 12, 0, HOUR, Connection.WIFI, Calendar.MONDAY);
+        inactive.setActive(false);
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(morning, withoutEnd, inactive), TimeZone.getDefault());
+
+        // The alarm without end disables wifi at 09:00, right when the morning alarm would re-enable it
+        assertEquals(1, schedule.getWindowCount(Connection.WIFI));
+        assertEquals(61, schedule.getWindowLength(Connection.WIFI, 0));
+        assertFalse(schedule.enablesAtEnd(Connection.WIFI, 0));
+        assertEquals(1, schedule.getTogglesAfter());
+    }
+
+    @Test
+    public void wholeWeekCovered_noTransition() throws Exception {
+        PreciseConnectivityAlarm everyDay = buildAlarm(1, 0, 0, 24 * HOUR, Connection.WIFI,
+                Calendar.SUNDAY, Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY,
+                Calendar.THURSDAY, Calendar.FRIDAY, Calendar.SATURDAY);
+        NormalizedSchedule schedule = ScheduleNormalizer.normalize(listOf(everyDay), TimeZone.getDefault());
+
+        assertEquals(1, schedule.getWindowCount(Connection.WIFI));
+        assertEquals(WeekTime.MINUTES_PER_WEEK, schedule.getWindowLength(Connection.WIFI, 0));
+        assertFalse(schedule.hasTransition(Connection.WIFI, 0, false));
+        assertEquals(-1, schedule.getNextTransitionTime(System.currentTimeMillis(), TimeZone.getDefault()));
+        assertEquals(0, schedule.getTogglesAfter());
+    }
+
+    /**
+     * @return: The time of the given day of the week of 2017-03-22 at the given hour and minute
+     */
+    private static long at(int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2017, Calendar.MARCH, 22, hour, minute);
+        calendar.add(Calendar.DAY_OF_MONTH, day - Calendar.WEDNESDAY);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,217 @@
+package io.mdevlab.unconnectify.schedule;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.utils.DateUtils;
+import io.mdevlab.unconnectify.utils.DaySet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of WeekTime, which will execute on the development machine (host).
+ * Every minute of a year is checked against Calendar in zones with and without daylight
+ * saving time (including a 30 minutes one), as well as the next occurrences around the changes
+ * <p>
+ * The minute of the day of a time is also checked against the "HH:mm" round trip of DateUtils,
+ * WeekTime allocating nothing
+ */
+public class WeekTimeTest {
+
+    private static final String[] ZONES = {"UTC", "Europe/Paris", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe"};
+    private static final long MINUTE = WeekTime.MILLIS_PER_MINUTE;
+    private static final long HOUR = 60 * MINUTE;
+    private static final int RUNS = 200000;
+
+    @Test
+    public void minuteOfWeek_matchesCalendarEveryMinuteOfTheYear() throws Exception {
+        for (String zoneId : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            Calendar calendar = Calendar.getInstance(zone);
+            long start = startOfYear(2017, zone);
+            long end = startOfYear(2018, zone);
+
+            for (long time = start; time < end; time += MINUTE) {
+                calendar.setTimeInMillis(time);
+                int minuteOfDay = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+                int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+
+                if (WeekTime.minuteOfDay(time, zone) != minuteOfDay || WeekTime.dayOfWeek(time, zone) != dayOfWeek)
+                    assertEquals(zoneId + " at " + time, dayOfWeek * 10000 + minuteOfDay,
+                            WeekTime.dayOfWeek(time, zone) * 10000 + WeekTime.minuteOfDay(time, zone));
+                assertEquals(WeekTime.minuteOfWeek(dayOfWeek, minuteOfDay), WeekTime.minuteOfWeek(time, zone));
+            }
+        }
+    }
+
+    @Test
+    public void minuteOfDay_beforeEpoch() throws Exception {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+
+        // 1969-12-31 23:59, a wednesday
+        assertEquals(23 * 60 + 59, WeekTime.minuteOfDay(-MINUTE, utc));
+        assertEquals(Calendar.WEDNESDAY, WeekTime.dayOfWeek(-MINUTE, utc));
+        assertEquals(Calendar.THURSDAY, WeekTime.dayOfWeek(0, utc));
+    }
+
+    @Test
+    public void nextOccurrence_matchesCalendar() throws Exception {
+        Random random = new Random(7);
+        for (String zoneId : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            long start = startOfYear(2017, zone);
+
+            for (int i = 0; i < 5000; i++) {
+                long from = start + (long) (random.nextDouble() * 365 * 24 * HOUR);
+                int minuteOfDay = random.nextInt(WeekTime.MINUTES_PER_DAY);
+                int daysMask = random.nextInt(DaySet.ALL_DAYS + 1) & DaySet.ALL_DAYS;
+
+                long expected = referenceNextOccurrence(from, minuteOfDay, daysMask, zone);
+                assertEquals(zoneId + " from " + from + " at " + minuteOfDay + " on " + daysMask,
+                        expected, WeekTime.nextOccurrence(from, minuteOfDay, daysMask, zone));
+            }
+        }
+    }
+
+    @Test
+    public void nextOccurrence_acrossDaylightSavingChanges() throws Exception {
+        TimeZone paris = TimeZone.getTimeZone("Europe/Paris");
+        int sunday = DaySet.maskOf(Calendar.SUNDAY);
+
+        // 2017-03-26: 02:00 becomes 03:00, 02:30 doesn't exist and is moved to 03:30
+        long saturdayNoon = localTime(2017, Calendar.MARCH, 25, 12, 0, paris);
+        long gap = WeekTime.nextOccurrence(saturdayNoon, 2 * 60 + 30, sunday, paris);
+        assertEquals(localTime(2017, Calendar.MARCH, 26, 3, 30, paris), gap);
+
+        // 08:00 on that day is 19 hours after saturday noon instead of 20
+        long morning = WeekTime.nextOccurrence(saturdayNoon, 8 * 60, sunday, paris);
+        assertEquals(19 * HOUR, morning - saturdayNoon);
+        assertEquals(8 * 60, WeekTime.minuteOfDay(morning, paris));
+
+        // 2017-10-29: 03:00 becomes 02:00, 02:30 happens twice and the first one is kept
+        saturdayNoon = localTime(2017, Calendar.OCTOBER, 28, 12, 0, paris);
+        long overlap = WeekTime.nextOccurrence(saturdayNoon, 2 * 60 + 30, sunday, paris);
+        assertEquals(2 * 60 + 30, WeekTime.minuteOfDay(overlap, paris));
+        assertEquals(2 * 60 + 30, WeekTime.minuteOfDay(overlap + HOUR, paris));
+        assertEquals(2 * HOUR, paris.getOffset(overlap));
+
+        // From the first 02:30, the next one is a week later, not an hour later
+        assertEquals(7 * 24 * HOUR + HOUR, WeekTime.nextOccurrence(overlap, 2 * 60 + 30, sunday, paris) - overlap);
+
+        // 08:00 on that day is 21 hours after saturday noon instead of 20
+        morning = WeekTime.nextOccurrence(saturdayNoon, 8 * 60, sunday, paris);
+        assertEquals(21 * HOUR, morning - saturdayNoon);
+    }
+
+    @Test
+    public void nextOccurrence_halfHourDaylightSavingChange() throws Exception {
+        TimeZone lordHowe = TimeZone.getTimeZone("Australia/Lord_Howe");
+
+        // 2017-10-01: 02:00 becomes 02:30
+        long saturdayNoon = localTime(2017, Calendar.SEPTEMBER, 30, 12, 0, lordHowe);
+        long gap = WeekTime.nextOccurrence(saturdayNoon, 2 * 60 + 15, DaySet.maskOf(Calendar.SUNDAY), lordHowe);
+        assertEquals(2 * 60 + 45, WeekTime.minuteOfDay(gap, lordHowe));
+    }
+
+    @Test
+    public void nextOccurrence_withoutDays() throws Exception {
+        assertEquals(-1, WeekTime.nextOccurrence(0, 0, 0, TimeZone.getTimeZone("UTC")));
+    }
+
+    @Test
+    public void atMinuteOfDay_staysOnTheSameDay() throws Exception {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        long evening = localTime(2017, Calendar.MARCH, 12, 22, 0, newYork);
+
+        // 2017-03-12: 02:00 becomes 03:00, 01:00 is 20 hours before 22:00 instead of 21
+        long night = WeekTime.atMinuteOfDay(evening, 60, newYork);
+        assertEquals(localTime(2017, Calendar.MARCH, 12, 1, 0, newYork), night);
+        assertEquals(20 * HOUR, evening - night);
+    }
+
+    @Test
+    public void minuteOfDay_matchesTheStringRoundTripWithoutAllocating() throws Exception {
+        TimeZone zone = TimeZone.getDefault();
+        long time = System.currentTimeMillis();
+        long checksum = 0;
+
+        // The "HH:mm" round trip of DateUtils: format, split and parse
+        for (int i = 0; i < RUNS; i++) {
+            String formatted = DateUtils.getTimeFromLong(time + i * MINUTE);
+            checksum += Integer.parseInt(formatted.split(":")[0]) * 60 + Integer.parseInt(formatted.split(":")[1]);
+        }
+
+        // Integer arithmetic on the offset of the zone
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < RUNS; i++)
+            checksum -= WeekTime.minuteOfDay(time + i * MINUTE, zone);
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        assertEquals(0, checksum);
+        if (allocatedBefore >= 0)
+            assertTrue(allocated < RUNS);
+    }
+
+    /**
+     * Method that looks for the next occurrence with Calendar, day after day
+     * An ambiguous wall time is resolved to its first occurrence, like WeekTime does
+     */
+    private long referenceNextOccurrence(long from, int minuteOfDay, int daysMask, TimeZone zone) {
+        if (daysMask == 0)
+            return -1;
+
+        Calendar calendar = Calendar.getInstance(zone);
+        for (int i = 0; i <= 8; i++) {
+            calendar.setTimeInMillis(from);
+            calendar.set(Calendar.HOUR_OF_DAY, 12);
+            calendar.add(Calendar.DAY_OF_MONTH, i);
+            if ((daysMask & (1 << calendar.get(Calendar.DAY_OF_WEEK))) == 0)
+                continue;
+
+            calendar.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+            calendar.set(Calendar.MINUTE, minuteOfDay % 60);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            long candidate = calendar.getTimeInMillis();
+
+            // Calendar resolves an ambiguous wall time to its second occurrence
+            long shift = zone.getOffset(candidate - 12 * HOUR) - zone.getOffset(candidate);
+            if (shift > 0 && WeekTime.minuteOfDay(candidate - shift, zone) == minuteOfDay)
+                candidate -= shift;
+
+            if (candidate > from)
+                return candidate;
+        }
+        return -1;
+    }
+
+    private long startOfYear(int year, TimeZone zone) {
+        return localTime(year, Calendar.JANUARY, 1, 0, 0, zone);
+    }
+
+    private long localTime(int year, int month, int day, int hour, int minute, TimeZone zone) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return: Bytes allocated so far by the current thread, -1 if the JVM can't tell
+     */
+    private long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled())
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
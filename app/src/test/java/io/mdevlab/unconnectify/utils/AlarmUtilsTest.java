@@ -0,0 +1,88 @@
+package io.mdevlab.unconnectify.utils;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import io.mdevlab.unconnectify.alarm.PreciseConnectivityAlarm;
+
+import static io.mdevlab.unconnectify.TestAlarms.buildAlarm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test of the transitions computed by AlarmUtils, which will execute on the development machine (host).
+ * The times are taken in the week of wednesday 2017-03-22, in the default time zone
+ */
+public class AlarmUtilsTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void overnightAlarm_runsAfterMidnight() throws Exception {
+        PreciseConnectivityAlarm alarm = buildAlarm(1, 23, 0, 8 * HOUR, Connection.WIFI, Calendar.TUESDAY);
+        long now = at(Calendar.WEDNESDAY, 1, 0);
+
+        // Started on tuesday at 23:00, the next transition re-enables the connections at 07:00
+        assertTrue(AlarmUtils.isAlarmRunning(alarm, now));
+        assertEquals(at(Calendar.TUESDAY, 23, 0), AlarmUtils.getRunningStartTime(alarm, now));
+        assertEquals(6 * HOUR, AlarmUtils.getAlarmExecutionTime(alarm, false, now));
+    }
+
+    @Test
+    public void overnightAlarm_notRunningOnceOver() throws Exception {
+        PreciseConnectivityAlarm alarm = buildAlarm(1, 23, 0, 8 * HOUR, Connection.WIFI, Calendar.TUESDAY);
+        long now = at(Calendar.WEDNESDAY, 8, 0);
+
+        // The next transition is the start of next tuesday
+        assertFalse(AlarmUtils.isAlarmRunning(alarm, now));
+        assertEquals(at(Calendar.TUESDAY, 23, 0) + TimeUnit.DAYS.toMillis(7) - now,
+                AlarmUtils.getAlarmExecutionTime(alarm, false, now));
+    }
+
+    @Test
+    public void overnightAlarm_notRunningAfterAnotherDay() throws Exception {
+
+        // Wednesday isn't a day of the alarm, the 23:00 of tuesday didn't start it
+        PreciseConnectivityAlarm alarm = buildAlarm(1, 23, 0, 8 * HOUR, Connection.WIFI, Calendar.WEDNESDAY);
+        long now = at(Calendar.WEDNESDAY, 1, 0);
+
+        assertFalse(AlarmUtils.isAlarmRunning(alarm, now));
+        assertEquals(22 * HOUR, AlarmUtils.getAlarmExecutionTime(alarm, false, now));
+    }
+
+    @Test
+    public void dayAlarm_runsBetweenStartAndEnd() throws Exception {
+        PreciseConnectivityAlarm alarm = buildAlarm(1, 9, 0, 2 * HOUR, Connection.WIFI, Calendar.WEDNESDAY);
+
+        assertFalse(AlarmUtils.isAlarmRunning(alarm, at(Calendar.WEDNESDAY, 9, 0)));
+        assertTrue(AlarmUtils.isAlarmRunning(alarm, at(Calendar.WEDNESDAY, 10, 0)));
+        assertFalse(AlarmUtils.isAlarmRunning(alarm, at(Calendar.WEDNESDAY, 11, 0)));
+        assertEquals(HOUR, AlarmUtils.getAlarmExecutionTime(alarm, false, at(Calendar.WEDNESDAY, 10, 0)));
+
+        // While the day is being updated, the next trigger is the next start
+        assertEquals(TimeUnit.DAYS.toMillis(7) - HOUR, AlarmUtils.getAlarmExecutionTime(alarm, true, at(Calendar.WEDNESDAY, 10, 0)));
+    }
+
+    @Test
+    public void alarmWithoutEnd_neverRuns() throws Exception {
+        PreciseConnectivityAlarm alarm = buildAlarm(1, 23, 0, 1, Connection.WIFI, Calendar.TUESDAY, Calendar.WEDNESDAY);
+
+        assertFalse(AlarmUtils.isAlarmRunning(alarm, at(Calendar.TUESDAY, 23, 0)));
+        assertFalse(AlarmUtils.isAlarmRunning(alarm, at(Calendar.WEDNESDAY, 1, 0)));
+        assertEquals(22 * HOUR, AlarmUtils.getAlarmExecutionTime(alarm, false, at(Calendar.WEDNESDAY, 1, 0)));
+    }
+
+    /**
+     * @return: The time of the given day of the week of 2017-03-22 at the given hour and minute
+     */
+    private static long at(int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2017, Calendar.MARCH, 22, hour, minute);
+        calendar.add(Calendar.DAY_OF_MONTH, day - Calendar.WEDNESDAY);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,88 @@
+package io.mdevlab.unconnectify.utils;
+
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import io.mdevlab.unconnectify.schedule.WeekTime;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test of the labels of TimeFormatter, which will execute on the development machine (host).
+ */
+public class TimeFormatterTest {
+
+    private static final int ROWS = 5000;
+
+    @Test
+    public void timeLabels_matchTheTimeFormat() throws Exception {
+        Locale[] locales = {Locale.US, Locale.FRANCE, Locale.GERMANY, Locale.JAPAN};
+        for (Locale locale : locales) {
+            DateFormat timeFormat = TimeFormatter.buildTimeFormat(DateFormat.getTimeInstance(DateFormat.SHORT, locale));
+            DateFormat reference = DateFormat.getTimeInstance(DateFormat.SHORT, locale);
+            Calendar calendar = Calendar.getInstance(reference.getTimeZone(), locale);
+
+            for (int minuteOfDay = 0; minuteOfDay < WeekTime.MINUTES_PER_DAY; minuteOfDay++) {
+                calendar.clear();
+                calendar.set(2017, Calendar.MARCH, 22, minuteOfDay / 60, minuteOfDay % 60);
+                assertEquals(locale + " at " + minuteOfDay, reference.format(calendar.getTime()),
+                        TimeFormatter.formatTimeLabel(timeFormat, minuteOfDay));
+            }
+        }
+    }
+
+    @Test
+    public void timeLabels_followThe24HourSetting() throws Exception {
+        DateFormat twelveHours = TimeFormatter.buildTimeFormat(new SimpleDateFormat("h:mm a", Locale.US));
+        DateFormat twentyFourHours = TimeFormatter.buildTimeFormat(new SimpleDateFormat("HH:mm", Locale.US));
+
+        assertEquals("6:05 PM", TimeFormatter.formatTimeLabel(twelveHours, 18 * 60 + 5));
+        assertEquals("18:05", TimeFormatter.formatTimeLabel(twentyFourHours, 18 * 60 + 5));
+        assertEquals("00:00", TimeFormatter.formatTimeLabel(twentyFourHours, 0));
+    }
+
+    @Test
+    public void dayLabels_areIndexedByCalendarDays() throws Exception {
+        String[] frenchDays = TimeFormatter.buildDayLabels(Locale.FRANCE);
+        SimpleDateFormat reference = new SimpleDateFormat("EEE", Locale.FRANCE);
+        Calendar calendar = Calendar.getInstance();
+
+        for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+            calendar.set(Calendar.DAY_OF_WEEK, day);
+            assertEquals(reference.format(calendar.getTime()), frenchDays[day]);
+        }
+    }
+
+    @Test
+    public void getTimeFromLong_matchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat reference = new SimpleDateFormat("HH:mm");
+        long midnight = WeekTime.atMinuteOfDay(System.currentTimeMillis(), 0, TimeZone.getDefault());
+
+        for (int minuteOfDay = 0; minuteOfDay < WeekTime.MINUTES_PER_DAY; minuteOfDay++) {
+            long time = midnight + minuteOfDay * WeekTime.MILLIS_PER_MINUTE;
+            assertEquals(reference.format(time), DateUtils.getTimeFromLong(time));
+        }
+    }
+
+    @Test
+    public void rowTimes_labelsMatchAFormatterPerCall() throws Exception {
+        TimeZone zone = TimeZone.getDefault();
+        long time = System.currentTimeMillis();
+
+        // The label table, filled on first use of each minute, against a new SimpleDateFormat per time
+        DateFormat timeFormat = TimeFormatter.buildTimeFormat(new SimpleDateFormat("HH:mm"));
+        String[] labels = new String[WeekTime.MINUTES_PER_DAY];
+        for (int i = 0; i < ROWS; i++) {
+            long rowTime = time + i * WeekTime.MILLIS_PER_MINUTE;
+            int minuteOfDay = WeekTime.minuteOfDay(rowTime, zone);
+            if (labels[minuteOfDay] == null)
+                labels[minuteOfDay] = TimeFormatter.formatTimeLabel(timeFormat, minuteOfDay);
+            assertEquals(new SimpleDateFormat("HH:mm").format(rowTime), labels[minuteOfDay]);
+        }
+    }
+}